@@ -0,0 +1,195 @@
+package bench;
+
+import api.ApiServer;
+import utils.Json;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closed-loop load client for the HTTP API: each simulated kiosk logs in as
+ * its own customer and then keeps listing vehicles and, now and then,
+ * renting one and returning it, timing every request.
+ *
+ *   java -cp bench/out bench.ApiLoad [--clients 500] [--seconds 20] [--rent-percent 20]
+ *                                    [--url http://host:8080] [--out api-load.json]
+ *
+ * Without --url it writes a synthetic files/ folder into the current
+ * directory (start it in an empty one, as with {@link ServiceBench}) and
+ * runs the server in the same JVM. With --url the server's files must come
+ * from {@link Datasets#writeFiles} so the customer logins exist.
+ */
+public class ApiLoad {
+    private static final long SEED = 7;
+
+    public static void main(String[] args) throws Exception {
+        int clients = 500;
+        int seconds = 20;
+        int rentPercent = 20;
+        int vehicles = 50;
+        String url = null;
+        String out = "api-load.json";
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--clients": clients = Integer.parseInt(args[i + 1]); break;
+                case "--seconds": seconds = Integer.parseInt(args[i + 1]); break;
+                case "--rent-percent": rentPercent = Integer.parseInt(args[i + 1]); break;
+                case "--vehicles": vehicles = Integer.parseInt(args[i + 1]); break;
+                case "--url": url = args[i + 1]; break;
+                case "--out": out = args[i + 1]; break;
+                default: throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+
+        ApiServer server = null;
+        if (url == null) {
+            Datasets.writeFiles(Paths.get("files"), 0, clients, vehicles, 1_000_000, SEED);
+            server = ApiServer.start(0);
+            url = "http://localhost:" + server.port();
+        }
+        System.out.printf("%d clients for %d s against %s%n", clients, seconds, url);
+
+        HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+        Map<String, Recorder> recorders = new ConcurrentHashMap<>();
+        AtomicLong failures = new AtomicLong();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        CountDownLatch done = new CountDownLatch(clients);
+        String base = url;
+        int percent = rentPercent;
+        int fleet = vehicles;
+        for (int c = 1; c <= clients; c++) {
+            int customer = c;
+            Thread t = new Thread(() -> {
+                try {
+                    new Kiosk(http, base, customer, recorders, fleet).run(deadline, percent);
+                } catch (Exception e) {
+                    failures.incrementAndGet();
+                } finally {
+                    done.countDown();
+                }
+            }, "kiosk-" + c);
+            t.setDaemon(true);
+            t.start();
+        }
+        done.await();
+        if (server != null) server.stop(0);
+
+        List<String> json = new ArrayList<>();
+        for (Map.Entry<String, Recorder> e : new TreeMap<>(recorders).entrySet()) {
+            Harness.Result r = e.getValue().result(e.getKey(), seconds);
+            System.out.println(r);
+            json.add(r.toJson());
+        }
+        if (failures.get() > 0) System.out.println(failures.get() + " client(s) stopped on an error");
+        Path p = Paths.get(out);
+        Files.write(p, ("{\"clients\":" + clients + ",\"seconds\":" + seconds + ",\"results\":" + Json.array(json) + "}\n").getBytes(StandardCharsets.UTF_8));
+        System.out.println("Results written to " + p.toAbsolutePath());
+    }
+
+    /** One simulated kiosk: a closed loop of requests as one customer. */
+    private static final class Kiosk {
+        final HttpClient http;
+        final String base;
+        final int customer;
+        final Map<String, Recorder> recorders;
+        final int fleet;
+        final Random rnd;
+        String token;
+
+        Kiosk(HttpClient http, String base, int customer, Map<String, Recorder> recorders, int fleet) {
+            this.http = http;
+            this.base = base;
+            this.customer = customer;
+            this.recorders = recorders;
+            this.fleet = fleet;
+            this.rnd = new Random(SEED + customer);
+        }
+
+        void run(long deadline, int rentPercent) throws Exception {
+            HttpResponse<String> login = call("login", "POST", "/api/login",
+                    "{\"email\":\"" + Datasets.email(customer) + "\",\"password\":\"" + Datasets.password(customer) + "\"}");
+            if (login.statusCode() != 200) throw new IllegalStateException("login failed: " + login.body());
+            token = field(login.body(), "token");
+            while (System.nanoTime() < deadline) {
+                if (rnd.nextInt(100) >= rentPercent) {
+                    call("vehicles", "GET", "/api/vehicles?available=true", null);
+                    continue;
+                }
+                String vehicle = String.format("V%03d", 1 + rnd.nextInt(fleet));
+                HttpResponse<String> rented = call("rent", "POST", "/api/rentals",
+                        "{\"vehicleId\":\"" + vehicle + "\",\"startDate\":\"2026-01-01\",\"endDate\":\"2026-01-03\"}");
+                if (rented.statusCode() == 201) {
+                    call("return", "POST", "/api/rentals/" + field(rented.body(), "id") + "/return", "");
+                }
+            }
+        }
+
+        HttpResponse<String> call(String op, String method, String path, String body) throws Exception {
+            HttpRequest.Builder b = HttpRequest.newBuilder(URI.create(base + path)).timeout(Duration.ofSeconds(60));
+            if (token != null) b.header("Authorization", "Bearer " + token);
+            b.method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body));
+            long t0 = System.nanoTime();
+            HttpResponse<String> r = http.send(b.build(), HttpResponse.BodyHandlers.ofString());
+            long ns = System.nanoTime() - t0;
+            // rejected rentals (409: badge limit or no stock) are answers too, but timed separately
+            String name = r.statusCode() < 300 ? op : op + " (" + r.statusCode() + ")";
+            recorders.computeIfAbsent(name, k -> new Recorder()).add(ns);
+            return r;
+        }
+
+        // good enough for the flat objects the API returns
+        static String field(String json, String name) {
+            int i = json.indexOf("\"" + name + "\":\"");
+            if (i < 0) return "";
+            int s = i + name.length() + 4;
+            return json.substring(s, json.indexOf('"', s));
+        }
+    }
+
+    /** Collects request latencies from every kiosk thread. */
+    private static final class Recorder {
+        private long[] ns = new long[1024];
+        private int n;
+
+        synchronized void add(long v) {
+            if (n == ns.length) ns = Arrays.copyOf(ns, n * 2);
+            ns[n++] = v;
+        }
+
+        synchronized Harness.Result result(String name, int seconds) {
+            long[] sorted = Arrays.copyOf(ns, n);
+            Arrays.sort(sorted);
+            long total = 0;
+            for (long v : sorted) total += v;
+            // ns/op here is wall time per completed request across all clients, so ops/s is throughput
+            double perOp = n == 0 ? 0 : seconds * 1e9 / n;
+            Harness.Result r = new Harness.Result(name, n, perOp, n == 0 ? 0 : sorted[0],
+                    percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99), n == 0 ? 0 : sorted[n - 1]);
+            if (n > 0) System.out.printf(Locale.ROOT, "  %s mean latency %.2f ms%n", name, total / (double) n / 1e6);
+            return r;
+        }
+
+        private static double percentile(long[] sorted, double q) {
+            if (sorted.length == 0) return 0;
+            int k = (int) Math.ceil(q * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, k))];
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package bench;
+
+import exceptions.RentalConflictException;
+import models.Rental;
+import services.RentalService;
+import services.VehicleService;
+
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks advance bookings on a vehicle with a single unit: bookings that do
+ * not overlap are all taken, whenever they start, overlapping ones are
+ * refused, and only a rental that has started takes the unit off the lot.
+ * Cancelling a booking before its start gives nothing back; returning a
+ * started rental does. Exits with status 1 on the first failed step.
+ *
+ *   java -cp bench/out bench.BookingCheck
+ *
+ * It writes a files/ folder into the current directory, so start it in an
+ * empty one.
+ */
+public class BookingCheck {
+    private static final List<String> failures = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        Datasets.writeFiles(Paths.get("files"), 0, 1, 1, 1, 7);
+        RentalService rentals = new RentalService();
+        VehicleService vehicles = new VehicleService();
+        LocalDate today = LocalDate.now();
+
+        String nextMonth = book(rentals, today.plusDays(30), today.plusDays(34), true);
+        String later = book(rentals, today.plusDays(40), today.plusDays(44), true);
+        expect("no unit taken for bookings ahead", vehicles.findById("V001").getQuantity(), 1);
+        book(rentals, today.plusDays(33), today.plusDays(41), false);
+        expect("free units next month", rentals.freeUnits("V001", today.plusDays(30), today.plusDays(34)), 0);
+        expect("free units in between", rentals.freeUnits("V001", today.plusDays(35), today.plusDays(39)), 1);
+
+        String now = book(rentals, today, today.plusDays(2), true);
+        expect("unit taken for a rental starting today", vehicles.findById("V001").getQuantity(), 0);
+        book(rentals, today.plusDays(1), today.plusDays(3), false);
+        expect("free units in between while rented", rentals.freeUnits("V001", today.plusDays(35), today.plusDays(39)), 1);
+
+        rentals.returnRental(nextMonth);
+        expect("nothing given back for a cancelled booking", vehicles.findById("V001").getQuantity(), 0);
+        rentals.returnRental(now);
+        expect("unit given back on return", vehicles.findById("V001").getQuantity(), 1);
+        book(rentals, today.plusDays(30), today.plusDays(34), true);
+        rentals.returnRental(later);
+        expect("quantity after all", vehicles.findById("V001").getQuantity(), 1);
+
+        if (!failures.isEmpty()) {
+            for (String f : failures) System.out.println("FAIL " + f);
+            System.exit(1);
+        }
+        System.out.println("OK");
+        System.exit(0);
+    }
+
+    // books V001 for C001 and returns the rental id; a refusal must match accepted
+    private static String book(RentalService rentals, LocalDate from, LocalDate to, boolean accepted) throws Exception {
+        Rental r = new Rental(rentals.nextRentalId(), "C001", "V001", from.toString(), to.toString(), 100.0, "RENTED");
+        boolean ok;
+        try {
+            rentals.addRental(r);
+            ok = true;
+        } catch (RentalConflictException e) {
+            ok = false;
+        }
+        String what = "booking " + from + " - " + to;
+        System.out.println(what + (ok ? " taken" : " refused"));
+        if (ok != accepted) failures.add(what + (accepted ? " refused" : " taken"));
+        return r.getId();
+    }
+
+    private static void expect(String what, int actual, int expected) {
+        System.out.println(what + ": " + actual);
+        if (actual != expected) failures.add(what + ": " + actual + ", expected " + expected);
+    }
+}
@@ -0,0 +1,108 @@
+package bench;
+
+import models.Customer;
+import models.Rental;
+import models.Vehicle;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the models' CsvCodec-based fromCSV/toCSV with the split and
+ * String.format versions they replaced (see LegacyCsv). Before timing it
+ * checks that both produce the same records and the same lines.
+ *
+ * Build and run from the VM folder:
+ *
+ *   javac -d bench/out $(find src bench/src -name '*.java')
+ *   java -cp bench/out bench.CsvCodecBench [rows]
+ */
+public class CsvCodecBench {
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        List<Rental> rentals = Datasets.rentals(rows, 1000, 200, 42);
+        List<Vehicle> vehicles = Datasets.vehicles(Math.max(1, rows / 10), 42);
+        List<Customer> customers = Datasets.customers(Math.max(1, rows / 10), 42);
+        List<String> rentalLines = new ArrayList<>();
+        for (Rental r : rentals) rentalLines.add(LegacyCsv.toCSV(r));
+        List<String> vehicleLines = new ArrayList<>();
+        for (Vehicle v : vehicles) vehicleLines.add(LegacyCsv.toCSV(v));
+        List<String> customerLines = new ArrayList<>();
+        for (Customer c : customers) customerLines.add(LegacyCsv.toCSV(c));
+
+        verify(rentals, vehicles, customers, rentalLines, vehicleLines, customerLines);
+
+        Harness h = new Harness(5, 10);
+        h.measure("rental parse  (split)", rentalLines.size(), n -> {
+            long sum = 0;
+            for (String l : rentalLines) sum += LegacyCsv.rental(l).getId().length();
+            return sum;
+        });
+        h.measure("rental parse  (CsvCodec)", rentalLines.size(), n -> {
+            long sum = 0;
+            for (String l : rentalLines) sum += Rental.fromCSV(l).getId().length();
+            return sum;
+        });
+        h.measure("rental format (String.format)", rentals.size(), n -> {
+            long sum = 0;
+            for (Rental r : rentals) sum += LegacyCsv.toCSV(r).length();
+            return sum;
+        });
+        h.measure("rental format (CsvCodec)", rentals.size(), n -> {
+            long sum = 0;
+            for (Rental r : rentals) sum += r.toCSV().length();
+            return sum;
+        });
+        h.measure("vehicle parse  (split)", vehicleLines.size(), n -> {
+            long sum = 0;
+            for (String l : vehicleLines) sum += LegacyCsv.vehicle(l).getYear();
+            return sum;
+        });
+        h.measure("vehicle parse  (CsvCodec)", vehicleLines.size(), n -> {
+            long sum = 0;
+            for (String l : vehicleLines) sum += Vehicle.fromCSV(l).getYear();
+            return sum;
+        });
+        h.measure("vehicle format (String.format)", vehicles.size(), n -> {
+            long sum = 0;
+            for (Vehicle v : vehicles) sum += LegacyCsv.toCSV(v).length();
+            return sum;
+        });
+        h.measure("vehicle format (CsvCodec)", vehicles.size(), n -> {
+            long sum = 0;
+            for (Vehicle v : vehicles) sum += v.toCSV().length();
+            return sum;
+        });
+        h.measure("customer parse (split)", customerLines.size(), n -> {
+            long sum = 0;
+            for (String l : customerLines) sum += LegacyCsv.customer(l).getCompletedRentals();
+            return sum;
+        });
+        h.measure("customer parse (CsvCodec)", customerLines.size(), n -> {
+            long sum = 0;
+            for (String l : customerLines) sum += Customer.fromCSV(l).getCompletedRentals();
+            return sum;
+        });
+    }
+
+    private static void verify(List<Rental> rentals, List<Vehicle> vehicles, List<Customer> customers,
+                               List<String> rentalLines, List<String> vehicleLines, List<String> customerLines) {
+        for (int i = 0; i < rentals.size(); i++) {
+            check(rentalLines.get(i).equals(rentals.get(i).toCSV()), "rental line " + rentalLines.get(i));
+            check(LegacyCsv.toCSV(LegacyCsv.rental(rentalLines.get(i))).equals(Rental.fromCSV(rentalLines.get(i)).toCSV()), "rental parse " + rentalLines.get(i));
+        }
+        for (int i = 0; i < vehicles.size(); i++) {
+            check(vehicleLines.get(i).equals(vehicles.get(i).toCSV()), "vehicle line " + vehicleLines.get(i));
+            check(LegacyCsv.toCSV(LegacyCsv.vehicle(vehicleLines.get(i))).equals(Vehicle.fromCSV(vehicleLines.get(i)).toCSV()), "vehicle parse " + vehicleLines.get(i));
+        }
+        for (int i = 0; i < customers.size(); i++) {
+            check(customerLines.get(i).equals(customers.get(i).toCSV()), "customer line " + customerLines.get(i));
+            check(LegacyCsv.toCSV(LegacyCsv.customer(customerLines.get(i))).equals(Customer.fromCSV(customerLines.get(i)).toCSV()), "customer parse " + customerLines.get(i));
+        }
+        System.out.println("Checked " + (rentals.size() + vehicles.size() + customers.size()) + " records: codec output matches the old code.");
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) throw new IllegalStateException("codec differs from the old code: " + what);
+    }
+}
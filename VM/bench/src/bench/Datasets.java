@@ -0,0 +1,105 @@
+package bench;
+
+import models.Customer;
+import models.Rental;
+import models.Vehicle;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** Synthetic records in the formats of the files/ folder. Same seed, same data. */
+public final class Datasets {
+    private static final String[] TYPES = {"Car", "Bike", "Truck"};
+    private static final String[] MAKES = {"Toyota", "Ford", "Honda", "Yamaha", "Volvo", "Tata"};
+    private static final String[] MODELS = {"Corolla", "Focus", "Civic", "R15", "FH16", "Ace"};
+    private static final LocalDate FIRST_DAY = LocalDate.of(2020, 1, 1);
+
+    private Datasets() { }
+
+    public static List<Vehicle> vehicles(int n, long seed) {
+        Random rnd = new Random(seed);
+        List<Vehicle> out = new ArrayList<>(n);
+        for (int i = 1; i <= n; i++) out.add(vehicle(i, rnd));
+        return out;
+    }
+
+    public static List<Customer> customers(int n, long seed) {
+        Random rnd = new Random(seed);
+        List<Customer> out = new ArrayList<>(n);
+        for (int i = 1; i <= n; i++) out.add(customer(i, rnd));
+        return out;
+    }
+
+    /** Rentals over the given customers and vehicles; roughly one in ten is still RENTED. */
+    public static List<Rental> rentals(int n, int customers, int vehicles, long seed) {
+        Random rnd = new Random(seed);
+        List<Rental> out = new ArrayList<>(n);
+        for (int i = 1; i <= n; i++) out.add(rental(i, customers, vehicles, rnd));
+        return out;
+    }
+
+    public static String email(int customer) {
+        return "customer" + customer + "@example.com";
+    }
+
+    public static String password(int customer) {
+        return "pw" + customer;
+    }
+
+    /**
+     * Writes admins.txt, customers.txt, vehicles.txt and rentals.txt into dir,
+     * streaming the rentals so 10M rows do not have to fit in memory.
+     * Vehicles get the given quantity so benchmarks can keep renting.
+     */
+    public static void writeFiles(Path dir, int rentals, int customers, int vehicles, int quantity, long seed) throws IOException {
+        Files.createDirectories(dir);
+        Files.write(dir.resolve("admins.txt"), "A001,admin,admin123\n".getBytes(StandardCharsets.UTF_8));
+        Random rnd = new Random(seed);
+        try (BufferedWriter w = Files.newBufferedWriter(dir.resolve("vehicles.txt"), StandardCharsets.UTF_8)) {
+            for (int i = 1; i <= vehicles; i++) {
+                Vehicle v = vehicle(i, rnd);
+                v.setQuantity(quantity);
+                w.write(v.toCSV());
+                w.newLine();
+            }
+        }
+        try (BufferedWriter w = Files.newBufferedWriter(dir.resolve("customers.txt"), StandardCharsets.UTF_8)) {
+            for (int i = 1; i <= customers; i++) {
+                w.write(customer(i, rnd).toCSV());
+                w.newLine();
+            }
+        }
+        try (BufferedWriter w = Files.newBufferedWriter(dir.resolve("rentals.txt"), StandardCharsets.UTF_8)) {
+            for (int i = 1; i <= rentals; i++) {
+                w.write(rental(i, customers, vehicles, rnd).toCSV());
+                w.newLine();
+            }
+        }
+    }
+
+    private static Vehicle vehicle(int i, Random rnd) {
+        return new Vehicle(String.format("V%03d", i), TYPES[rnd.nextInt(TYPES.length)], MAKES[rnd.nextInt(MAKES.length)],
+                MODELS[rnd.nextInt(MODELS.length)], 2005 + rnd.nextInt(20), 5 + rnd.nextInt(20000) / 100.0, true, 1 + rnd.nextInt(20));
+    }
+
+    private static Customer customer(int i, Random rnd) {
+        String badge = rnd.nextInt(4) == 0 ? "Gold" : "";
+        return new Customer(String.format("C%03d", i), "Customer " + i, email(i), String.format("%08d", rnd.nextInt(100_000_000)),
+                password(i), rnd.nextInt(12), badge);
+    }
+
+    private static Rental rental(int i, int customers, int vehicles, Random rnd) {
+        LocalDate start = FIRST_DAY.plusDays(rnd.nextInt(6 * 365));
+        int days = 1 + rnd.nextInt(14);
+        return new Rental(String.format("R%03d", i), String.format("C%03d", 1 + rnd.nextInt(customers)),
+                String.format("V%03d", 1 + rnd.nextInt(vehicles)), start.toString(), start.plusDays(days).toString(),
+                days * (5 + rnd.nextInt(20000) / 100.0), rnd.nextInt(10) == 0 ? "RENTED" : "RETURNED");
+    }
+}
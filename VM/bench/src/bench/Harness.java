@@ -0,0 +1,125 @@
+package bench;
+
+import utils.Json;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Minimal timing loops for the benchmarks in this folder.
+ *
+ * {@link #measure} times whole rounds of ops calls (throughput): warm-up
+ * rounds first so the JIT has compiled the code, then the measured rounds,
+ * reporting the median and best per-operation time.
+ *
+ * {@link #latency} times every call on its own and reports percentiles,
+ * for operations that are slow enough (file I/O, service calls) for
+ * System.nanoTime to resolve a single call.
+ *
+ * Results are written to {@link #sink} so the JIT cannot drop the work.
+ */
+public class Harness {
+    public static volatile Object sink;
+
+    private final int warmup;
+    private final int rounds;
+
+    public Harness(int warmup, int rounds) {
+        this.warmup = warmup;
+        this.rounds = rounds;
+    }
+
+    public interface Case {
+        /** Runs the operation ops times and returns something derived from the work. */
+        Object run(int ops) throws Exception;
+    }
+
+    public interface Op {
+        /** One call of the operation; i counts up from 0 across warm-up and measured calls. */
+        Object run(int i) throws Exception;
+    }
+
+    public static class Result {
+        public final String name;
+        public final int ops;
+        public final double nsPerOp;
+        public final double bestNs;
+        public final double p50;
+        public final double p90;
+        public final double p99;
+        public final double max;
+
+        Result(String name, int ops, double nsPerOp, double bestNs, double p50, double p90, double p99, double max) {
+            this.name = name;
+            this.ops = ops;
+            this.nsPerOp = nsPerOp;
+            this.bestNs = bestNs;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.max = max;
+        }
+
+        public double opsPerSecond() {
+            return nsPerOp <= 0 ? 0 : 1e9 / nsPerOp;
+        }
+
+        public String toJson() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("{\"name\":").append(Json.quote(name)).append(",\"ops\":").append(ops)
+                    .append(",\"nsPerOp\":").append(Json.number(nsPerOp)).append(",\"opsPerSecond\":").append(Json.number(opsPerSecond()))
+                    .append(",\"bestNs\":").append(Json.number(bestNs));
+            if (!Double.isNaN(p50)) {
+                sb.append(",\"p50Ns\":").append(Json.number(p50)).append(",\"p90Ns\":").append(Json.number(p90))
+                        .append(",\"p99Ns\":").append(Json.number(p99)).append(",\"maxNs\":").append(Json.number(max));
+            }
+            return sb.append('}').toString();
+        }
+
+        @Override
+        public String toString() {
+            if (Double.isNaN(p50)) {
+                return String.format(Locale.ROOT, "%-44s %14.1f ns/op (best %.1f) %14.0f ops/s", name, nsPerOp, bestNs, opsPerSecond());
+            }
+            return String.format(Locale.ROOT, "%-44s %14.1f ns/op  p50 %.0f  p99 %.0f  max %.0f %12.0f ops/s", name, nsPerOp, p50, p99, max, opsPerSecond());
+        }
+    }
+
+    public Result measure(String name, int ops, Case c) throws Exception {
+        for (int i = 0; i < warmup; i++) sink = c.run(ops);
+        double[] perOp = new double[rounds];
+        for (int i = 0; i < rounds; i++) {
+            long t0 = System.nanoTime();
+            sink = c.run(ops);
+            perOp[i] = (System.nanoTime() - t0) / (double) ops;
+        }
+        Arrays.sort(perOp);
+        Result r = new Result(name, ops, perOp[rounds / 2], perOp[0], Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+        System.out.println(r);
+        return r;
+    }
+
+    /** Times samples single calls after warmupCalls untimed ones. */
+    public static Result latency(String name, int warmupCalls, int samples, Op op) throws Exception {
+        int i = 0;
+        for (; i < warmupCalls; i++) sink = op.run(i);
+        long[] ns = new long[samples];
+        long total = 0;
+        for (int k = 0; k < samples; k++, i++) {
+            long t0 = System.nanoTime();
+            sink = op.run(i);
+            ns[k] = System.nanoTime() - t0;
+            total += ns[k];
+        }
+        Arrays.sort(ns);
+        Result r = new Result(name, samples, total / (double) samples, ns[0],
+                percentile(ns, 0.50), percentile(ns, 0.90), percentile(ns, 0.99), ns[samples - 1]);
+        System.out.println(r);
+        return r;
+    }
+
+    private static double percentile(long[] sorted, double q) {
+        int k = (int) Math.ceil(q * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, k))];
+    }
+}
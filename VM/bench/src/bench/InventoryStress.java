@@ -0,0 +1,154 @@
+package bench;
+
+import models.Vehicle;
+import services.VehicleService;
+import utils.FileManager;
+import utils.Metrics;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent stress test for the vehicle unit counters: many threads take
+ * and give back units of a small fleet with few units each, so most takes
+ * race for the last unit, while a watcher keeps reading the live counters
+ * and vehicles.txt. It fails (exit status 1) if a quantity is ever seen
+ * below zero or more units are out than the vehicle had, and if at the end
+ * the units taken minus the units returned differ from the drop in each
+ * vehicle's quantity, in memory or on disk. It also reports how many takes
+ * lost a compare-and-set race first, and fails if vehicles.txt was written
+ * more often than the background flush runs, which would mean a take or
+ * give-back wrote it.
+ *
+ *   java -cp bench/out bench.InventoryStress [--threads 32] [--seconds 10] [--vehicles 4] [--quantity 3]
+ *
+ * It writes a files/ folder into the current directory, so start it in an
+ * empty one; add -Dfiles.durability=group or async to stress those modes.
+ */
+public class InventoryStress {
+    private static final long SEED = 11;
+
+    public static void main(String[] args) throws Exception {
+        int threads = 32;
+        int seconds = 10;
+        int vehicles = 4;
+        int quantity = 3;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--threads": threads = Integer.parseInt(args[i + 1]); break;
+                case "--seconds": seconds = Integer.parseInt(args[i + 1]); break;
+                case "--vehicles": vehicles = Integer.parseInt(args[i + 1]); break;
+                case "--quantity": quantity = Integer.parseInt(args[i + 1]); break;
+                default: throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+        Datasets.writeFiles(Paths.get("files"), 0, 1, vehicles, quantity, SEED);
+        int fleet = vehicles;
+        int start = quantity;
+        VehicleService service = new VehicleService();
+        String[] ids = new String[vehicles];
+        for (int v = 0; v < vehicles; v++) ids[v] = String.format("V%03d", v + 1);
+        System.out.printf("%d threads for %d s over %d vehicles of %d units (%s writes)%n",
+                threads, seconds, vehicles, quantity, FileManager.durability());
+
+        AtomicLongArray taken = new AtomicLongArray(vehicles);
+        AtomicLongArray returned = new AtomicLongArray(vehicles);
+        AtomicLongArray refused = new AtomicLongArray(vehicles);
+        List<String> violations = new ArrayList<>();
+        AtomicInteger errors = new AtomicInteger();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            Random rnd = new Random(SEED + t);
+            Thread th = new Thread(() -> {
+                int[] held = new int[fleet];
+                try {
+                    while (System.nanoTime() < deadline) {
+                        int v = rnd.nextInt(fleet);
+                        if (held[v] > 0 && rnd.nextBoolean()) {
+                            // counted before the unit is back, so the watcher never sees more out than there are
+                            returned.incrementAndGet(v);
+                            held[v]--;
+                            service.incrementQuantity(ids[v]);
+                        } else if (service.decrementQuantity(ids[v])) {
+                            held[v]++;
+                            taken.incrementAndGet(v);
+                        } else {
+                            refused.incrementAndGet(v);
+                        }
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    errors.incrementAndGet();
+                } finally {
+                    done.countDown();
+                }
+            }, "renter-" + t);
+            th.start();
+        }
+
+        long samples = 0;
+        while (done.getCount() > 0) {
+            for (int v = 0; v < vehicles; v++) {
+                // taken before returned: returns counted since then only make out smaller
+                long out = taken.get(v);
+                out -= returned.get(v);
+                int live = service.findById(ids[v]).getQuantity();
+                if (live < 0) violation(violations, ids[v] + " quantity " + live + " in memory");
+                if (out > start) violation(violations, ids[v] + " has " + out + " units out of " + start);
+            }
+            for (Map.Entry<String, Integer> e : onDisk().entrySet()) {
+                if (e.getValue() < 0) violation(violations, e.getKey() + " quantity " + e.getValue() + " in vehicles.txt");
+            }
+            samples++;
+        }
+        long written = Metrics.file("files/vehicles.txt").writes();
+        service.flush();
+        FileManager.drain();
+
+        Map<String, Integer> disk = onDisk();
+        for (int v = 0; v < vehicles; v++) {
+            long expected = start - (taken.get(v) - returned.get(v));
+            int live = service.findById(ids[v]).getQuantity();
+            int file = disk.getOrDefault(ids[v], Integer.MIN_VALUE);
+            System.out.printf("%s taken %d, returned %d, refused %d, quantity %d in memory, %d on disk%n",
+                    ids[v], taken.get(v), returned.get(v), refused.get(v), live, file);
+            if (live != expected) violation(violations, ids[v] + " quantity " + live + " in memory, expected " + expected);
+            if (file != expected) violation(violations, ids[v] + " quantity " + file + " in vehicles.txt, expected " + expected);
+        }
+        System.out.println(samples + " samples taken while running");
+        Metrics.Histogram retries = Metrics.sizes("inventory.cas retries");
+        long changes = 0;
+        for (int v = 0; v < vehicles; v++) changes += taken.get(v) + returned.get(v);
+        System.out.printf("%d takes settled by compare-and-set, mean %.3f lost races before (max %d); vehicles.txt written %d times for %d unit changes%n",
+                retries.count(), retries.mean(), retries.max(), written, changes);
+        // the flusher runs every 200 ms; allow a few extra rounds around start and stop
+        if (Metrics.enabled() && written > seconds * 5L + 5) violation(violations, "vehicles.txt written " + written + " times in " + seconds + " s");
+        if (errors.get() > 0) violation(violations, errors.get() + " thread(s) stopped on an error");
+        if (!violations.isEmpty()) {
+            for (String v : violations) System.out.println("FAIL " + v);
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    private static Map<String, Integer> onDisk() throws Exception {
+        Map<String, Integer> out = new HashMap<>();
+        for (String line : FileManager.readAllLines("files/vehicles.txt")) {
+            Vehicle v = line.trim().isEmpty() ? null : Vehicle.fromCSV(line);
+            if (v != null) out.put(v.getId(), v.getQuantity());
+        }
+        return out;
+    }
+
+    private static void violation(List<String> violations, String message) {
+        if (violations.size() < 20) violations.add(message);
+    }
+}
@@ -0,0 +1,64 @@
+package bench;
+
+import models.Customer;
+import models.Rental;
+import models.Vehicle;
+
+/** The split/trim/String.format CSV code the models used before CsvCodec, kept as the baseline. */
+final class LegacyCsv {
+    private LegacyCsv() { }
+
+    static String toCSV(Rental r) {
+        return String.join(",", r.getId(), r.getCustomerId(), r.getVehicleId(), r.getStartDate(), r.getEndDate(), String.format("%.2f", r.getTotalPrice()), r.getStatus());
+    }
+
+    static Rental rental(String line) {
+        String[] p = line.split(",");
+        if (p.length < 7) return null;
+        try {
+            return new Rental(p[0].trim(), p[1].trim(), p[2].trim(), p[3].trim(), p[4].trim(), Double.parseDouble(p[5].trim()), p[6].trim());
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    static String toCSV(Vehicle v) {
+        return String.format("%s,%s,%s,%s,%d,%.2f,%b,%d", v.getId(), v.getType(), v.getMake(), v.getModel(), v.getYear(), v.getRatePerDay(), v.isAvailable(), v.getQuantity());
+    }
+
+    static Vehicle vehicle(String line) {
+        String[] p = line.split(",");
+        if (p.length < 7) return null;
+        try {
+            int qty = 1;
+            if (p.length >= 8) {
+                try { qty = Integer.parseInt(p[7].trim()); } catch (Exception ignored) { qty = 1; }
+            }
+            return new Vehicle(p[0].trim(), p[1].trim(), p[2].trim(), p[3].trim(), Integer.parseInt(p[4].trim()),
+                    Double.parseDouble(p[5].trim()), Boolean.parseBoolean(p[6].trim()), qty);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    static String toCSV(Customer c) {
+        return String.join(",", c.getId(), c.getName(), c.getEmail(), c.getPhone(), c.getPassword() == null ? "" : c.getPassword(),
+                String.valueOf(c.getCompletedRentals()), c.getBadge() == null ? "" : c.getBadge());
+    }
+
+    static Customer customer(String line) {
+        String[] p = line.split(",", -1);
+        if (p.length >= 7) {
+            try {
+                return new Customer(p[0].trim(), p[1].trim(), p[2].trim(), p[3].trim(), p[4].trim(), Integer.parseInt(p[5].trim()), p[6].trim());
+            } catch (Exception e) {
+                return new Customer(p[0].trim(), p[1].trim(), p[2].trim(), p[3].trim(), p[4].trim());
+            }
+        } else if (p.length == 5) {
+            return new Customer(p[0].trim(), p[1].trim(), p[2].trim(), p[3].trim(), p[4].trim());
+        } else if (p.length == 4) {
+            return new Customer(p[0].trim(), p[1].trim(), p[2].trim(), p[3].trim(), "");
+        }
+        return null;
+    }
+}
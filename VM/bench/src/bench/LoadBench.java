@@ -0,0 +1,87 @@
+package bench;
+
+import models.Rental;
+import utils.ParallelLoader;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Times loading a generated rentals.txt with one thread (read line by line,
+ * Rental.fromCSV each) against ParallelLoader on pools of 1, 2, 4, ...
+ * threads up to the number of cores, and prints the speedup of each. Before
+ * timing it checks that every pool returns the same rentals in the same
+ * order as the single-threaded load.
+ *
+ *   java -Xmx4g -cp bench/out bench.LoadBench [rows]
+ */
+public class LoadBench {
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        Path file = Files.createTempFile("rentals", ".txt");
+        try {
+            try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                for (Rental r : Datasets.rentals(rows, Math.max(100, rows / 50), Math.max(50, rows / 500), 42)) {
+                    w.write(r.toCSV());
+                    w.newLine();
+                }
+            }
+            System.out.printf(Locale.ROOT, "%,d rentals, %,d MB%n", rows, Files.size(file) >> 20);
+
+            List<Integer> threads = new ArrayList<>();
+            int cores = Runtime.getRuntime().availableProcessors();
+            for (int t = 1; t < cores; t *= 2) threads.add(t);
+            threads.add(cores);
+
+            List<String> expected = csv(sequential(file));
+            for (int t : threads) {
+                ForkJoinPool pool = new ForkJoinPool(t);
+                try {
+                    if (!csv(ParallelLoader.parse(file, Rental::fromCSV, pool)).equals(expected)) {
+                        throw new IllegalStateException("parallel load with " + t + " thread(s) differs from the sequential one");
+                    }
+                } finally {
+                    pool.shutdown();
+                }
+            }
+
+            Harness h = new Harness(2, 5);
+            double base = h.measure("single thread (line by line)", rows, n -> sequential(file).size()).nsPerOp;
+            for (int t : threads) {
+                ForkJoinPool pool = new ForkJoinPool(t);
+                try {
+                    double ns = h.measure("ParallelLoader, " + t + " thread(s)", rows, n -> ParallelLoader.parse(file, Rental::fromCSV, pool).size()).nsPerOp;
+                    System.out.printf(Locale.ROOT, "%44s %.2fx%n", "speedup", base / ns);
+                } finally {
+                    pool.shutdown();
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static List<Rental> sequential(Path file) throws Exception {
+        List<Rental> out = new ArrayList<>();
+        try (BufferedReader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            for (String l = r.readLine(); l != null; l = r.readLine()) {
+                Rental rental = l.trim().isEmpty() ? null : Rental.fromCSV(l);
+                if (rental != null) out.add(rental);
+            }
+        }
+        return out;
+    }
+
+    private static List<String> csv(List<Rental> rentals) {
+        List<String> out = new ArrayList<>(rentals.size());
+        for (Rental r : rentals) out.add(r.toCSV());
+        return out;
+    }
+}
@@ -0,0 +1,187 @@
+package bench;
+
+import models.Customer;
+import models.Rental;
+import models.Vehicle;
+import repositories.RentalLog;
+import services.CustomerService;
+import services.RentalService;
+import services.VehicleQuery;
+import services.VehicleService;
+import utils.FileManager;
+import utils.Json;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Benchmarks the services and FileManager against one generated dataset.
+ * The services use paths relative to the working directory, so this writes
+ * files/ into the current directory and must be started in an empty one;
+ * {@link Suite} does that for each dataset size.
+ *
+ *   java -cp bench/out bench.ServiceBench <rentals> <result.json>
+ *
+ * The "flow:" cases repeat the service calls and output formatting one CLI
+ * menu entry performs, without the screen clearing and loading animation
+ * Main adds around them.
+ */
+public class ServiceBench {
+    private static final long SEED = 42;
+    private static final Map<String, Integer> RENTER = new HashMap<>();
+
+    public static void main(String[] args) throws Exception {
+        int size = Integer.parseInt(args[0]);
+        String out = args.length > 1 ? args[1] : "result.json";
+        int customers = Math.max(100, size / 50);
+        int vehicles = Math.max(50, size / 500);
+        Path files = Paths.get("files");
+        long t0 = System.nanoTime();
+        Datasets.writeFiles(files, size, customers, vehicles, 1_000_000, SEED);
+        System.out.printf("%,d rentals, %,d customers, %,d vehicles written in %d ms%n", size, customers, vehicles, (System.nanoTime() - t0) / 1_000_000);
+
+        List<String> results = new ArrayList<>();
+        // whole-file work: fewer samples as the file grows
+        int heavy = (int) Math.max(3, Math.min(30, 2_000_000L / size));
+        Random rnd = new Random(SEED);
+
+        results.add(Harness.latency("FileManager.readAllLines(rentals.txt)", 1, heavy,
+                i -> FileManager.readAllLines("files/rentals.txt").size()).toJson());
+        RentalLog log = RentalLog.open("files/rentals.txt");
+        results.add(Harness.latency("RentalLog.reload (parse rentals)", 1, heavy, i -> {
+            log.reload();
+            return log.all().size();
+        }).toJson());
+
+        Object[] services = new Object[3];
+        results.add(Harness.latency("services start + first income query", 0, 1, i -> {
+            services[0] = new CustomerService();
+            services[1] = new VehicleService();
+            RentalService rs = new RentalService();
+            services[2] = rs;
+            return rs.totalIncome();
+        }).toJson());
+        CustomerService customerService = (CustomerService) services[0];
+        VehicleService vehicleService = (VehicleService) services[1];
+        RentalService rentalService = (RentalService) services[2];
+
+        results.add(Harness.latency("CustomerService.authenticate", 2_000, 20_000, i -> {
+            int c = 1 + rnd.nextInt(customers);
+            return customerService.authenticate(Datasets.email(c), Datasets.password(c));
+        }).toJson());
+        results.add(Harness.latency("VehicleService.findById", 2_000, 20_000,
+                i -> vehicleService.findById(vehicleId(1 + rnd.nextInt(vehicles)))).toJson());
+        results.add(Harness.latency("VehicleService.decrementQuantity", 2_000, 20_000,
+                i -> vehicleService.decrementQuantity(vehicleId(1 + i % vehicles))).toJson());
+        results.add(Harness.latency("VehicleService.incrementQuantity", 2_000, 20_000, i -> {
+            vehicleService.incrementQuantity(vehicleId(1 + i % vehicles));
+            return i;
+        }).toJson());
+        results.add(Harness.latency("RentalService.findByCustomer", 2_000, 20_000,
+                i -> rentalService.findByCustomer(customerId(1 + rnd.nextInt(customers))).size()).toJson());
+        results.add(Harness.latency("RentalService.totalIncome", 1_000, 10_000, i -> rentalService.totalIncome()).toJson());
+
+        int writes = 1_000;
+        List<String> added = new ArrayList<>();
+        results.add(Harness.latency("RentalService.addRental", 50, writes, i -> {
+            Rental r = newRental(rentalService.nextRentalId(), 1 + rnd.nextInt(customers), 1 + rnd.nextInt(vehicles));
+            rentalService.addRental(r);
+            added.add(r.getId());
+            return r;
+        }).toJson());
+        results.add(Harness.latency("RentalService.returnRental", 50, writes, i -> {
+            rentalService.returnRental(added.get(i));
+            return i;
+        }).toJson());
+
+        // CLI flows
+        results.add(Harness.latency("flow: customer login", 100, 2_000, i -> {
+            int c = 1 + rnd.nextInt(customers);
+            return customerService.authenticate(Datasets.email(c), Datasets.password(c));
+        }).toJson());
+        results.add(Harness.latency("flow: customer search vehicles (no filters)", 5, Math.min(500, heavy * 20), i -> {
+            StringBuilder sb = new StringBuilder();
+            for (Vehicle v : rentalService.search(new VehicleQuery(), 0, RentalService.historyPageSize()).rows) sb.append(v).append('\n');
+            return sb.length();
+        }).toJson());
+        String[] types = {"Car", "Bike", "Truck"};
+        results.add(Harness.latency("RentalService.search (type, rate, dates)", 200, 5_000, i -> {
+            VehicleQuery q = new VehicleQuery();
+            q.type = types[rnd.nextInt(types.length)];
+            q.minRate = rnd.nextInt(100);
+            q.maxRate = q.minRate + 20;
+            q.from = LocalDate.of(2020, 1, 1).plusDays(rnd.nextInt(2000));
+            q.to = q.from.plusDays(7);
+            return rentalService.search(q, 0, 20).total;
+        }).toJson());
+        results.add(Harness.latency("flow: customer rent a vehicle", 20, 500, i -> {
+            Customer c = customerService.findById(customerId(1 + rnd.nextInt(customers)));
+            Vehicle v = vehicleService.findById(vehicleId(1 + rnd.nextInt(vehicles)));
+            // Main checks the customer's rental limit here; the benchmark rents regardless to keep the write in the flow
+            Harness.sink = rentalService.countByCustomer(c.getId(), RentalLog.RENTED) < customerService.allowedConcurrentRentals(c);
+            Rental r = newRental(rentalService.nextRentalId(), Integer.parseInt(c.getId().substring(1)), Integer.parseInt(v.getId().substring(1)));
+            rentalService.addRental(r);
+            added.add(r.getId());
+            return r;
+        }).toJson());
+        results.add(Harness.latency("flow: customer return a vehicle", 20, 500, i -> {
+            String id = added.get(added.size() - 1 - i);
+            Rental r = null;
+            for (Rental x : rentalService.findByCustomer(customerId(RENTER.get(id)), RentalLog.RENTED)) if (x.getId().equals(id)) r = x;
+            if (r != null) rentalService.returnRental(id);
+            return r;
+        }).toJson());
+        results.add(Harness.latency("flow: customer view my rentals", 100, 2_000, i -> {
+            StringBuilder sb = new StringBuilder();
+            for (Rental r : rentalService.findByCustomer(customerId(1 + rnd.nextInt(customers)))) sb.append(r).append('\n');
+            return sb.length();
+        }).toJson());
+        results.add(Harness.latency("flow: admin view all vehicles", 5, Math.min(500, heavy * 20), i -> {
+            StringBuilder sb = new StringBuilder();
+            for (Vehicle v : vehicleService.loadAll()) sb.append(v).append('\n');
+            return sb.length();
+        }).toJson());
+        int pageSize = RentalService.historyPageSize();
+        results.add(Harness.latency("flow: admin rental history page", 50, 1_000, i -> {
+            RentalService.HistoryPage p = rentalService.history(rnd.nextInt(Math.max(1, size / pageSize)), pageSize);
+            StringBuilder sb = new StringBuilder();
+            for (RentalService.HistoryRow row : p.rows) {
+                sb.append(row.rental.getId()).append(" | ").append(row.customer == null ? "" : row.customer.getName())
+                        .append(" | ").append(row.vehicle == null ? "" : row.vehicle.getMake()).append('\n');
+            }
+            return sb.length();
+        }).toJson());
+        results.add(Harness.latency("flow: admin view total income", 5, 200, i -> {
+            long n = 0;
+            n += rentalService.incomeByMonth().size() + rentalService.incomeByVehicleType().size() + rentalService.incomeByVehicle().size();
+            return rentalService.totalIncome() + rentalService.returnedIncome() + n;
+        }).toJson());
+
+        vehicleService.flush();
+        String json = "{\"rentals\":" + size + ",\"customers\":" + customers + ",\"vehicles\":" + vehicles
+                + ",\"rentalsFileBytes\":" + Files.size(files.resolve("rentals.txt")) + ",\"results\":" + Json.array(results) + "}";
+        Files.write(Paths.get(out), json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Rental newRental(String id, int customer, int vehicle) {
+        LocalDate start = LocalDate.of(2026, 1, 1);
+        RENTER.put(id, customer);
+        return new Rental(id, customerId(customer), vehicleId(vehicle), start.toString(), start.plusDays(3).toString(), 99.5, RentalLog.RENTED);
+    }
+
+    private static String customerId(int n) {
+        return String.format("C%03d", n);
+    }
+
+    private static String vehicleId(int n) {
+        return String.format("V%03d", n);
+    }
+}
@@ -0,0 +1,173 @@
+package bench;
+
+import models.Rental;
+import repositories.RentalLog;
+import services.RentalService;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Times a cold start of the CLI at several history sizes, each in a fresh
+ * JVM on a generated files/ folder laid out as a long-running install
+ * keeps it: the history returned and moved to the archive by a fold, and
+ * a fixed number of recent open rentals in rentals.txt. It reports how
+ * long until Main shows its first menu, and how long the rent screen
+ * waits on a cold RentalService: today's free units, the customer's open
+ * rentals and a new rental id. Prints the median of the runs per size.
+ *
+ *   java -cp bench/out bench.StartupBench [--sizes 10000,2000000] [--open 500] [--runs 3]
+ *
+ * The child JVMs get the same -Xmx as this one.
+ */
+public class StartupBench {
+    private static final String PROMPT = "Choose:";
+    private static final int CUSTOMERS = 5000;
+    private static final int VEHICLES = 200;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--child")) {
+            firstRentScreen();
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--fold")) {
+            // through the service, so the fold leaves the rental id sequence behind as a running install does
+            new RentalService();
+            RentalLog.open("files/rentals.txt").compact();
+            System.exit(0);
+        }
+        String sizes = "10000,2000000";
+        int open = 500;
+        int runs = 3;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--sizes": sizes = args[i + 1]; break;
+                case "--open": open = Integer.parseInt(args[i + 1]); break;
+                case "--runs": runs = Integer.parseInt(args[i + 1]); break;
+                default: throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        String heap = "-Xmx" + Runtime.getRuntime().maxMemory() / (1024 * 1024) + "m";
+        String classPath = System.getProperty("java.class.path");
+
+        System.out.printf("%12s %14s %16s %18s%n", "history", "open rentals", "first menu ms", "rent screen ms");
+        for (String s : sizes.split(",")) {
+            int size = Integer.parseInt(s.trim().replace("_", ""));
+            Path dir = Files.createTempDirectory("vm-startup-" + size + "-");
+            try {
+                Path files = dir.resolve("files");
+                Datasets.writeFiles(files, size, CUSTOMERS, VEHICLES, 10, 5);
+                asHistory(files.resolve("rentals.txt"), size, open);
+                run(dir, java, heap, classPath, "--fold");
+                List<Long> menu = new ArrayList<>();
+                for (int r = 0; r < runs; r++) menu.add(firstMenu(dir, java, heap, classPath));
+                List<Long> screen = new ArrayList<>();
+                for (int r = 0; r < runs; r++) screen.add(Long.parseLong(run(dir, java, heap, classPath, "--child")));
+                System.out.printf(Locale.ROOT, "%,12d %,14d %16d %18d%n", size, open, median(menu), median(screen));
+            } finally {
+                delete(dir);
+            }
+        }
+    }
+
+    // every generated rental becomes returned history; open ones are added, all started in the last week
+    private static void asHistory(Path rentals, int size, int open) throws IOException {
+        Path tmp = rentals.resolveSibling("rentals.tmp");
+        try (BufferedReader in = Files.newBufferedReader(rentals, StandardCharsets.UTF_8);
+             BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (String l = in.readLine(); l != null; l = in.readLine()) {
+                out.write(l.endsWith(",RENTED") ? l.substring(0, l.length() - "RENTED".length()) + "RETURNED" : l);
+                out.newLine();
+            }
+            LocalDate today = LocalDate.now();
+            for (int i = 1; i <= open; i++) {
+                LocalDate start = today.minusDays(i % 7);
+                Rental r = new Rental(String.format("R%03d", size + i), String.format("C%03d", 1 + i % CUSTOMERS),
+                        String.format("V%03d", 1 + i % VEHICLES), start.toString(), start.plusDays(7).toString(), 100.0, "RENTED");
+                out.write(r.toCSV());
+                out.newLine();
+            }
+        }
+        Files.move(tmp, rentals, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // ms from launching Main until it prompts on the first menu; then picks Exit
+    private static long firstMenu(Path dir, String java, String heap, String classPath) throws Exception {
+        long t0 = System.nanoTime();
+        Process p = new ProcessBuilder(java, heap, "-cp", classPath, "Main").directory(dir.toFile()).redirectErrorStream(true).start();
+        StringBuilder seen = new StringBuilder();
+        InputStream in = p.getInputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while (seen.indexOf(PROMPT) < 0 && (n = in.read(buf)) > 0) seen.append(new String(buf, 0, n, StandardCharsets.UTF_8));
+        long ms = (System.nanoTime() - t0) / 1_000_000;
+        try (OutputStream out = p.getOutputStream()) {
+            out.write(("4" + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+        }
+        while (in.read(buf) > 0) {
+            // drain until it exits
+        }
+        if (p.waitFor() != 0 || seen.indexOf(PROMPT) < 0) throw new IllegalStateException("Main did not reach its menu: " + seen);
+        return ms;
+    }
+
+    // runs this class in a child JVM and returns the last line it printed
+    private static String run(Path dir, String java, String heap, String classPath, String mode) throws Exception {
+        Process p = new ProcessBuilder(java, heap, "-cp", classPath, StartupBench.class.getName(), mode)
+                .directory(dir.toFile()).redirectErrorStream(true).start();
+        String out = new String(readAll(p.getInputStream()), StandardCharsets.UTF_8).trim();
+        if (p.waitFor() != 0) throw new IllegalStateException(mode + " failed: " + out);
+        String[] lines = out.split("\\R");
+        return lines[lines.length - 1].trim();
+    }
+
+    // in the child: what the rent screen needs before it can take a booking
+    private static void firstRentScreen() throws Exception {
+        long t0 = System.nanoTime();
+        RentalService rentals = new RentalService();
+        rentals.availableBetween(LocalDate.now(), LocalDate.now());
+        rentals.countByCustomer("C001", RentalLog.RENTED);
+        rentals.nextRentalId();
+        long ms = (System.nanoTime() - t0) / 1_000_000;
+        System.out.println(ms);
+        System.exit(0);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream all = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) > 0) all.write(buf, 0, n);
+        return all.toByteArray();
+    }
+
+    private static long median(List<Long> values) {
+        List<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+
+    private static void delete(Path dir) throws IOException {
+        List<Path> all = new ArrayList<>();
+        try (java.util.stream.Stream<Path> walk = Files.walk(dir)) {
+            walk.forEach(all::add);
+        }
+        Collections.reverse(all);
+        for (Path p : all) Files.deleteIfExists(p);
+    }
+}
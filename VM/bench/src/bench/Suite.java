@@ -0,0 +1,109 @@
+package bench;
+
+import utils.Json;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Runs {@link ServiceBench} once per dataset size, each in a fresh JVM and
+ * an empty temp directory, and collects the runs into one JSON file so
+ * results from different commits or machines can be compared.
+ *
+ *   java -cp bench/out bench.Suite [--sizes 1000,10000,100000] [--out file.json] [--keep]
+ *
+ * Sizes up to 10,000,000 work but need a heap of several GB; the child
+ * JVMs get the same -Xmx as this one.
+ */
+public class Suite {
+    public static void main(String[] args) throws Exception {
+        String sizes = "1000,10000,100000";
+        String out = "bench/results/services-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".json";
+        boolean keep = false;
+        for (int i = 0; i < args.length; i++) {
+            if ("--sizes".equals(args[i])) sizes = args[++i];
+            else if ("--out".equals(args[i])) out = args[++i];
+            else if ("--keep".equals(args[i])) keep = true;
+        }
+        String classPath = absoluteClassPath();
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        long heapMb = Runtime.getRuntime().maxMemory() / (1024 * 1024);
+
+        List<String> runs = new ArrayList<>();
+        for (String s : sizes.split(",")) {
+            int size = Integer.parseInt(s.trim().replace("_", ""));
+            Path dir = Files.createTempDirectory("vm-bench-" + size + "-");
+            System.out.printf("=== %,d rentals (%s) ===%n", size, dir);
+            Process p = new ProcessBuilder(java, "-Xmx" + heapMb + "m", "-cp", classPath, ServiceBench.class.getName(),
+                    String.valueOf(size), "result.json").directory(dir.toFile()).inheritIO().start();
+            int code = p.waitFor();
+            if (code != 0) throw new IllegalStateException("benchmark for " + size + " rentals exited with " + code);
+            runs.add(new String(Files.readAllBytes(dir.resolve("result.json")), StandardCharsets.UTF_8));
+            if (!keep) delete(dir);
+        }
+
+        String json = "{\"timestamp\":" + Json.quote(LocalDateTime.now().toString())
+                + ",\"java\":" + Json.quote(System.getProperty("java.version"))
+                + ",\"os\":" + Json.quote(System.getProperty("os.name") + " " + System.getProperty("os.arch"))
+                + ",\"cores\":" + Runtime.getRuntime().availableProcessors()
+                + ",\"maxHeapMb\":" + heapMb
+                + ",\"runs\":" + Json.array(runs) + "}";
+        Path outPath = Paths.get(out);
+        if (outPath.getParent() != null) Files.createDirectories(outPath.getParent());
+        Files.write(outPath, json.getBytes(StandardCharsets.UTF_8));
+        printScaling(runs);
+        System.out.println("Results written to " + outPath);
+    }
+
+    // mean ns/op per case, one column per dataset size
+    private static void printScaling(List<String> runs) {
+        Pattern rentals = Pattern.compile("^\\{\"rentals\":(\\d+)");
+        Pattern result = Pattern.compile("\\{\"name\":\"((?:[^\"\\\\]|\\\\.)*)\",\"ops\":\\d+,\"nsPerOp\":([0-9.]+)");
+        Map<String, List<String>> rows = new LinkedHashMap<>();
+        StringBuilder header = new StringBuilder(String.format("%-44s", "ns/op by rentals"));
+        for (int i = 0; i < runs.size(); i++) {
+            Matcher m = rentals.matcher(runs.get(i));
+            header.append(String.format("%16s", m.find() ? String.format("%,d", Long.parseLong(m.group(1))) : "?"));
+            Matcher r = result.matcher(runs.get(i));
+            while (r.find()) {
+                List<String> row = rows.computeIfAbsent(r.group(1), k -> new ArrayList<>());
+                while (row.size() < i) row.add("");
+                row.add(String.format(Locale.ROOT, "%.0f", Double.parseDouble(r.group(2))));
+            }
+        }
+        System.out.println();
+        System.out.println(header);
+        for (Map.Entry<String, List<String>> e : rows.entrySet()) {
+            StringBuilder line = new StringBuilder(String.format("%-44s", e.getKey()));
+            for (String v : e.getValue()) line.append(String.format("%16s", v));
+            System.out.println(line);
+        }
+    }
+
+    private static String absoluteClassPath() {
+        List<String> parts = new ArrayList<>();
+        for (String p : System.getProperty("java.class.path").split(File.pathSeparator)) parts.add(Paths.get(p).toAbsolutePath().toString());
+        return String.join(File.pathSeparator, parts);
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> walk = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) walk.sorted(Comparator.reverseOrder())::iterator) Files.deleteIfExists(p);
+        }
+    }
+}
@@ -13,6 +13,7 @@ import java.time.temporal.ChronoUnit;
 
 import services.VehicleService;
 import services.RentalService;
+import utils.Metrics;
 
 public class Main {
     private static final CustomerService customerService = new CustomerService();
@@ -30,7 +31,7 @@ public class Main {
     private static final boolean ANSI_SUPPORTED = detectAnsiSupport();
 
     public static void main(String[] args) {
-        
+        Metrics.registerMBean();
         Scanner scanner = new Scanner(System.in);
         while (true) {
             printMainMenu();
@@ -169,7 +170,8 @@ public class Main {
             System.out.println(YELLOW + "4) View rental history" + RESET);
             System.out.println(YELLOW + "5) View total income" + RESET);
             System.out.println(YELLOW + "6) Profile" + RESET);
-            System.out.println(YELLOW + "7) Back" + RESET);
+            System.out.println(YELLOW + "7) Metrics" + RESET);
+            System.out.println(YELLOW + "8) Back" + RESET);
             System.out.print(CYAN + "Choose: " + RESET);
             String c = readLine(scanner);
             if (c == null) return;
@@ -195,18 +197,7 @@ public class Main {
                 continue;
             }
             if ("4".equals(c)) {
-                clearScreen();
-                showBreadcrumb("Rental History");
-                for (models.Rental r : rentalService.loadAll()) {
-                    models.Customer cust = customerService.findById(r.getCustomerId());
-                    models.Vehicle veh = vehicleService.findById(r.getVehicleId());
-                    String custName = cust == null ? r.getCustomerId() : cust.getName() + " (" + cust.getEmail() + ")";
-                    String vehDesc = veh == null ? r.getVehicleId() : veh.getType() + " " + veh.getMake() + " " + veh.getModel();
-                    System.out.println(String.format("%s | %s | %s | %s to %s | $%.2f | %s", r.getId(), custName, vehDesc, r.getStartDate(), r.getEndDate(), r.getTotalPrice(), r.getStatus()));
-                }
-                System.out.println();
-                System.out.print(CYAN + "Press Enter to return..." + RESET);
-                readLine(scanner);
+                adminRentalHistory(scanner);
                 continue;
             }
             if ("5".equals(c)) {
@@ -214,6 +205,11 @@ public class Main {
                 showBreadcrumb("Total Income");
                 double total = rentalService.totalIncome();
                 System.out.println(GREEN + String.format("Total income: $%.2f", total) + RESET);
+                System.out.println(YELLOW + String.format("From returned rentals: $%.2f", rentalService.returnedIncome()) + RESET);
+                printIncomeBreakdown("By month", rentalService.incomeByMonth(), 12);
+                printIncomeBreakdown("By vehicle type", rentalService.incomeByVehicleType(), 0);
+                printIncomeBreakdown("By vehicle", rentalService.incomeByVehicle(), 0);
+                printIncomeBreakdown("By day (most recent)", rentalService.incomeByDay(), 14);
                 System.out.println();
                 System.out.print(CYAN + "Press Enter to return..." + RESET);
                 readLine(scanner);
@@ -225,6 +221,10 @@ public class Main {
                 continue;
             }
             if ("7".equals(c)) {
+                adminMetrics(scanner);
+                continue;
+            }
+            if ("8".equals(c)) {
                 transitionTo("Main Menu");
                 return;
             }
@@ -232,6 +232,144 @@ public class Main {
         }
     }
 
+    private static void adminMetrics(Scanner scanner) {
+        while (true) {
+            clearScreen();
+            showBreadcrumb("Metrics");
+            if (!Metrics.enabled()) System.out.println(YELLOW + "Metrics are off (started with -Dmetrics=false)." + RESET);
+            System.out.print(Metrics.report());
+            System.out.println();
+            System.out.print(CYAN + "r = refresh, c = clear counters, Enter = return: " + RESET);
+            String in = readLine(scanner);
+            if (in == null || in.trim().isEmpty()) return;
+            if ("c".equalsIgnoreCase(in.trim())) Metrics.reset();
+        }
+    }
+
+    private static void adminRentalHistory(Scanner scanner) {
+        int pageSize = RentalService.historyPageSize();
+        int page = 0;
+        // one buffered write per page instead of a flush per line
+        java.io.BufferedWriter out = new java.io.BufferedWriter(new java.io.OutputStreamWriter(System.out), 1 << 16);
+        while (true) {
+            clearScreen();
+            showBreadcrumb("Rental History");
+            RentalService.HistoryPage hp = rentalService.history(page, pageSize);
+            try {
+                for (RentalService.HistoryRow row : hp.rows) {
+                    models.Rental r = row.rental;
+                    models.Customer cust = row.customer;
+                    models.Vehicle veh = row.vehicle;
+                    String custName = cust == null ? r.getCustomerId() : cust.getName() + " (" + cust.getEmail() + ")";
+                    String vehDesc = veh == null ? r.getVehicleId() : veh.getType() + " " + veh.getMake() + " " + veh.getModel();
+                    out.write(String.format("%s | %s | %s | %s to %s | $%.2f | %s", r.getId(), custName, vehDesc, r.getStartDate(), r.getEndDate(), r.getTotalPrice(), r.getStatus()));
+                    out.newLine();
+                }
+                out.newLine();
+                out.flush();
+            } catch (IOException e) {
+                System.out.println(RED + "Failed to print history: " + e.getMessage() + RESET);
+                return;
+            }
+            System.out.println(YELLOW + String.format("Page %d of %d (%d rentals)", hp.page + 1, hp.pageCount, hp.total) + RESET);
+            if (hp.pageCount <= 1) {
+                System.out.print(CYAN + "Press Enter to return..." + RESET);
+                readLine(scanner);
+                return;
+            }
+            System.out.print(CYAN + "n = next, p = previous, Enter = return: " + RESET);
+            String nav = readLine(scanner);
+            if (nav == null || nav.isEmpty()) return;
+            if (nav.equalsIgnoreCase("n") && hp.page + 1 < hp.pageCount) page = hp.page + 1;
+            else if (nav.equalsIgnoreCase("p") && hp.page > 0) page = hp.page - 1;
+            else page = hp.page;
+        }
+    }
+
+    // filters are asked one by one; blank means "any", and blank dates mean today
+    private static void searchVehicles(Scanner scanner) {
+        clearScreen();
+        showBreadcrumb("Search Vehicles");
+        services.VehicleQuery q = new services.VehicleQuery();
+        String s;
+        System.out.print(CYAN + "Type (Car/Bike/Truck): " + RESET);
+        if ((s = readLine(scanner)) == null) return;
+        if (!s.isEmpty()) q.type = s;
+        System.out.print(CYAN + "Make starts with: " + RESET);
+        if ((s = readLine(scanner)) == null) return;
+        if (!s.isEmpty()) q.makePrefix = s;
+        System.out.print(CYAN + "Model starts with: " + RESET);
+        if ((s = readLine(scanner)) == null) return;
+        if (!s.isEmpty()) q.modelPrefix = s;
+        try {
+            System.out.print(CYAN + "Year from: " + RESET);
+            if ((s = readLine(scanner)) == null) return;
+            if (!s.isEmpty()) q.minYear = Integer.parseInt(s);
+            System.out.print(CYAN + "Year to: " + RESET);
+            if ((s = readLine(scanner)) == null) return;
+            if (!s.isEmpty()) q.maxYear = Integer.parseInt(s);
+            System.out.print(CYAN + "Min rate per day: " + RESET);
+            if ((s = readLine(scanner)) == null) return;
+            if (!s.isEmpty()) q.minRate = Double.parseDouble(s);
+            System.out.print(CYAN + "Max rate per day: " + RESET);
+            if ((s = readLine(scanner)) == null) return;
+            if (!s.isEmpty()) q.maxRate = Double.parseDouble(s);
+        } catch (NumberFormatException e) {
+            System.out.println(RED + "Invalid number." + RESET);
+            try { Thread.sleep(400); } catch (InterruptedException ignored) {}
+            return;
+        }
+        System.out.print(CYAN + "From date (YYYY-MM-DD): " + RESET);
+        if ((s = readLine(scanner)) == null) return;
+        boolean badDate = false;
+        if (!s.isEmpty()) badDate = (q.from = tryParseDate(s)) == null;
+        System.out.print(CYAN + "To date (YYYY-MM-DD): " + RESET);
+        if ((s = readLine(scanner)) == null) return;
+        if (!s.isEmpty()) badDate |= (q.to = tryParseDate(s)) == null;
+        if (badDate || (q.from == null && q.to != null) || (q.from != null && q.to != null && q.to.isBefore(q.from))) {
+            System.out.println(RED + "Invalid date range." + RESET);
+            try { Thread.sleep(400); } catch (InterruptedException ignored) {}
+            return;
+        }
+        int pageSize = RentalService.historyPageSize();
+        int page = 0;
+        while (true) {
+            clearScreen();
+            showBreadcrumb("Search Vehicles");
+            RentalService.SearchPage sp = rentalService.search(q, page, pageSize);
+            // Qty is the number of units free on every day of the range
+            for (models.Vehicle v : sp.rows) System.out.println(v.toString());
+            System.out.println();
+            System.out.println(YELLOW + String.format("Page %d of %d (%d vehicles, cheapest first)", sp.page + 1, sp.pageCount, sp.total) + RESET);
+            if (sp.pageCount <= 1) {
+                System.out.print(CYAN + "Press Enter to return..." + RESET);
+                readLine(scanner);
+                return;
+            }
+            System.out.print(CYAN + "n = next, p = previous, Enter = return: " + RESET);
+            String nav = readLine(scanner);
+            if (nav == null || nav.isEmpty()) return;
+            if (nav.equalsIgnoreCase("n") && sp.page + 1 < sp.pageCount) page = sp.page + 1;
+            else if (nav.equalsIgnoreCase("p") && sp.page > 0) page = sp.page - 1;
+            else page = sp.page;
+        }
+    }
+
+    // prints one income rollup; with limit > 0 only the last `limit` keys are shown
+    private static void printIncomeBreakdown(String title, java.util.TreeMap<String, Double> rows, int limit) {
+        System.out.println();
+        System.out.println(MAGENTA + title + RESET);
+        if (rows.isEmpty()) {
+            System.out.println("  (no rentals yet)");
+            return;
+        }
+        int skip = limit > 0 ? Math.max(0, rows.size() - limit) : 0;
+        for (java.util.Map.Entry<String, Double> e : rows.entrySet()) {
+            if (skip-- > 0) continue;
+            System.out.println(String.format("  %-12s $%.2f", e.getKey(), e.getValue()));
+        }
+    }
+
     private static void adminProfile(Scanner scanner) {
         transitionTo("Admin Profile");
         try {
@@ -353,8 +491,7 @@ public class Main {
                 }
             }
 
-            int count = vehicleService.loadAll().size();
-            String id = String.format("V%03d", count + 1);
+            String id = vehicleService.nextVehicleId();
             models.Vehicle v = new models.Vehicle(id, type, make.trim(), model.trim(), year, rate, av, quantity);
             vehicleService.addVehicle(v);
             System.out.println(GREEN + "Vehicle added: " + v.toString() + RESET);
@@ -493,12 +630,7 @@ public class Main {
             }
 
             models.Vehicle updated = new models.Vehicle(sel.getId(), sel.getType(), sel.getMake(), sel.getModel(), year, rate, av, quantity);
-            List<models.Vehicle> updatedList = new java.util.ArrayList<>();
-            for (models.Vehicle v : list) {
-                if (v.getId().equals(updated.getId())) updatedList.add(updated);
-                else updatedList.add(v);
-            }
-            vehicleService.saveAll(updatedList);
+            vehicleService.updateVehicle(updated);
             System.out.println(GREEN + "Vehicle updated." + RESET);
             try { Thread.sleep(600); } catch (InterruptedException ignored) {}
         } catch (Exception e) {
@@ -541,7 +673,7 @@ public class Main {
         while (true) {
             transitionTo("Customer Menu - " + customer.getName());
             System.out.println(MAGENTA + "--- Customer Menu (" + customer.getName() + ") ---" + RESET);
-            System.out.println(YELLOW + "1) View available vehicles" + RESET);
+            System.out.println(YELLOW + "1) Search available vehicles" + RESET);
             System.out.println(YELLOW + "2) Rent a vehicle" + RESET);
             System.out.println(YELLOW + "3) Return vehicle" + RESET);
             System.out.println(YELLOW + "4) View my rentals" + RESET);
@@ -556,14 +688,7 @@ public class Main {
             }
 
             if ("1".equals(c)) {
-                clearScreen();
-                showBreadcrumb("Available Vehicles");
-                for (models.Vehicle v : vehicleService.loadAll()) {
-                    if (v.getQuantity() > 0) System.out.println(v.toString());
-                }
-                System.out.println();
-                System.out.print(CYAN + "Press Enter to return..." + RESET);
-                readLine(scanner);
+                searchVehicles(scanner);
                 continue;
             }
 
@@ -572,19 +697,18 @@ public class Main {
                 while (true) {
                     clearScreen();
                     showBreadcrumb("Rent a Vehicle");
-                    for (models.Vehicle v : vehicleService.loadAll()) if (v.getQuantity() > 0) System.out.println(v.toString());
+                    System.out.println("Free today (other dates may have units too):");
+                    for (models.Vehicle v : rentalService.availableBetween(LocalDate.now(), LocalDate.now())) System.out.println(v.toString());
                     System.out.print(CYAN + "Enter vehicle ID to rent (or 'back'): " + RESET);
                     String vid = readLine(scanner);
                     if (vid == null) return;
                     if (vid.equalsIgnoreCase("back")) break;
                     models.Vehicle veh = vehicleService.findById(vid.trim());
                     if (veh == null) { System.out.println(RED + "Vehicle not found." + RESET); try { Thread.sleep(300); } catch (InterruptedException ignored) {} continue; }
-                    if (veh.getQuantity() <= 0) { System.out.println(RED + "Selected vehicle has no available units." + RESET); try { Thread.sleep(300); } catch (InterruptedException ignored) {} continue; }
 
                     // check concurrent rental allowance
-                    int active = 0;
-                    for (models.Rental rr : rentalService.loadAll()) if (rr.getCustomerId().equals(customer.getId()) && "RENTED".equalsIgnoreCase(rr.getStatus())) active++;
-                    int allowed = customerService.allowedConcurrentRentals(customer);
+                    int active = rentalService.countByCustomer(customer.getId(), "RENTED");
+                    int allowed = customerService.allowedConcurrentRentals(rentalService.withCompletedRentals(customer));
                     if (active >= allowed) {
                         System.out.println(RED + String.format("You have %d active rental(s). Your current badge allows %d concurrent rental(s). Return existing rentals to proceed.", active, allowed) + RESET);
                         System.out.print(CYAN + "Press Enter to return to the menu..." + RESET);
@@ -616,6 +740,7 @@ public class Main {
                     }
                     if (end == null) break;
                     if (end.isBefore(start)) { System.out.println(RED + "End date cannot be before start date." + RESET); try { Thread.sleep(300); } catch (InterruptedException ignored) {} continue; }
+                    if (rentalService.freeUnits(veh.getId(), start, end) < 1) { System.out.println(RED + "Selected vehicle is fully booked on some of those days." + RESET); try { Thread.sleep(300); } catch (InterruptedException ignored) {} continue; }
                     long days = ChronoUnit.DAYS.between(start, end) + 1;
                     double total = days * veh.getRatePerDay();
                     System.out.println(YELLOW + String.format("Total: $%.2f for %d days", total, days) + RESET);
@@ -626,10 +751,9 @@ public class Main {
 
                     // create rental
                     try {
-                        int count = rentalService.loadAll().size();
-                        String rid = String.format("R%03d", count + 1);
+                        String rid = rentalService.nextRentalId();
                         models.Rental r = new models.Rental(rid, customer.getId(), veh.getId(), start.toString(), end.toString(), total, "RENTED");
-                        rentalService.addRental(r);
+                        rentalService.addRental(r, allowed);
                         System.out.println(GREEN + "Rental created: " + r.toString() + RESET);
                         try { Thread.sleep(600); } catch (InterruptedException ignored) {}
                         break;
@@ -650,8 +774,7 @@ public class Main {
                 // Return vehicle
                 clearScreen();
                 showBreadcrumb("Return Vehicle");
-                List<models.Rental> myR = new java.util.ArrayList<>();
-                for (models.Rental r : rentalService.loadAll()) if (r.getCustomerId().equals(customer.getId()) && "RENTED".equalsIgnoreCase(r.getStatus())) myR.add(r);
+                List<models.Rental> myR = rentalService.findByCustomer(customer.getId(), "RENTED");
                 if (myR.isEmpty()) {
                     System.out.println(MAGENTA + "You have no rented vehicles." + RESET);
                     System.out.print(CYAN + "Press Enter to return..." + RESET);
@@ -679,9 +802,7 @@ public class Main {
             if ("4".equals(c)) {
                 clearScreen();
                 showBreadcrumb("My Rentals");
-                for (models.Rental r : rentalService.loadAll()) {
-                    if (r.getCustomerId().equals(customer.getId())) System.out.println(r.toString());
-                }
+                for (models.Rental r : rentalService.findByCustomer(customer.getId())) System.out.println(r.toString());
                 System.out.println();
                 System.out.print(CYAN + "Press Enter to return..." + RESET);
                 readLine(scanner);
@@ -818,14 +939,8 @@ public class Main {
             Customer c = customerService.findById(customer.getId());
             if (c == null) { System.out.println(RED + "Customer not found." + RESET); return; }
 
-            // Recompute completed rentals from rental history (covers existing returned rentals)
-            int completed = 0;
-            for (models.Rental rr : rentalService.loadAll()) {
-                if (rr.getCustomerId().equals(c.getId()) && "RETURNED".equalsIgnoreCase(rr.getStatus())) completed++;
-            }
-            c.setCompletedRentals(completed);
-            // set badge according to same rules as CustomerService.incrementCompletedRentals
-            if (completed >= 25) c.setBadge("SILVER"); else if (completed >= 10) c.setBadge("BRONZE"); else c.setBadge("");
+            // completed rentals and badge come from the rental history
+            rentalService.withCompletedRentals(c);
             // persist the updated counts so file reflects history
             try { customerService.updateCustomer(c); } catch (Exception ignored) {}
 
@@ -882,14 +997,13 @@ public class Main {
         try {
             Customer c = customerService.findById(customer.getId());
             if (c == null) { System.out.println(RED + "Customer not found." + RESET); return; }
-            // compute completed rentals without persisting
-            int completed = 0;
-            for (models.Rental rr : rentalService.loadAll()) if (rr.getCustomerId().equals(c.getId()) && "RETURNED".equalsIgnoreCase(rr.getStatus())) completed++;
+            // compute completed rentals and badge without persisting
+            rentalService.withCompletedRentals(c);
             System.out.println(YELLOW + "ID: " + c.getId() + RESET);
             System.out.println(YELLOW + "Name: " + c.getName() + RESET);
             System.out.println(YELLOW + "Email: " + c.getEmail() + RESET);
             System.out.println(YELLOW + "Phone: " + c.getPhone() + RESET);
-            System.out.println(YELLOW + "Completed rentals: " + completed + RESET);
+            System.out.println(YELLOW + "Completed rentals: " + c.getCompletedRentals() + RESET);
             System.out.println(YELLOW + "Badge: " + (c.getBadge().isEmpty() ? "None" : c.getBadge()) + RESET);
             System.out.println();
             System.out.print(CYAN + "Press Enter to return..." + RESET);
@@ -0,0 +1,476 @@
+package api;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import exceptions.RentalConflictException;
+import models.Admin;
+import models.Customer;
+import models.Rental;
+import models.Vehicle;
+import services.AdminService;
+import services.CustomerService;
+import services.RentalService;
+import services.VehicleQuery;
+import services.VehicleService;
+import utils.Json;
+import utils.Metrics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HTTP/JSON front end over the same services the CLI uses, on the JDK's
+ * built-in server. Each request runs on its own virtual thread when the JDK
+ * has them (21+), otherwise on a pool of api.threads platform threads.
+ *
+ *   POST /api/login               {"email","password"} or {"username","password"} for an admin
+ *   POST /api/logout
+ *   GET  /api/vehicles[?available=true | ?from=YYYY-MM-DD&to=YYYY-MM-DD]
+ *   GET  /api/vehicles/search?type=&make=&model=&minYear=&maxYear=&minRate=&maxRate=&from=&to=&page=&pageSize=
+ *   GET  /api/rentals[?status=RENTED]   own rentals; admins get ?page=N of the full history,
+ *                                 or every rental matching ?from=&to=&status=
+ *   POST /api/rentals             {"vehicleId","startDate","endDate"}
+ *   POST /api/rentals/{id}/return
+ *   GET  /api/income              admin only
+ *
+ * Everything but login and the vehicle list needs "Authorization: Bearer
+ * token" with the token login returned. Sessions live in memory and expire
+ * after api.sessionMinutes (default 30) without use; logins sweep out the
+ * expired ones, so the table only holds sessions of the last few minutes.
+ * Failures the client cannot act on come back as a bare 500; the details go
+ * to stderr.
+ *
+ *   java -cp out api.ApiServer [port]      (default 8080, or -Dapi.port)
+ */
+public class ApiServer {
+    private static final int MAX_BODY = 64 * 1024;
+    private static final long SESSION_MS = TimeUnit.MINUTES.toMillis(Long.getLong("api.sessionMinutes", 30));
+    private static final long SWEEP_MS = Math.min(SESSION_MS, TimeUnit.MINUTES.toMillis(1));
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final CustomerService customerService = new CustomerService();
+    private final AdminService adminService = new AdminService();
+    private final VehicleService vehicleService = new VehicleService();
+    private final RentalService rentalService = new RentalService();
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong lastSweep = new AtomicLong(System.currentTimeMillis());
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private static final class Session {
+        final boolean admin;
+        final String userId;
+        volatile long lastSeen = System.currentTimeMillis();
+
+        Session(boolean admin, String userId) {
+            this.admin = admin;
+            this.userId = userId;
+        }
+    }
+
+    /** Carries an HTTP status out of a handler. */
+    private static final class ApiError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        final int status;
+
+        ApiError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private interface Route {
+        void handle(HttpExchange ex) throws Exception;
+    }
+
+    private ApiServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), Integer.getInteger("api.backlog", 1024));
+        executor = requestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/api/login", ex -> serve(ex, this::login));
+        server.createContext("/api/logout", ex -> serve(ex, this::logout));
+        server.createContext("/api/vehicles", ex -> serve(ex, this::vehicles));
+        server.createContext("/api/rentals", ex -> serve(ex, this::rentals));
+        server.createContext("/api/income", ex -> serve(ex, this::income));
+    }
+
+    /** Starts serving on port (0 picks a free one). */
+    public static ApiServer start(int port) throws IOException {
+        ApiServer api = new ApiServer(port);
+        Metrics.registerMBean();
+        api.server.start();
+        return api;
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /** Stops accepting requests, waits up to delaySeconds for running ones and writes pending unit counts. */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+        try {
+            vehicleService.flush();
+        } catch (IOException ignored) {
+            // the inventory's own shutdown hook retries
+        }
+    }
+
+    // virtual threads when the running JDK has them; looked up reflectively so the code still builds on 8-17
+    private static ExecutorService requestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(Integer.getInteger("api.threads", 200), r -> {
+                Thread t = new Thread(r, "api-worker");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    // ---- routes ----
+
+    private void login(HttpExchange ex) throws IOException {
+        requireMethod(ex, "POST");
+        Map<String, Object> body = body(ex);
+        String password = text(body, "password");
+        Session session;
+        if (body.get("username") != null) {
+            Admin a = adminService.authenticate(text(body, "username"), password);
+            if (a == null) throw new ApiError(401, "invalid username or password");
+            session = new Session(true, a.getId());
+        } else {
+            Customer c = customerService.authenticate(text(body, "email"), password);
+            if (c == null) throw new ApiError(401, "invalid email or password");
+            session = new Session(false, c.getId());
+        }
+        byte[] raw = new byte[24];
+        RANDOM.nextBytes(raw);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(raw);
+        sweepSessions(session.lastSeen);
+        sessions.put(token, session);
+        send(ex, 200, "{\"token\":" + Json.quote(token) + ",\"role\":" + Json.quote(session.admin ? "admin" : "customer")
+                + ",\"id\":" + Json.quote(session.userId) + "}");
+    }
+
+    private void logout(HttpExchange ex) throws IOException {
+        requireMethod(ex, "POST");
+        String token = token(ex);
+        if (token != null) sessions.remove(token);
+        send(ex, 204, null);
+    }
+
+    private void vehicles(HttpExchange ex) throws IOException {
+        requireMethod(ex, "GET");
+        String path = ex.getRequestURI().getPath();
+        if (path.equals("/api/vehicles/search")) {
+            search(ex);
+            return;
+        }
+        if (!path.equals("/api/vehicles") && !path.equals("/api/vehicles/")) throw new ApiError(404, "no such resource: " + path);
+        Map<String, String> q = query(ex);
+        List<Vehicle> list;
+        if (q.containsKey("from") || q.containsKey("to")) {
+            // quantity becomes the units free on every day of the range
+            LocalDate from = q.containsKey("from") ? parseDate(q.get("from"), "from") : LocalDate.now();
+            LocalDate to = q.containsKey("to") ? parseDate(q.get("to"), "to") : from;
+            if (to.isBefore(from)) throw new ApiError(400, "to cannot be before from");
+            list = rentalService.availableBetween(from, to);
+        } else if ("true".equalsIgnoreCase(q.get("available"))) {
+            list = rentalService.availableBetween(LocalDate.now(), LocalDate.now());
+        } else {
+            list = vehicleService.loadAll();
+        }
+        StringBuilder sb = new StringBuilder(64 + list.size() * 128).append('[');
+        for (int i = 0; i < list.size(); i++) {
+            if (i > 0) sb.append(',');
+            sb.append(vehicleJson(list.get(i)));
+        }
+        send(ex, 200, sb.append(']').toString());
+    }
+
+    // paged, cheapest first; page is 1-based here
+    private void search(HttpExchange ex) throws IOException {
+        Map<String, String> params = query(ex);
+        VehicleQuery q = new VehicleQuery();
+        q.type = params.get("type");
+        q.makePrefix = params.get("make");
+        q.modelPrefix = params.get("model");
+        try {
+            if (params.containsKey("minYear")) q.minYear = Integer.parseInt(params.get("minYear").trim());
+            if (params.containsKey("maxYear")) q.maxYear = Integer.parseInt(params.get("maxYear").trim());
+            if (params.containsKey("minRate")) q.minRate = Double.parseDouble(params.get("minRate").trim());
+            if (params.containsKey("maxRate")) q.maxRate = Double.parseDouble(params.get("maxRate").trim());
+        } catch (NumberFormatException e) {
+            throw new ApiError(400, "year and rate filters must be numbers");
+        }
+        if (params.containsKey("from")) q.from = parseDate(params.get("from"), "from");
+        if (params.containsKey("to")) q.to = parseDate(params.get("to"), "to");
+        if (q.to != null && (q.from == null || q.to.isBefore(q.from))) throw new ApiError(400, "to needs a from on or before it");
+        int pageSize = Math.max(1, Math.min(500, parseInt(params.get("pageSize"), RentalService.historyPageSize())));
+        RentalService.SearchPage sp = rentalService.search(q, parseInt(params.get("page"), 1) - 1, pageSize);
+        StringBuilder sb = new StringBuilder(64 + sp.rows.size() * 128);
+        sb.append("{\"page\":").append(sp.page + 1).append(",\"pageCount\":").append(sp.pageCount)
+                .append(",\"total\":").append(sp.total).append(",\"vehicles\":[");
+        for (int i = 0; i < sp.rows.size(); i++) {
+            if (i > 0) sb.append(',');
+            sb.append(vehicleJson(sp.rows.get(i)));
+        }
+        send(ex, 200, sb.append("]}").toString());
+    }
+
+    private void rentals(HttpExchange ex) throws IOException {
+        Session session = session(ex);
+        String path = ex.getRequestURI().getPath();
+        String rest = path.length() > "/api/rentals".length() ? path.substring("/api/rentals/".length()) : "";
+        if (rest.isEmpty()) {
+            if ("GET".equals(ex.getRequestMethod())) listRentals(ex, session);
+            else if ("POST".equals(ex.getRequestMethod())) rent(ex, session);
+            else throw new ApiError(405, "use GET or POST");
+            return;
+        }
+        if (!rest.endsWith("/return") || rest.indexOf('/') != rest.length() - "/return".length()) {
+            throw new ApiError(404, "no such resource: " + path);
+        }
+        requireMethod(ex, "POST");
+        giveBack(ex, session, rest.substring(0, rest.length() - "/return".length()));
+    }
+
+    private void listRentals(HttpExchange ex, Session session) throws IOException {
+        Map<String, String> q = query(ex);
+        StringBuilder sb = new StringBuilder();
+        if (session.admin && (q.containsKey("from") || q.containsKey("to") || q.containsKey("status"))) {
+            LocalDate from = q.containsKey("from") ? parseDate(q.get("from"), "from") : null;
+            LocalDate to = q.containsKey("to") ? parseDate(q.get("to"), "to") : null;
+            List<Rental> found = rentalService.find(from, to, q.get("status"));
+            sb.append("{\"total\":").append(found.size()).append(",\"rentals\":[");
+            for (int i = 0; i < found.size(); i++) {
+                if (i > 0) sb.append(',');
+                sb.append(rentalJson(found.get(i)));
+            }
+            send(ex, 200, sb.append("]}").toString());
+            return;
+        }
+        if (session.admin) {
+            // history pages are 0-based; the API counts from 1
+            int page = parseInt(q.get("page"), 1);
+            RentalService.HistoryPage hp = rentalService.history(page - 1, RentalService.historyPageSize());
+            sb.append("{\"page\":").append(hp.page + 1).append(",\"pageCount\":").append(hp.pageCount)
+                    .append(",\"total\":").append(hp.total).append(",\"rentals\":[");
+            for (int i = 0; i < hp.rows.size(); i++) {
+                if (i > 0) sb.append(',');
+                sb.append(rentalJson(hp.rows.get(i).rental));
+            }
+            send(ex, 200, sb.append("]}").toString());
+            return;
+        }
+        String status = q.get("status");
+        List<Rental> mine = status == null ? rentalService.findByCustomer(session.userId) : rentalService.findByCustomer(session.userId, status);
+        sb.append('[');
+        for (int i = 0; i < mine.size(); i++) {
+            if (i > 0) sb.append(',');
+            sb.append(rentalJson(mine.get(i)));
+        }
+        send(ex, 200, sb.append(']').toString());
+    }
+
+    private void rent(HttpExchange ex, Session session) throws IOException {
+        if (session.admin) throw new ApiError(403, "admins cannot rent");
+        Map<String, Object> body = body(ex);
+        Vehicle v = vehicleService.findById(text(body, "vehicleId").trim());
+        if (v == null) throw new ApiError(404, "vehicle not found");
+        LocalDate start = date(body, "startDate");
+        LocalDate end = date(body, "endDate");
+        if (end.isBefore(start)) throw new ApiError(400, "endDate cannot be before startDate");
+        Customer customer = customerService.findById(session.userId);
+        if (customer == null) throw new ApiError(401, "customer no longer exists");
+        // priced as in the CLI: whole days, both ends included
+        long days = ChronoUnit.DAYS.between(start, end) + 1;
+        Rental r = new Rental(rentalService.nextRentalId(), customer.getId(), v.getId(), start.toString(), end.toString(),
+                days * v.getRatePerDay(), "RENTED");
+        rentalService.addRental(r, customerService.allowedConcurrentRentals(rentalService.withCompletedRentals(customer)));
+        send(ex, 201, rentalJson(r));
+    }
+
+    private void giveBack(HttpExchange ex, Session session, String rentalId) throws IOException {
+        if (session.admin) throw new ApiError(403, "admins cannot return rentals");
+        Rental own = null;
+        for (Rental r : rentalService.findByCustomer(session.userId, "RENTED")) {
+            if (r.getId().equals(rentalId)) own = r;
+        }
+        if (own == null) throw new ApiError(404, "no active rental " + rentalId);
+        rentalService.returnRental(rentalId);
+        send(ex, 200, rentalJson(new Rental(own.getId(), own.getCustomerId(), own.getVehicleId(), own.getStartDate(),
+                own.getEndDate(), own.getTotalPrice(), "RETURNED")));
+    }
+
+    private void income(HttpExchange ex) throws IOException {
+        requireMethod(ex, "GET");
+        if (!session(ex).admin) throw new ApiError(403, "admin only");
+        send(ex, 200, "{\"total\":" + Json.money(rentalService.totalIncome()) + ",\"returned\":" + Json.money(rentalService.returnedIncome()) + "}");
+    }
+
+    // ---- plumbing ----
+
+    private void serve(HttpExchange ex, Route route) {
+        try {
+            route.handle(ex);
+        } catch (ApiError e) {
+            fail(ex, e.status, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            fail(ex, 400, e.getMessage());
+        } catch (RentalConflictException e) {
+            // out of stock or over the badge limit
+            fail(ex, 409, e.getMessage());
+        } catch (Exception e) {
+            System.err.println(ex.getRequestMethod() + " " + ex.getRequestURI().getPath() + " failed: " + e);
+            fail(ex, 500, "internal error");
+        } finally {
+            ex.close();
+        }
+    }
+
+    private static void fail(HttpExchange ex, int status, String message) {
+        try {
+            send(ex, status, "{\"error\":" + Json.quote(message) + "}");
+        } catch (IOException ignored) {
+            // the client went away
+        }
+    }
+
+    private static void send(HttpExchange ex, int status, String json) throws IOException {
+        if (json == null) {
+            ex.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        ex.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private Session session(HttpExchange ex) {
+        String token = token(ex);
+        Session s = token == null ? null : sessions.get(token);
+        long now = System.currentTimeMillis();
+        if (s == null || now - s.lastSeen > SESSION_MS) {
+            if (s != null) sessions.remove(token);
+            throw new ApiError(401, "log in first");
+        }
+        s.lastSeen = now;
+        return s;
+    }
+
+    // logins are the only way in, so sweeping on login keeps the table bounded
+    private void sweepSessions(long now) {
+        long last = lastSweep.get();
+        if (now - last < SWEEP_MS || !lastSweep.compareAndSet(last, now)) return;
+        sessions.values().removeIf(s -> now - s.lastSeen > SESSION_MS);
+    }
+
+    private static String token(HttpExchange ex) {
+        String h = ex.getRequestHeaders().getFirst("Authorization");
+        if (h == null || !h.regionMatches(true, 0, "Bearer ", 0, 7)) return null;
+        return h.substring(7).trim();
+    }
+
+    private static void requireMethod(HttpExchange ex, String method) {
+        if (!method.equals(ex.getRequestMethod())) throw new ApiError(405, "use " + method);
+    }
+
+    private static Map<String, Object> body(HttpExchange ex) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        try (InputStream in = ex.getRequestBody()) {
+            int n;
+            while ((n = in.read(chunk)) > 0) {
+                buf.write(chunk, 0, n);
+                if (buf.size() > MAX_BODY) throw new ApiError(413, "request body too large");
+            }
+        }
+        return Json.parseObject(new String(buf.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private static Map<String, String> query(HttpExchange ex) {
+        Map<String, String> out = new HashMap<>();
+        String q = ex.getRequestURI().getRawQuery();
+        if (q == null) return out;
+        for (String pair : q.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq <= 0) continue;
+            try {
+                out.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            } catch (java.io.UnsupportedEncodingException ignored) {
+            }
+        }
+        return out;
+    }
+
+    private static String text(Map<String, Object> body, String field) {
+        Object v = body.get(field);
+        if (!(v instanceof String)) throw new ApiError(400, "missing string field: " + field);
+        return (String) v;
+    }
+
+    private static LocalDate date(Map<String, Object> body, String field) {
+        return parseDate(text(body, field), field);
+    }
+
+    private static LocalDate parseDate(String s, String field) {
+        try {
+            return LocalDate.parse(s.trim());
+        } catch (DateTimeParseException e) {
+            throw new ApiError(400, field + " must be YYYY-MM-DD");
+        }
+    }
+
+    private static int parseInt(String s, int fallback) {
+        if (s == null) return fallback;
+        try {
+            return Integer.parseInt(s.trim());
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    private static String vehicleJson(Vehicle v) {
+        return "{\"id\":" + Json.quote(v.getId()) + ",\"type\":" + Json.quote(v.getType()) + ",\"make\":" + Json.quote(v.getMake())
+                + ",\"model\":" + Json.quote(v.getModel()) + ",\"year\":" + v.getYear() + ",\"ratePerDay\":" + Json.money(v.getRatePerDay())
+                + ",\"available\":" + v.isAvailable() + ",\"quantity\":" + v.getQuantity() + "}";
+    }
+
+    private static String rentalJson(Rental r) {
+        return "{\"id\":" + Json.quote(r.getId()) + ",\"customerId\":" + Json.quote(r.getCustomerId()) + ",\"vehicleId\":" + Json.quote(r.getVehicleId())
+                + ",\"startDate\":" + Json.quote(r.getStartDate()) + ",\"endDate\":" + Json.quote(r.getEndDate())
+                + ",\"totalPrice\":" + Json.money(r.getTotalPrice()) + ",\"status\":" + Json.quote(r.getStatus()) + "}";
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : Integer.getInteger("api.port", 8080);
+        ApiServer api = start(port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> api.stop(2), "api-stop"));
+        System.out.println("API listening on http://localhost:" + api.port() + "/api");
+    }
+}
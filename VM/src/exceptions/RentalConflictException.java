@@ -0,0 +1,10 @@
+package exceptions;
+
+/** A rental the current state does not allow: no unit free, or the customer is over their limit. */
+public class RentalConflictException extends IllegalStateException {
+    private static final long serialVersionUID = 1L;
+
+    public RentalConflictException(String message) {
+        super(message);
+    }
+}
@@ -1,5 +1,7 @@
 package models;
 
+import utils.CsvCodec;
+
 public class Admin {
     private String id;
     private String username;
@@ -16,13 +18,13 @@ public class Admin {
     public String getPassword() { return password; }
 
     public String toCSV() {
-        return String.join(",", id, username, password == null ? "" : password);
+        return CsvCodec.get().begin().field(id).field(username).field(password == null ? "" : password).line();
     }
 
     public static Admin fromCSV(String line) {
-        String[] p = line.split(",");
-        if (p.length >= 3) {
-            return new Admin(p[0].trim(), p[1].trim(), p[2].trim());
+        CsvCodec c = CsvCodec.get();
+        if (c.split(line, true) >= 3) {
+            return new Admin(c.text(0), c.text(1), c.text(2));
         }
         return null;
     }
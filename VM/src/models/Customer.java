@@ -1,5 +1,7 @@
 package models;
 
+import utils.CsvCodec;
+
 import java.util.Objects;
 
 public class Customer {
@@ -44,24 +46,22 @@ public class Customer {
     public void setBadge(String b) { this.badge = b; }
 
     public String toCSV() {
-        return String.join(",", id, name, email, phone, password == null ? "" : password, String.valueOf(completedRentals), badge == null ? "" : badge);
+        return CsvCodec.get().begin().field(id).field(name).field(email).field(phone).field(password == null ? "" : password)
+                .field(completedRentals).field(badge == null ? "" : badge).line();
     }
 
     public static Customer fromCSV(String line) {
-        String[] parts = line.split(",", -1);
+        CsvCodec c = CsvCodec.get();
+        int n = c.split(line, false);
         // support older format without password (len==4) and older with password (len==5)
-        if (parts.length >= 7) {
-            try {
-                int completed = Integer.parseInt(parts[5].trim());
-                String badge = parts[6].trim();
-                return new Customer(parts[0].trim(), parts[1].trim(), parts[2].trim(), parts[3].trim(), parts[4].trim(), completed, badge);
-            } catch (Exception e) {
-                return new Customer(parts[0].trim(), parts[1].trim(), parts[2].trim(), parts[3].trim(), parts[4].trim());
-            }
-        } else if (parts.length == 5) {
-            return new Customer(parts[0].trim(), parts[1].trim(), parts[2].trim(), parts[3].trim(), parts[4].trim());
-        } else if (parts.length == 4) {
-            return new Customer(parts[0].trim(), parts[1].trim(), parts[2].trim(), parts[3].trim(), "");
+        if (n >= 7) {
+            int completed = c.intAt(5);
+            if (c.failed()) return new Customer(c.text(0), c.text(1), c.text(2), c.text(3), c.text(4));
+            return new Customer(c.text(0), c.text(1), c.text(2), c.text(3), c.text(4), completed, c.text(6));
+        } else if (n == 5) {
+            return new Customer(c.text(0), c.text(1), c.text(2), c.text(3), c.text(4));
+        } else if (n == 4) {
+            return new Customer(c.text(0), c.text(1), c.text(2), c.text(3), "");
         }
         return null;
     }
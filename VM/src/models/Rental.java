@@ -1,5 +1,7 @@
 package models;
 
+import utils.CsvCodec;
+
 public class Rental {
     private String id;
     private String customerId;
@@ -28,24 +30,16 @@ public class Rental {
     public String getStatus() { return status; }
 
     public String toCSV() {
-        return String.join(",", id, customerId, vehicleId, startDate, endDate, String.format("%.2f", totalPrice), status);
+        return CsvCodec.get().begin().field(id).field(customerId).field(vehicleId).field(startDate).field(endDate)
+                .fixed2(totalPrice).field(status).line();
     }
 
     public static Rental fromCSV(String line) {
-        String[] p = line.split(",");
-        if (p.length < 7) return null;
-        try {
-            String id = p[0].trim();
-            String customerId = p[1].trim();
-            String vehicleId = p[2].trim();
-            String start = p[3].trim();
-            String end = p[4].trim();
-            double price = Double.parseDouble(p[5].trim());
-            String status = p[6].trim();
-            return new Rental(id, customerId, vehicleId, start, end, price, status);
-        } catch (Exception e) {
-            return null;
-        }
+        CsvCodec c = CsvCodec.get();
+        if (c.split(line, true) < 7) return null;
+        double price = c.doubleAt(5);
+        if (c.failed()) return null;
+        return new Rental(c.text(0), c.text(1), c.text(2), c.text(3), c.text(4), price, c.text(6));
     }
 
     @Override
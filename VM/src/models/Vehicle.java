@@ -1,5 +1,7 @@
 package models;
 
+import utils.CsvCodec;
+
 public class Vehicle {
     private String id;
     private String type; // Car/Bike/Truck
@@ -33,29 +35,20 @@ public class Vehicle {
     public void setQuantity(int q) { this.quantity = q; this.available = q > 0; }
 
     public String toCSV() {
-        return String.format("%s,%s,%s,%s,%d,%.2f,%b,%d", id, type, make, model, year, ratePerDay, available, quantity);
+        return CsvCodec.get().begin().field(id).field(type).field(make).field(model).field(year)
+                .fixed2(ratePerDay).field(available).field(quantity).line();
     }
 
     public static Vehicle fromCSV(String line) {
-        String[] p = line.split(",");
+        CsvCodec c = CsvCodec.get();
+        int n = c.split(line, true);
         // backwards compatible: old format had 7 fields, new includes quantity as 8th
-        if (p.length < 7) return null;
-        try {
-            String id = p[0].trim();
-            String type = p[1].trim();
-            String make = p[2].trim();
-            String model = p[3].trim();
-            int year = Integer.parseInt(p[4].trim());
-            double rate = Double.parseDouble(p[5].trim());
-            boolean av = Boolean.parseBoolean(p[6].trim());
-            int qty = 1;
-            if (p.length >= 8) {
-                try { qty = Integer.parseInt(p[7].trim()); } catch (Exception ignored) { qty = 1; }
-            }
-            return new Vehicle(id, type, make, model, year, rate, av, qty);
-        } catch (Exception e) {
-            return null;
-        }
+        if (n < 7) return null;
+        int year = c.intAt(4);
+        double rate = c.doubleAt(5);
+        if (c.failed()) return null;
+        int qty = n >= 8 ? c.intAt(7, 1) : 1;
+        return new Vehicle(c.text(0), c.text(1), c.text(2), c.text(3), year, rate, c.bool(6), qty);
     }
 
     @Override
@@ -0,0 +1,238 @@
+package repositories;
+
+import models.Rental;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Per-vehicle booking calendar over the open (RENTED) rentals, kept in step
+ * like any other index. Each vehicle has a segment tree over epoch days
+ * holding how many of its rentals cover each day, so "most units booked on
+ * any day between D1 and D2" is one O(log days) walk, and adding or
+ * returning a rental is one range update. Trees are sparse: only day ranges
+ * some rental touched get nodes.
+ *
+ * A rental that is past its end date but not returned still has its unit,
+ * so it books every day up to today; the calendar is rebuilt when the date
+ * changes to stretch such rentals by another day. Open rentals are also
+ * counted per vehicle by start day, for how many have started by a date.
+ *
+ * Days outside 1970-01-01 .. 2328-11-11 are clamped to the ends. Rentals
+ * whose dates do not parse count as open and started but book no days.
+ */
+public class BookingCalendar extends Index<Rental> {
+    private static final int SPAN = 1 << 17;
+
+    private final Repository<Rental> repository;
+    private final Map<String, DayTree> trees = new HashMap<>();
+    // open rentals per vehicle by start day
+    private final Map<String, TreeMap<Integer, Integer>> starts = new HashMap<>();
+    // the day overdue rentals are booked through; add and replace must use the same one
+    private int today;
+
+    private BookingCalendar(Repository<Rental> repository) {
+        this.repository = repository;
+    }
+
+    /** Returns the calendar of a rentals repository, creating it on first use. */
+    public static BookingCalendar on(Repository<Rental> repository) {
+        return repository.register("calendar", () -> new BookingCalendar(repository));
+    }
+
+    /** Largest number of open rentals of the vehicle covering any single day in [from, to]. */
+    public int maxBooked(String vehicleId, LocalDate from, LocalDate to) {
+        synchronized (repository) {
+            repository.refresh();
+            rollOver();
+            DayTree t = trees.get(vehicleId);
+            return t == null ? 0 : t.max(day(from), day(to));
+        }
+    }
+
+    /** {@link #maxBooked} for every vehicle with open rentals, in one pass under one lock. */
+    public Map<String, Integer> maxBookedAll(LocalDate from, LocalDate to) {
+        synchronized (repository) {
+            repository.refresh();
+            rollOver();
+            int lo = day(from);
+            int hi = day(to);
+            Map<String, Integer> out = new HashMap<>();
+            for (Map.Entry<String, DayTree> e : trees.entrySet()) {
+                int m = e.getValue().max(lo, hi);
+                if (m > 0) out.put(e.getKey(), m);
+            }
+            return out;
+        }
+    }
+
+    /**
+     * Fills maxBooked and started (both as long as vehicleIds) for many
+     * vehicles under one lock, as {@link #maxBooked(String, LocalDate, LocalDate)}
+     * and {@link #started(String, LocalDate)} with through[i] would one by one.
+     */
+    public void lookup(List<String> vehicleIds, LocalDate from, LocalDate to, LocalDate[] through, int[] maxBooked, int[] started) {
+        synchronized (repository) {
+            repository.refresh();
+            rollOver();
+            int lo = day(from);
+            int hi = day(to);
+            for (int i = 0; i < vehicleIds.size(); i++) {
+                String id = vehicleIds.get(i);
+                DayTree t = trees.get(id);
+                maxBooked[i] = t == null ? 0 : t.max(lo, hi);
+                started[i] = startedBy(id, through[i]);
+            }
+        }
+    }
+
+    /** Number of open rentals of the vehicle that start on or before through; all of them when through is null. */
+    public int started(String vehicleId, LocalDate through) {
+        synchronized (repository) {
+            repository.refresh();
+            rollOver();
+            return startedBy(vehicleId, through);
+        }
+    }
+
+    /** Start date of the vehicle's latest-starting open rental, or null if it has none with a date. */
+    public LocalDate lastStart(String vehicleId) {
+        synchronized (repository) {
+            repository.refresh();
+            rollOver();
+            TreeMap<Integer, Integer> s = starts.get(vehicleId);
+            return s == null || s.lastKey() < 0 ? null : LocalDate.ofEpochDay(s.lastKey());
+        }
+    }
+
+    private int startedBy(String vehicleId, LocalDate through) {
+        TreeMap<Integer, Integer> s = starts.get(vehicleId);
+        if (s == null) return 0;
+        int n = 0;
+        for (int c : (through == null ? s : s.headMap(day(through), true)).values()) n += c;
+        return n;
+    }
+
+    private void rollOver() {
+        if (day(LocalDate.now()) != today) rebuild(repository.loaded());
+    }
+
+    @Override
+    void rebuild(List<Rental> records) {
+        today = day(LocalDate.now());
+        trees.clear();
+        starts.clear();
+        for (Rental r : records) apply(r, 1);
+    }
+
+    @Override
+    void add(Rental record) {
+        apply(record, 1);
+    }
+
+    @Override
+    void replace(Rental old, Rental updated) {
+        apply(old, -1);
+        apply(updated, 1);
+    }
+
+    private void apply(Rental r, int delta) {
+        if (!RentalLog.RENTED.equalsIgnoreCase(r.getStatus())) return;
+        String vehicle = r.getVehicleId();
+        int lo = -1;
+        int hi = -1;
+        try {
+            lo = day(LocalDate.parse(r.getStartDate().trim()));
+            hi = day(LocalDate.parse(r.getEndDate().trim()));
+        } catch (DateTimeParseException | NullPointerException e) {
+            // counted as started below, booking no days
+        }
+        TreeMap<Integer, Integer> s = starts.get(vehicle);
+        if (s == null) {
+            s = new TreeMap<>();
+            starts.put(vehicle, s);
+        }
+        if (s.merge(lo, delta, Integer::sum) == 0) s.remove(lo);
+        if (s.isEmpty()) starts.remove(vehicle);
+        if (lo < 0 || hi < lo) return;
+        // not back yet: the unit stays out until it is returned
+        if (lo <= today) hi = Math.max(hi, today);
+        DayTree t = trees.get(vehicle);
+        if (t == null) {
+            t = new DayTree();
+            trees.put(vehicle, t);
+        }
+        t.add(lo, hi, delta);
+    }
+
+    private static int day(LocalDate d) {
+        long e = d.toEpochDay();
+        return (int) Math.max(0, Math.min(SPAN - 1, e));
+    }
+
+    /**
+     * Sparse segment tree over [0, SPAN) with range add and range max. Adds
+     * are not pushed down: a node's max already includes its own pending add,
+     * and a missing child stands for a subtree with nothing added.
+     */
+    private static final class DayTree {
+        private int[] left = new int[64];
+        private int[] right = new int[64];
+        private int[] max = new int[64];
+        private int[] added = new int[64];
+        private int size = 2; // 0 means "no child"; the root is 1
+
+        void add(int lo, int hi, int delta) {
+            add(1, 0, SPAN - 1, lo, hi, delta);
+        }
+
+        int max(int lo, int hi) {
+            return max(1, 0, SPAN - 1, lo, hi);
+        }
+
+        private void add(int node, int nl, int nr, int lo, int hi, int delta) {
+            if (lo <= nl && nr <= hi) {
+                max[node] += delta;
+                added[node] += delta;
+                return;
+            }
+            int mid = (nl + nr) >>> 1;
+            if (lo <= mid) {
+                if (left[node] == 0) { int c = newNode(); left[node] = c; }
+                add(left[node], nl, mid, lo, hi, delta);
+            }
+            if (hi > mid) {
+                if (right[node] == 0) { int c = newNode(); right[node] = c; }
+                add(right[node], mid + 1, nr, lo, hi, delta);
+            }
+            int l = left[node] == 0 ? 0 : max[left[node]];
+            int r = right[node] == 0 ? 0 : max[right[node]];
+            max[node] = added[node] + Math.max(l, r);
+        }
+
+        private int max(int node, int nl, int nr, int lo, int hi) {
+            if (lo <= nl && nr <= hi) return max[node];
+            int mid = (nl + nr) >>> 1;
+            int best = 0;
+            if (lo <= mid && left[node] != 0) best = Math.max(best, max(left[node], nl, mid, lo, hi));
+            if (hi > mid && right[node] != 0) best = Math.max(best, max(right[node], mid + 1, nr, lo, hi));
+            return added[node] + best;
+        }
+
+        private int newNode() {
+            if (size == max.length) {
+                int n = size * 2;
+                left = Arrays.copyOf(left, n);
+                right = Arrays.copyOf(right, n);
+                max = Arrays.copyOf(max, n);
+                added = Arrays.copyOf(added, n);
+            }
+            return size++;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package repositories;
+
+import utils.Events;
+import utils.FileManager;
+import utils.Metrics;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Keeps the parsed records of one text file in memory. The file is only
+ * re-read when its modification time or size differs from what was loaded,
+ * and every write goes straight through to the file.
+ *
+ * Changes made by other processes are applied incrementally: when the same
+ * file just grew, only the new tail is read and parsed; when it was
+ * rewritten, its lines are compared with the ones held and only the differing
+ * run in the middle is parsed again.
+ */
+public class FileRepository<T> extends Repository<T> {
+    private static final Map<String, FileRepository<?>> OPEN = new ConcurrentHashMap<>();
+
+    private final String path;
+    private final Function<String, T> parser;
+    private final Function<T, String> serializer;
+    private List<T> records = Collections.emptyList();
+    // the file's non-blank lines and what each parsed to (null if it did not), in file order
+    private List<String> lines = new ArrayList<>();
+    private List<T> parsed = new ArrayList<>();
+    private long loadedModified = -1;
+    private long loadedSize = -1;
+    private Object loadedKey;
+    private final Metrics.Timer parseTimer;
+    private final Metrics.Histogram parsedPerCall;
+    private int parsedNow;
+
+    protected FileRepository(String path, Function<String, T> parser, Function<T, String> serializer) {
+        this.path = path;
+        this.parser = parser;
+        this.serializer = serializer;
+        this.parseTimer = Metrics.timer("parse " + path);
+        this.parsedPerCall = Metrics.sizes("records parsed " + path);
+    }
+
+    /** Returns the shared repository for a file so every service instance sees the same cache. */
+    @SuppressWarnings("unchecked")
+    public static <T> FileRepository<T> open(String path, Function<String, T> parser, Function<T, String> serializer) {
+        return (FileRepository<T>) OPEN.computeIfAbsent(path, p -> {
+            FileRepository<T> repo = new FileRepository<>(p, parser, serializer);
+            FileWatcher.watch(repo, p);
+            return repo;
+        });
+    }
+
+    public String getPath() { return path; }
+
+    @Override
+    public synchronized List<T> all() {
+        refresh();
+        return records;
+    }
+
+    @Override
+    List<T> loaded() {
+        return records;
+    }
+
+    public synchronized void append(T record) throws IOException {
+        refresh();
+        String line = serializer.apply(record);
+        long length = (line + System.lineSeparator()).getBytes(StandardCharsets.UTF_8).length;
+        FileManager.begin().appendLine(path, line, at -> landed(at, length)).onCommit(() -> {
+            synchronized (this) {
+                List<T> next = new ArrayList<>(records.size() + 1);
+                next.addAll(records);
+                next.add(record);
+                records = Collections.unmodifiableList(next);
+                lines.add(line);
+                parsed.add(record);
+                indexAdded(record);
+            }
+        }).commit();
+    }
+
+    // our appended line is on disk at offset at
+    private synchronized void landed(long at, long length) {
+        // if someone else wrote in between, the offsets won't line up; force a reload next time
+        if (at != loadedSize) {
+            invalidate();
+            return;
+        }
+        loadedSize = at + length;
+        loadedModified = -1;
+        // fails harmlessly while later queued lines are already on disk; the last one stamps
+        stamp(loadedSize);
+    }
+
+    public void replaceAll(List<T> list) throws IOException {
+        FileManager.Transaction tx = FileManager.begin();
+        replaceAll(list, tx);
+        tx.commit();
+    }
+
+    /** Stages a rewrite of the file in tx; the cache follows once tx commits. */
+    public synchronized void replaceAll(List<T> list, FileManager.Transaction tx) {
+        List<String> written = new ArrayList<>(list.size());
+        for (T t : list) written.add(serializer.apply(t));
+        List<T> copy = new ArrayList<>(list);
+        tx.overwrite(path, written).onCommit(() -> {
+            synchronized (this) {
+                lines = new ArrayList<>(written);
+                parsed = new ArrayList<>(copy);
+                setRecords(copy);
+            }
+        }).onWritten(() -> {
+            synchronized (this) {
+                stamp(-1);
+            }
+        });
+    }
+
+    /**
+     * Current records re-checked against the file's contents, even when a
+     * watcher says nothing changed or the change kept the size and timestamp.
+     * Call it with the file locked before a read-modify-write.
+     */
+    public synchronized List<T> reread() {
+        loadedModified = -1;
+        markChanged();
+        refresh();
+        return records;
+    }
+
+    public synchronized void invalidate() {
+        loadedModified = -1;
+        loadedSize = -1;
+        markChanged();
+    }
+
+    @Override
+    void refresh() {
+        // the file is behind what we hold until our queued writes land
+        if (FileManager.hasPendingWrites(path)) return;
+        if (!needsCheck()) return;
+        BasicFileAttributes attrs = attributes();
+        if (attrs != null && attrs.lastModifiedTime().toMillis() == loadedModified && attrs.size() == loadedSize) return;
+        long t0 = parseTimer.start();
+        Events.Parse event = Events.Parse.start(path);
+        parsedNow = 0;
+        try {
+            reload(attrs);
+        } finally {
+            parseTimer.stop(t0);
+            event.end(parsedNow);
+        }
+    }
+
+    private void reload(BasicFileAttributes attrs) {
+        if (attrs != null && loadedSize > 0 && attrs.size() > loadedSize && attrs.fileKey() != null
+                && attrs.fileKey().equals(loadedKey) && applyTail(attrs)) {
+            return;
+        }
+        List<String> all = new ArrayList<>();
+        try {
+            FileManager.forEachLine(path, l -> {
+                if (!l.trim().isEmpty()) all.add(l);
+                return true;
+            });
+        } catch (IOException e) {
+            all.clear();
+        }
+        applyLines(all);
+        if (attrs != null) {
+            loadedModified = attrs.lastModifiedTime().toMillis();
+            loadedSize = attrs.size();
+            loadedKey = attrs.fileKey();
+        }
+    }
+
+    // same file, only appended to: parse the bytes past what we hold
+    private boolean applyTail(BasicFileAttributes attrs) {
+        List<String> tail = new ArrayList<>();
+        long end;
+        try {
+            // start one byte early: the first line must come out empty, or we are not at a line boundary
+            end = FileManager.forEachLine(path, loadedSize - 1, l -> {
+                tail.add(l);
+                return tail.size() > 1 || l.isEmpty();
+            });
+        } catch (IOException e) {
+            return false;
+        }
+        if (tail.isEmpty() || !tail.get(0).isEmpty()) return false;
+        if (tail.size() == 1) return true; // a writer is mid-line; look again next time
+        List<T> added = new ArrayList<>();
+        int n = 0;
+        for (String l : tail.subList(1, tail.size())) {
+            if (l.trim().isEmpty()) continue;
+            T t = parser.apply(l);
+            lines.add(l);
+            parsed.add(t);
+            n++;
+            if (t != null) added.add(t);
+        }
+        parsedPerCall.record(n);
+        parsedNow = n;
+        if (!added.isEmpty()) {
+            List<T> next = new ArrayList<>(records.size() + added.size());
+            next.addAll(records);
+            next.addAll(added);
+            records = Collections.unmodifiableList(next);
+            for (T t : added) indexAdded(t);
+        }
+        loadedSize = end;
+        loadedModified = loadedSize == attrs.size() ? attrs.lastModifiedTime().toMillis() : -1;
+        return true;
+    }
+
+    // rewritten file (non-empty lines): keep the records of the unchanged leading and trailing lines, parse the rest
+    private void applyLines(List<String> next) {
+        int head = 0;
+        int max = Math.min(lines.size(), next.size());
+        while (head < max && lines.get(head).equals(next.get(head))) head++;
+        int tail = 0;
+        while (tail < max - head && lines.get(lines.size() - 1 - tail).equals(next.get(next.size() - 1 - tail))) tail++;
+        if (head == lines.size() && head == next.size()) return;
+        parsedNow = next.size() - tail - head;
+        parsedPerCall.record(parsedNow);
+        List<T> nextParsed = new ArrayList<>(next.size());
+        nextParsed.addAll(parsed.subList(0, head));
+        for (int i = head; i < next.size() - tail; i++) nextParsed.add(parser.apply(next.get(i)));
+        nextParsed.addAll(parsed.subList(parsed.size() - tail, parsed.size()));
+        List<T> out = new ArrayList<>(nextParsed.size());
+        for (T t : nextParsed) if (t != null) out.add(t);
+        lines = next;
+        parsed = nextParsed;
+        setRecords(out);
+    }
+
+    private void setRecords(List<T> list) {
+        records = Collections.unmodifiableList(list);
+        reindex(records);
+    }
+
+    // records the current file stamp; when expectedSize >= 0 the stamp is only taken if the size matches
+    private boolean stamp(long expectedSize) {
+        BasicFileAttributes attrs = attributes();
+        if (attrs == null || (expectedSize >= 0 && attrs.size() != expectedSize)) return false;
+        loadedModified = attrs.lastModifiedTime().toMillis();
+        loadedSize = attrs.size();
+        loadedKey = attrs.fileKey();
+        return true;
+    }
+
+    private BasicFileAttributes attributes() {
+        Path p = Paths.get(path);
+        try {
+            return Files.readAttributes(p, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
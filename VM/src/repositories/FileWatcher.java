@@ -0,0 +1,106 @@
+package repositories;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Watches the data files for changes made by other processes and brings the
+ * affected repositories up to date in the background, so other terminals'
+ * writes show up without every read checking the disk.
+ *
+ * Each repository applies the change itself, incrementally: a grown file
+ * has only its new tail parsed, a rewritten one only the lines that differ.
+ *
+ * With a native WatchService, watched repositories skip the per-read stat
+ * until an event arrives. Where the JDK can only poll (it may lag by
+ * seconds) events still trigger the background refresh, but reads keep
+ * checking the disk. Disable with -Dfiles.watch=false.
+ */
+final class FileWatcher {
+    private static FileWatcher instance;
+    private static boolean failed = false;
+
+    private final WatchService service;
+    private final boolean trusted;
+    private final Set<Path> dirs = ConcurrentHashMap.newKeySet();
+    private final Map<Path, List<Repository<?>>> targets = new ConcurrentHashMap<>();
+
+    private FileWatcher(WatchService service) {
+        this.service = service;
+        this.trusted = !service.getClass().getName().endsWith("PollingWatchService");
+        Thread t = new Thread(this::run, "file-watcher");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /** Starts watching the given files on behalf of repo. Does nothing when watching is disabled or unavailable. */
+    static synchronized void watch(Repository<?> repo, String... paths) {
+        if (!Boolean.parseBoolean(System.getProperty("files.watch", "true")) || failed) return;
+        try {
+            if (instance == null) instance = new FileWatcher(FileSystems.getDefault().newWatchService());
+            for (String p : paths) instance.register(repo, Paths.get(p).toAbsolutePath().normalize());
+            repo.setWatched(instance.trusted);
+        } catch (IOException | UnsupportedOperationException e) {
+            failed = true; // repositories keep checking the disk on every read
+        }
+    }
+
+    private void register(Repository<?> repo, Path file) throws IOException {
+        Path dir = file.getParent();
+        if (dirs.add(dir)) {
+            Files.createDirectories(dir);
+            dir.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        }
+        targets.computeIfAbsent(file, f -> new CopyOnWriteArrayList<>()).add(repo);
+    }
+
+    private void run() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = service.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path dir = (Path) key.watchable();
+            Set<Repository<?>> touched = new LinkedHashSet<>();
+            for (WatchEvent<?> ev : key.pollEvents()) {
+                if (ev.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    // events were dropped: refresh everything in that directory
+                    for (Map.Entry<Path, List<Repository<?>>> e : targets.entrySet()) {
+                        if (dir.equals(e.getKey().getParent())) touched.addAll(e.getValue());
+                    }
+                    continue;
+                }
+                List<Repository<?>> repos = targets.get(dir.resolve((Path) ev.context()));
+                if (repos != null) touched.addAll(repos);
+            }
+            key.reset();
+            for (Repository<?> repo : touched) {
+                repo.markChanged();
+                try {
+                    synchronized (repo) {
+                        repo.refresh();
+                    }
+                } catch (RuntimeException ignored) {
+                    // the change stays marked and the next read retries
+                    repo.markChanged();
+                }
+            }
+        }
+    }
+}
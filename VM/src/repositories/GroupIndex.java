@@ -0,0 +1,95 @@
+package repositories;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Groups the records of a {@link Repository} by a key and, inside each
+ * group, by a partition (for example rentals by customer, then by status).
+ * Groups keep file order and partitions keep the order records entered them,
+ * so a lookup costs O(k) in the group's size.
+ */
+public class GroupIndex<T> extends Index<T> {
+    private final Repository<T> repository;
+    private final Function<T, String> key;
+    private final Function<T, String> partition;
+    private Map<String, Group<T>> groups = new HashMap<>();
+
+    GroupIndex(Repository<T> repository, Function<T, String> key, Function<T, String> partition) {
+        this.repository = repository;
+        this.key = key;
+        this.partition = partition;
+    }
+
+    /** All records in the group, in file order. */
+    public List<T> get(String k) {
+        synchronized (repository) {
+            repository.refresh();
+            Group<T> g = groups.get(k);
+            return g == null ? Collections.emptyList() : new ArrayList<>(g.all);
+        }
+    }
+
+    public List<T> get(String k, String part) {
+        synchronized (repository) {
+            repository.refresh();
+            Group<T> g = groups.get(k);
+            List<T> l = g == null ? null : g.parts.get(part);
+            return l == null ? Collections.emptyList() : new ArrayList<>(l);
+        }
+    }
+
+    public int count(String k, String part) {
+        synchronized (repository) {
+            repository.refresh();
+            Group<T> g = groups.get(k);
+            List<T> l = g == null ? null : g.parts.get(part);
+            return l == null ? 0 : l.size();
+        }
+    }
+
+    @Override
+    void rebuild(List<T> records) {
+        Map<String, Group<T>> next = new HashMap<>();
+        for (T t : records) put(next, t);
+        groups = next;
+    }
+
+    @Override
+    void add(T record) {
+        put(groups, record);
+    }
+
+    @Override
+    void replace(T old, T updated) {
+        Group<T> g = groups.get(key.apply(old));
+        if (g == null) return;
+        for (int i = 0; i < g.all.size(); i++) {
+            if (g.all.get(i) == old) { g.all.set(i, updated); break; }
+        }
+        List<T> from = g.parts.get(partition.apply(old));
+        if (from != null) {
+            for (int i = 0; i < from.size(); i++) {
+                if (from.get(i) == old) { from.remove(i); break; }
+            }
+        }
+        g.parts.computeIfAbsent(partition.apply(updated), x -> new ArrayList<>()).add(updated);
+    }
+
+    private void put(Map<String, Group<T>> target, T record) {
+        String k = key.apply(record);
+        if (k == null) return;
+        Group<T> g = target.computeIfAbsent(k, x -> new Group<>());
+        g.all.add(record);
+        g.parts.computeIfAbsent(partition.apply(record), x -> new ArrayList<>()).add(record);
+    }
+
+    private static class Group<T> {
+        final List<T> all = new ArrayList<>();
+        final Map<String, List<T>> parts = new HashMap<>();
+    }
+}
@@ -0,0 +1,141 @@
+package repositories;
+
+import utils.FileManager;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Hands out increasing numeric ids per entity type (hi/lo style). Each
+ * process reserves a block of BLOCK_SIZE numbers in sequences.txt (one
+ * "entity,nextFree" line per type) and then serves ids from memory. Block
+ * reservation holds an OS file lock, so concurrent processes never get the
+ * same number. On shutdown an unused block tail is handed back when nobody
+ * reserved after it.
+ */
+public class IdAllocator {
+    private static final int BLOCK_SIZE = 16;
+    private static final Map<String, IdAllocator> OPEN = new HashMap<>();
+
+    private final String path;
+    private final Map<String, Block> blocks = new HashMap<>();
+
+    private static final class Block {
+        long next;
+        long limit;
+    }
+
+    private IdAllocator(String path) {
+        this.path = path;
+        Runtime.getRuntime().addShutdownHook(new Thread(this::giveBack, "id-allocator-release"));
+    }
+
+    public static synchronized IdAllocator open(String path) {
+        return OPEN.computeIfAbsent(path, IdAllocator::new);
+    }
+
+    /**
+     * Next id for the entity, formatted as prefix + at least three digits
+     * (C001 ... C999, C1000, ...). The seed gives the first number to use when
+     * the entity has no sequence yet, typically one past the highest existing id.
+     */
+    public String next(String entity, String prefix, LongSupplier seed) throws IOException {
+        return String.format("%s%03d", prefix, nextValue(entity, seed));
+    }
+
+    public synchronized long nextValue(String entity, LongSupplier seed) throws IOException {
+        Block b = blocks.computeIfAbsent(entity, e -> new Block());
+        if (b.next >= b.limit) reserve(entity, b, seed);
+        return b.next++;
+    }
+
+    /**
+     * Makes sure the entity's sequence never hands out a number below
+     * atLeast, creating it when missing. Blocks already reserved by running
+     * processes are not affected.
+     */
+    public void raise(String entity, long atLeast) throws IOException {
+        FileManager.withLock(path, () -> {
+            Map<String, Long> stored = read();
+            Long hi = stored.get(entity);
+            if (hi == null || hi < atLeast) {
+                stored.put(entity, atLeast);
+                write(stored);
+            }
+            return null;
+        });
+    }
+
+    /** One past the largest number found after the prefix in the records' ids; 1 when there are none. */
+    public static <T> long seedFrom(Iterable<T> records, Function<T, String> idOf, String prefix) {
+        long max = 0;
+        for (T t : records) {
+            String id = idOf.apply(t);
+            if (id == null || !id.regionMatches(true, 0, prefix, 0, prefix.length())) continue;
+            try {
+                max = Math.max(max, Long.parseLong(id.substring(prefix.length()).trim()));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return max + 1;
+    }
+
+    private void reserve(String entity, Block b, LongSupplier seed) throws IOException {
+        FileManager.withLock(path, () -> {
+            Map<String, Long> stored = read();
+            Long hi = stored.get(entity);
+            long start = hi == null ? seed.getAsLong() : hi;
+            stored.put(entity, start + BLOCK_SIZE);
+            write(stored);
+            b.next = start;
+            b.limit = start + BLOCK_SIZE;
+            return null;
+        });
+    }
+
+    private synchronized void giveBack() {
+        try {
+            FileManager.withLock(path, () -> {
+                Map<String, Long> stored = read();
+                boolean changed = false;
+                for (Map.Entry<String, Block> e : blocks.entrySet()) {
+                    Block b = e.getValue();
+                    Long hi = stored.get(e.getKey());
+                    if (hi != null && hi == b.limit && b.next < b.limit) {
+                        stored.put(e.getKey(), b.next);
+                        changed = true;
+                    }
+                }
+                if (changed) write(stored);
+                return null;
+            });
+        } catch (IOException ignored) {
+            // the unused numbers just stay skipped
+        }
+    }
+
+    private Map<String, Long> read() throws IOException {
+        Map<String, Long> out = new LinkedHashMap<>();
+        for (String l : FileManager.readAllLines(path)) {
+            String[] p = l.split(",");
+            if (p.length < 2) continue;
+            try {
+                out.put(p[0].trim(), Long.parseLong(p[1].trim()));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return out;
+    }
+
+    private void write(Map<String, Long> stored) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, Long> e : stored.entrySet()) lines.add(e.getKey() + "," + e.getValue());
+        FileManager.overwrite(path, lines);
+    }
+}
@@ -0,0 +1,13 @@
+package repositories;
+
+import java.util.List;
+
+/** Derived lookup structure kept in step with a {@link Repository}'s records. */
+abstract class Index<T> {
+    abstract void rebuild(List<T> records);
+
+    abstract void add(T record);
+
+    /** Swaps a record for its updated version without a full rebuild. */
+    abstract void replace(T old, T updated);
+}
@@ -0,0 +1,75 @@
+package repositories;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Hash index over the records of a {@link Repository}. The repository
+ * rebuilds it on reload and feeds it every appended record, so a lookup is a
+ * stat of the file plus one map access.
+ */
+public class RecordIndex<T> extends Index<T> {
+    private final Repository<T> repository;
+    private final Function<T, String> key;
+    private final boolean lastWins;
+    private Map<String, T> map = new HashMap<>();
+
+    RecordIndex(Repository<T> repository, Function<T, String> key, boolean lastWins) {
+        this.repository = repository;
+        this.key = key;
+        this.lastWins = lastWins;
+    }
+
+    public T get(String k) {
+        if (k == null) return null;
+        synchronized (repository) {
+            repository.refresh();
+            return map.get(k);
+        }
+    }
+
+    /** Looks up many keys under one lock and one freshness check; missing keys are left out. */
+    public Map<String, T> getAll(Collection<String> keys) {
+        Map<String, T> out = new HashMap<>(Math.max(16, keys.size() * 2));
+        synchronized (repository) {
+            repository.refresh();
+            for (String k : keys) {
+                T t = k == null ? null : map.get(k);
+                if (t != null) out.put(k, t);
+            }
+        }
+        return out;
+    }
+
+    public boolean contains(String k) {
+        return get(k) != null;
+    }
+
+    @Override
+    void rebuild(List<T> records) {
+        Map<String, T> next = new HashMap<>(Math.max(16, records.size() * 2));
+        for (T t : records) put(next, t);
+        map = next;
+    }
+
+    @Override
+    void add(T record) {
+        put(map, record);
+    }
+
+    @Override
+    void replace(T old, T updated) {
+        String k = key.apply(old);
+        if (k != null && map.get(k) == old) map.put(k, updated);
+    }
+
+    private void put(Map<String, T> target, T record) {
+        String k = key.apply(record);
+        if (k == null) return;
+        if (lastWins) target.put(k, record);
+        else target.putIfAbsent(k, record);
+    }
+}
@@ -0,0 +1,673 @@
+package repositories;
+
+import models.Rental;
+import utils.Metrics;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Returned rentals moved out of rentals.txt by {@link RentalLog}
+ * compaction once they are older than its archive age. Each part holds
+ * rentals that started in one month and is never changed once written:
+ *
+ *   files/rentals/2024-03.001.blk
+ *
+ * A part is a run of blocks of up to BLOCK_ROWS rentals.txt lines, each
+ * DEFLATE-compressed on its own, then a footer describing every block:
+ * where it is, its rows, first and last start date, income in cents per
+ * start day, per vehicle and per vehicle type as counted when the rentals
+ * were archived, rentals per customer, the highest id number, and a bloom
+ * filter of its customer ids. The
+ * footer ends with its own offset, a CRC32 of it and a magic number.
+ *
+ * Each part also gets the same rows in a {@link RentalColumnStore}
+ * (2024-03.001.col), written in the same transaction. Income totals are
+ * summed from its mapped columns, and date queries and history pages read
+ * the rows they need from it by position, so neither inflates a block. A
+ * part without one (written before them, or holding a row the columns
+ * cannot) is read from its blocks and footers instead.
+ *
+ * Per-customer counts come from the footers alone, and customer lookups
+ * skip blocks whose filter rules the customer out, so only blocks that may
+ * match are inflated.
+ */
+public class RentalArchive {
+    private static final Pattern PART = Pattern.compile("(\\d{4}-\\d{2})\\.(\\d{3})\\.blk");
+    private static final int MAGIC = 0x564D5242; // "VMRB"
+    private static final int BLOCK_ROWS = 2048;
+    private static final int TRAILER = 20;
+    // about 1% false positives
+    private static final int BLOOM_BITS_PER_ROW = 10;
+    private static final int BLOOM_HASHES = 7;
+
+    private final Path dir;
+    private final Metrics.Timer readTimer;
+    private List<Part> parts = Collections.emptyList();
+    // footers of the listed parts, read once since parts never change
+    private final Map<Part, List<Block>> footers = new HashMap<>();
+    private final Map<Part, RentalColumnStore> columns = new HashMap<>();
+    private Summary summary;
+    private Income income;
+
+    RentalArchive(String dir) {
+        this.dir = Paths.get(dir);
+        this.readTimer = Metrics.timer("read " + dir);
+    }
+
+    /** One immutable part file; parts sort by month, then by number. */
+    static final class Part implements Comparable<Part> {
+        final YearMonth month;
+        final int number;
+        final Path path;
+
+        Part(YearMonth month, int number, Path path) {
+            this.month = month;
+            this.number = number;
+            this.path = path;
+        }
+
+        // the part's column file, next to it
+        Path columns() {
+            String name = path.getFileName().toString();
+            return path.resolveSibling(name.substring(0, name.length() - ".blk".length()) + ".col");
+        }
+
+        @Override
+        public int compareTo(Part o) {
+            int c = month.compareTo(o.month);
+            return c != 0 ? c : Integer.compare(number, o.number);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Part && ((Part) o).month.equals(month) && ((Part) o).number == number;
+        }
+
+        @Override
+        public int hashCode() {
+            return month.hashCode() * 1000 + number;
+        }
+    }
+
+    /** A footer entry: one compressed run of rows and what is in it. */
+    static final class Block {
+        final long offset;
+        final int length;
+        final int rows;
+        final String minDate;
+        final String maxDate;
+        final long cents;
+        final Map<String, Long> byDay;
+        final Map<String, Long> byVehicle;
+        final Map<String, Long> byType;
+        final Map<String, Long> byCustomer;
+        final long maxId;
+        final long[] bloom;
+
+        Block(long offset, int length, int rows, String minDate, String maxDate, long cents, Map<String, Long> byDay, Map<String, Long> byVehicle,
+              Map<String, Long> byType, Map<String, Long> byCustomer, long maxId, long[] bloom) {
+            this.offset = offset;
+            this.length = length;
+            this.rows = rows;
+            this.minDate = minDate;
+            this.maxDate = maxDate;
+            this.cents = cents;
+            this.byDay = byDay;
+            this.byVehicle = byVehicle;
+            this.byType = byType;
+            this.byCustomer = byCustomer;
+            this.maxId = maxId;
+            this.bloom = bloom;
+        }
+
+        /** The footer of rows stored at offset. */
+        static Block of(long offset, int length, List<Rental> rows, Function<Rental, String> type) {
+            String min = null;
+            String max = null;
+            long total = 0;
+            Map<String, Long> byDay = new TreeMap<>();
+            Map<String, Long> byVehicle = new TreeMap<>();
+            Map<String, Long> byType = new TreeMap<>();
+            Map<String, Long> byCustomer = new TreeMap<>();
+            long maxId = 0;
+            long[] bloom = new long[Math.max(1, (rows.size() * BLOOM_BITS_PER_ROW + 63) / 64)];
+            for (Rental r : rows) {
+                String day = day(r);
+                if (min == null || day.compareTo(min) < 0) min = day;
+                if (max == null || day.compareTo(max) > 0) max = day;
+                long c = Math.round(r.getTotalPrice() * 100);
+                total += c;
+                byDay.merge(day, c, Long::sum);
+                byVehicle.merge(r.getVehicleId(), c, Long::sum);
+                byType.merge(type.apply(r), c, Long::sum);
+                byCustomer.merge(r.getCustomerId(), 1L, Long::sum);
+                maxId = Math.max(maxId, idNumber(r.getId()));
+                long h = hash(r.getCustomerId());
+                for (int i = 0; i < BLOOM_HASHES; i++) {
+                    int b = bit(h, i, bloom.length);
+                    bloom[b >>> 6] |= 1L << b;
+                }
+            }
+            return new Block(offset, length, rows.size(), min == null ? "" : min, max == null ? "" : max, total, byDay, byVehicle, byType, byCustomer, maxId, bloom);
+        }
+
+        // start dates are YYYY-MM-DD, which sort as text
+        boolean overlaps(String first, String last) {
+            return (first == null || maxDate.compareTo(first) >= 0) && (last == null || minDate.compareTo(last) <= 0);
+        }
+
+        boolean mightHold(String customerId) {
+            long h = hash(customerId);
+            for (int i = 0; i < BLOOM_HASHES; i++) {
+                int b = bit(h, i, bloom.length);
+                if ((bloom[b >>> 6] & (1L << b)) == 0) return false;
+            }
+            return true;
+        }
+    }
+
+    // 64-bit FNV-1a; the bloom filter probes with its two halves
+    private static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private static int bit(long hash, int i, int words) {
+        return (((int) hash + i * (int) (hash >>> 32)) & Integer.MAX_VALUE) % (words * 64);
+    }
+
+    // the number after an id's letters (R1042 -> 1042); 0 when there is none
+    static long idNumber(String id) {
+        int i = 0;
+        while (id != null && i < id.length() && !Character.isDigit(id.charAt(i))) i++;
+        try {
+            return id == null || i == id.length() ? 0 : Long.parseLong(id.substring(i).trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String day(Rental r) {
+        return r.getStartDate() == null ? "" : r.getStartDate().trim();
+    }
+
+    /** The month a rental started in, or null when its start date does not parse. */
+    static YearMonth month(Rental r) {
+        String d = r.getStartDate();
+        if (d == null || d.trim().length() < 7) return null;
+        try {
+            return YearMonth.parse(d.trim().substring(0, 7));
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /** Lists the part files again; the rental log calls this whenever it reloads the snapshot. */
+    synchronized void refresh() {
+        List<Part> found = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            for (Path p : ds) {
+                Matcher m = PART.matcher(p.getFileName().toString());
+                if (m.matches()) found.add(new Part(YearMonth.parse(m.group(1)), Integer.parseInt(m.group(2)), p));
+            }
+        } catch (NoSuchFileException e) {
+            // nothing archived yet
+        } catch (IOException e) {
+            return; // keep what we had; the next reload lists again
+        }
+        Collections.sort(found);
+        if (found.equals(parts)) return;
+        parts = Collections.unmodifiableList(found);
+        footers.keySet().retainAll(found);
+        columns.keySet().retainAll(found);
+    }
+
+    /**
+     * New part files for rows, one per month, as path and contents for the
+     * caller to write in one transaction with the new snapshot. type gives
+     * the vehicle type each rental's income is filed under. The caller
+     * holds the log's lock, so no other compaction takes the same part
+     * numbers.
+     */
+    synchronized Map<String, byte[]> stage(Map<YearMonth, List<Rental>> byMonth, Function<Rental, String> type) throws IOException {
+        refresh();
+        Map<String, byte[]> out = new LinkedHashMap<>();
+        for (Map.Entry<YearMonth, List<Rental>> e : byMonth.entrySet()) {
+            int next = 1;
+            for (Part p : parts) {
+                if (p.month.equals(e.getKey())) next = Math.max(next, p.number + 1);
+            }
+            if (next > 999) throw new IOException("too many archive parts for " + e.getKey());
+            // in start date order, so date queries skip most blocks and binary search the columns
+            List<Rental> sorted = new ArrayList<>(e.getValue());
+            sorted.sort(Comparator.comparing(RentalArchive::day));
+            String part = String.format("%s.%03d", e.getKey(), next);
+            try {
+                // the columns land first: a reader that lists the part finds them already there
+                out.put(dir.resolve(part + ".col").toString(), RentalColumnStore.encode(sorted, type));
+            } catch (IllegalArgumentException noColumns) {
+                // read from its blocks instead
+            }
+            out.put(dir.resolve(part + ".blk").toString(), encode(sorted, type));
+        }
+        return out;
+    }
+
+    // blocks of the rows in their order, then the footer
+    private static byte[] encode(List<Rental> sorted, Function<Rental, String> type) throws IOException {
+        byte[] sep = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        List<Block> blocks = new ArrayList<>();
+        for (int from = 0; from < sorted.size(); from += BLOCK_ROWS) {
+            List<Rental> chunk = sorted.subList(from, Math.min(sorted.size(), from + BLOCK_ROWS));
+            long offset = bytes.size();
+            // closing finishes the block; closing a ByteArrayOutputStream does nothing
+            try (OutputStream z = new BufferedOutputStream(new DeflaterOutputStream(bytes), 1 << 16)) {
+                for (Rental r : chunk) {
+                    z.write(r.toCSV().getBytes(StandardCharsets.UTF_8));
+                    z.write(sep);
+                }
+            }
+            blocks.add(Block.of(offset, (int) (bytes.size() - offset), chunk, type));
+        }
+        long footerAt = bytes.size();
+        ByteArrayOutputStream footer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(footer);
+        out.writeInt(blocks.size());
+        for (Block b : blocks) {
+            out.writeLong(b.offset);
+            out.writeInt(b.length);
+            out.writeInt(b.rows);
+            out.writeUTF(b.minDate);
+            out.writeUTF(b.maxDate);
+            out.writeLong(b.cents);
+            writeSums(out, b.byDay);
+            writeSums(out, b.byVehicle);
+            writeSums(out, b.byType);
+            writeSums(out, b.byCustomer);
+            out.writeLong(b.maxId);
+            out.writeInt(b.bloom.length);
+            for (long w : b.bloom) out.writeLong(w);
+        }
+        out.flush();
+        CRC32 crc = new CRC32();
+        crc.update(footer.toByteArray());
+        DataOutputStream trailer = new DataOutputStream(bytes);
+        footer.writeTo(trailer);
+        trailer.writeLong(footerAt);
+        trailer.writeLong(crc.getValue());
+        trailer.writeInt(MAGIC);
+        trailer.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeSums(DataOutputStream out, Map<String, Long> sums) throws IOException {
+        out.writeInt(sums.size());
+        for (Map.Entry<String, Long> e : sums.entrySet()) {
+            out.writeUTF(e.getKey() == null ? "" : e.getKey());
+            out.writeLong(e.getValue());
+        }
+    }
+
+    private static Map<String, Long> readSums(ByteBuffer in) {
+        int n = in.getInt();
+        Map<String, Long> sums = new HashMap<>(n * 2);
+        for (int i = 0; i < n; i++) sums.put(readUTF(in), in.getLong());
+        return sums;
+    }
+
+    // as written by writeUTF; ids and dates are plain ASCII, where it matches UTF-8
+    private static String readUTF(ByteBuffer in) {
+        int n = in.getShort() & 0xFFFF;
+        String s = new String(in.array(), in.position(), n, StandardCharsets.UTF_8);
+        in.position(in.position() + n);
+        return s;
+    }
+
+    /** Months with archived rentals, oldest first. */
+    public synchronized List<YearMonth> months() {
+        List<YearMonth> out = new ArrayList<>();
+        for (Part p : parts) {
+            if (out.isEmpty() || !out.get(out.size() - 1).equals(p.month)) out.add(p.month);
+        }
+        return out;
+    }
+
+    /**
+     * Visits the archived rentals that started from..to (either may be null
+     * for no bound), oldest month first, until visitor returns false. Only
+     * blocks whose dates overlap the range are inflated. Returns false if
+     * visitor stopped.
+     */
+    public boolean scan(LocalDate from, LocalDate to, Predicate<Rental> visitor) {
+        String first = from == null ? null : from.toString();
+        String last = to == null ? null : to.toString();
+        long lo = from == null ? Long.MIN_VALUE : from.toEpochDay();
+        long hi = to == null ? Long.MAX_VALUE : to.toEpochDay();
+        for (Part p : parts()) {
+            if ((from != null && p.month.isBefore(YearMonth.from(from))) || (to != null && p.month.isAfter(YearMonth.from(to)))) continue;
+            RentalColumnStore cols = columns(p);
+            if (cols != null) {
+                int[] range = cols.range(from, to);
+                for (int i = range[0]; i < range[1]; i++) {
+                    int day = cols.startDay(i);
+                    if (day >= lo && day <= hi && !visitor.test(cols.rental(i))) return false;
+                }
+                continue;
+            }
+            for (Block b : blocks(p)) {
+                if (b.overlaps(first, last) && !read(p, b, visitor)) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Up to limit archived rentals from position offset on, in archive
+     * order. Rows are taken from the columns by position; in a part without
+     * them only the blocks the range falls in are inflated.
+     */
+    public List<Rental> page(int offset, int limit) {
+        List<Rental> out = new ArrayList<>();
+        int at = 0;
+        for (Part p : parts()) {
+            RentalColumnStore cols = columns(p);
+            if (cols != null) {
+                for (int i = Math.max(0, offset - at); i < cols.rows() && out.size() < limit; i++) out.add(cols.rental(i));
+                at += cols.rows();
+                continue;
+            }
+            for (Block b : blocks(p)) {
+                if (at + b.rows > offset && out.size() < limit) {
+                    int[] i = {at};
+                    read(p, b, r -> {
+                        if (i[0]++ >= offset) out.add(r);
+                        return out.size() < limit;
+                    });
+                }
+                at += b.rows;
+            }
+        }
+        return out;
+    }
+
+    /** The customer's archived rentals, oldest month first. */
+    public List<Rental> findByCustomer(String customerId) {
+        List<Rental> out = new ArrayList<>();
+        forCustomer(customerId, out::add);
+        return out;
+    }
+
+    /** How many rentals are archived, from the columns' row counts (the footers of a part without them). */
+    public int count() {
+        int n = 0;
+        for (Part p : parts()) {
+            RentalColumnStore cols = columns(p);
+            if (cols != null) {
+                n += cols.rows();
+                continue;
+            }
+            for (Block b : blocks(p)) n += b.rows;
+        }
+        return n;
+    }
+
+    /** How many archived rentals the customer has, from the footers. */
+    public int count(String customerId) {
+        return summary().count(customerId);
+    }
+
+    // inflates only the blocks whose bloom filter may hold the customer
+    private void forCustomer(String customerId, Predicate<Rental> visitor) {
+        for (Part p : parts()) {
+            for (Block b : blocks(p)) {
+                if (b.mightHold(customerId)) read(p, b, r -> !customerId.equals(r.getCustomerId()) || visitor.test(r));
+            }
+        }
+    }
+
+    /**
+     * Income over the whole archive, summed from the parts' mapped columns
+     * (from the footers for a part without them). Kept until the parts
+     * change, which only a fold does.
+     */
+    public Income income() {
+        List<Part> ps;
+        synchronized (this) {
+            if (income != null && income.parts == parts) return income;
+            ps = parts;
+        }
+        Income in = new Income(ps);
+        for (Part p : ps) {
+            RentalColumnStore cols = columns(p);
+            if (cols != null) {
+                in.cents += cols.income(in.byDay, in.byVehicle, in.byType);
+                continue;
+            }
+            for (Block b : blocks(p)) {
+                in.cents += b.cents;
+                for (Map.Entry<String, Long> e : b.byDay.entrySet()) in.byDay.merge(e.getKey(), e.getValue(), Long::sum);
+                for (Map.Entry<String, Long> e : b.byVehicle.entrySet()) in.byVehicle.merge(e.getKey(), e.getValue(), Long::sum);
+                for (Map.Entry<String, Long> e : b.byType.entrySet()) in.byType.merge(e.getKey(), e.getValue(), Long::sum);
+            }
+        }
+        for (Map.Entry<String, Long> e : in.byDay.entrySet()) {
+            String day = e.getKey();
+            in.byMonth.merge(day.length() >= 7 ? day.substring(0, 7) : day, e.getValue(), Long::sum);
+        }
+        synchronized (this) {
+            if (parts == ps) income = in;
+        }
+        return in;
+    }
+
+    /** Counts over the whole archive, from the block footers. */
+    public Summary summary() {
+        List<Part> ps;
+        synchronized (this) {
+            if (summary != null && summary.parts == parts) return summary;
+            ps = parts;
+        }
+        Summary s = new Summary(ps);
+        for (Part p : ps) {
+            for (Block b : blocks(p)) s.add(b);
+        }
+        synchronized (this) {
+            if (parts == ps) summary = s;
+        }
+        return s;
+    }
+
+    private synchronized List<Part> parts() {
+        return parts;
+    }
+
+    // the part's columns, mapped once; null while it has none
+    private RentalColumnStore columns(Part p) {
+        synchronized (this) {
+            RentalColumnStore c = columns.get(p);
+            if (c != null) return c;
+        }
+        RentalColumnStore c = RentalColumnStore.open(p.columns());
+        if (c == null) return null;
+        synchronized (this) {
+            if (parts.contains(p)) columns.put(p, c);
+        }
+        return c;
+    }
+
+    private List<Block> blocks(Part p) {
+        synchronized (this) {
+            List<Block> bs = footers.get(p);
+            if (bs != null) return bs;
+        }
+        List<Block> bs = footer(p);
+        synchronized (this) {
+            if (parts.contains(p)) footers.put(p, bs);
+        }
+        return bs;
+    }
+
+    private static List<Block> footer(Part p) {
+        try (FileChannel ch = FileChannel.open(p.path, StandardOpenOption.READ)) {
+            long size = ch.size();
+            // a part being written exists empty for a moment before its contents move in
+            if (size == 0) return Collections.emptyList();
+            if (size < TRAILER) throw new IOException("archive part is cut short");
+            ByteBuffer trailer = readFully(ch, size - TRAILER, TRAILER);
+            long footerAt = trailer.getLong();
+            long check = trailer.getLong();
+            if (trailer.getInt() != MAGIC || footerAt < 0 || footerAt > size - TRAILER) throw new IOException("not an archive part");
+            ByteBuffer in = readFully(ch, footerAt, (int) (size - TRAILER - footerAt));
+            CRC32 crc = new CRC32();
+            crc.update(in.array(), 0, in.limit());
+            if (crc.getValue() != check) throw new IOException("archive footer does not match its checksum");
+            int n = in.getInt();
+            List<Block> out = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                long offset = in.getLong();
+                int length = in.getInt();
+                int rows = in.getInt();
+                String min = readUTF(in);
+                String max = readUTF(in);
+                long cents = in.getLong();
+                Map<String, Long> byDay = readSums(in);
+                Map<String, Long> byVehicle = readSums(in);
+                Map<String, Long> byType = readSums(in);
+                Map<String, Long> byCustomer = readSums(in);
+                long maxId = in.getLong();
+                long[] bloom = new long[in.getInt()];
+                for (int k = 0; k < bloom.length; k++) bloom[k] = in.getLong();
+                out.add(new Block(offset, length, rows, min, max, cents, byDay, byVehicle, byType, byCustomer, maxId, bloom));
+            }
+            return out;
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot read rental archive " + p.path, e);
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel ch, long at, int n) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(n);
+        while (buf.hasRemaining() && ch.read(buf, at + buf.position()) > 0) { }
+        if (buf.hasRemaining()) throw new IOException("archive part is cut short");
+        buf.flip();
+        return buf;
+    }
+
+    private boolean read(Part p, Block b, Predicate<Rental> visitor) {
+        long t0 = readTimer.start();
+        try {
+            byte[] block;
+            try (FileChannel ch = FileChannel.open(p.path, StandardOpenOption.READ)) {
+                block = readFully(ch, b.offset, b.length).array();
+            }
+            return lines(new InflaterInputStream(new ByteArrayInputStream(block)), visitor);
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot read rental archive " + p.path, e);
+        } finally {
+            readTimer.stop(t0);
+        }
+    }
+
+    private static boolean lines(InputStream raw, Predicate<Rental> visitor) throws IOException {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(raw, StandardCharsets.UTF_8))) {
+            for (String l = in.readLine(); l != null; l = in.readLine()) {
+                Rental r = l.trim().isEmpty() ? null : Rental.fromCSV(l);
+                if (r != null && !visitor.test(r)) return false;
+            }
+            return true;
+        }
+    }
+
+    /** Counts of the archived rentals, all of which are RETURNED. */
+    public static final class Summary {
+        final List<Part> parts;
+        private final Map<String, Integer> byCustomer = new HashMap<>();
+        private int count;
+        private long maxId;
+
+        Summary(List<Part> parts) {
+            this.parts = parts;
+        }
+
+        void add(Block b) {
+            count += b.rows;
+            maxId = Math.max(maxId, b.maxId);
+            for (Map.Entry<String, Long> e : b.byCustomer.entrySet()) byCustomer.merge(e.getKey(), e.getValue().intValue(), Integer::sum);
+        }
+
+        public int count() { return count; }
+
+        /** The highest number in an archived rental id (R1042 -> 1042), 0 when nothing is archived. */
+        public long maxId() { return maxId; }
+
+        /** Archived rentals of one customer. */
+        public int count(String customerId) { return byCustomer.getOrDefault(customerId, 0); }
+    }
+
+    /** Income of the archived rentals, all of which are RETURNED. Amounts are in cents. */
+    public static final class Income {
+        final List<Part> parts;
+        private final TreeMap<String, Long> byDay = new TreeMap<>();
+        private final TreeMap<String, Long> byMonth = new TreeMap<>();
+        private final TreeMap<String, Long> byVehicle = new TreeMap<>();
+        private final TreeMap<String, Long> byType = new TreeMap<>();
+        private long cents;
+
+        Income(List<Part> parts) {
+            this.parts = parts;
+        }
+
+        public long cents() { return cents; }
+
+        /** Cents per rental start day (YYYY-MM-DD), as {@link RevenueIndex#byDay()}. */
+        public TreeMap<String, Long> byDay() { return new TreeMap<>(byDay); }
+
+        public TreeMap<String, Long> byMonth() { return new TreeMap<>(byMonth); }
+
+        public TreeMap<String, Long> byVehicle() { return new TreeMap<>(byVehicle); }
+
+        /** Cents per vehicle type, as each rental was counted when it was archived. */
+        public TreeMap<String, Long> byVehicleType() { return new TreeMap<>(byType); }
+    }
+}
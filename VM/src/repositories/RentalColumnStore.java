@@ -0,0 +1,312 @@
+package repositories;
+
+import models.Rental;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Binary, column-oriented rentals, read through a memory-mapped buffer.
+ * The archive writes one next to each part (files/rentals/2024-03.001.col)
+ * in the same transaction, so a file is never changed once written. After
+ * a 32-byte header each field is a fixed-width column over all rows:
+ *
+ *   id                    int   number of an R001-style id, or -1 - string for any other
+ *   customer, vehicle     int   string number
+ *   type                  int   string number of the vehicle type income is filed under, -1 for none
+ *   start, end            int   epoch day
+ *   price                 long  cents
+ *   status                byte  0 = RENTED, 1 = RETURNED
+ *
+ * then the strings, each as its UTF-8 length and bytes. Income totals read
+ * the price, start and string-number columns straight from the mapping and
+ * allocate nothing per row; a Rental is only made for a row asked for.
+ */
+public final class RentalColumnStore {
+    public static final byte RENTED = 0;
+    public static final byte RETURNED = 1;
+    private static final int MAGIC = 0x564D5243; // "VMRC"
+    private static final int VERSION = 1;
+    private static final int HEADER = 32;
+    // header flag: rows are in start date order
+    private static final int SORTED = 1;
+
+    private final ByteBuffer buf;
+    private final int rows;
+    private final boolean sorted;
+    // where each string starts; strings are decoded when first asked for
+    private final int[] stringAt;
+    private final String[] strings;
+
+    private RentalColumnStore(ByteBuffer buf, int rows, boolean sorted, int[] stringAt) {
+        this.buf = buf;
+        this.rows = rows;
+        this.sorted = sorted;
+        this.stringAt = stringAt;
+        this.strings = new String[stringAt.length];
+    }
+
+    /**
+     * The file for rows in their order, type giving the vehicle type each
+     * one's income is filed under (null for none). Throws
+     * IllegalArgumentException for a row the columns cannot hold: a date
+     * that does not parse or a status other than RENTED or RETURNED.
+     */
+    static byte[] encode(List<Rental> rows, Function<Rental, String> type) {
+        int n = rows.size();
+        Map<String, Integer> table = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        ByteBuffer cols = ByteBuffer.allocate(HEADER + 33 * n);
+        boolean sorted = true;
+        int last = Integer.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            Rental r = rows.get(i);
+            int start = day(r.getStartDate(), r);
+            sorted &= start >= last;
+            last = start;
+            String t = type == null ? null : type.apply(r);
+            cols.putInt(HEADER + 4 * i, id(r.getId(), table, strings));
+            cols.putInt(HEADER + 4 * (n + i), ref(r.getCustomerId(), table, strings));
+            cols.putInt(HEADER + 4 * (2 * n + i), ref(r.getVehicleId(), table, strings));
+            cols.putInt(HEADER + 4 * (3 * n + i), t == null ? -1 : ref(t, table, strings));
+            cols.putInt(HEADER + 4 * (4 * n + i), start);
+            cols.putInt(HEADER + 4 * (5 * n + i), day(r.getEndDate(), r));
+            cols.putLong(HEADER + 24 * n + 8 * i, Math.round(r.getTotalPrice() * 100));
+            cols.put(HEADER + 32 * n + i, status(r));
+        }
+        cols.putInt(0, MAGIC);
+        cols.putInt(4, VERSION);
+        cols.putInt(8, n);
+        cols.putInt(12, strings.size());
+        cols.putInt(16, sorted ? SORTED : 0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(cols.capacity() + strings.size() * 8);
+        out.write(cols.array(), 0, cols.capacity());
+        try {
+            DataOutputStream s = new DataOutputStream(out);
+            for (String str : strings) {
+                byte[] b = str.getBytes(StandardCharsets.UTF_8);
+                s.writeInt(b.length);
+                s.write(b);
+            }
+            s.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // a ByteArrayOutputStream does not fail
+        }
+        return out.toByteArray();
+    }
+
+    /** Maps the file at path; null when there is none (yet) or it is not a whole column file. */
+    public static RentalColumnStore open(Path path) {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size < HEADER || size > Integer.MAX_VALUE) return null;
+            ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) return null;
+            int n = buf.getInt(8);
+            long stringsAt = HEADER + 33L * n;
+            if (n < 0 || stringsAt > size) return null;
+            int[] stringAt = new int[buf.getInt(12)];
+            long at = stringsAt;
+            for (int i = 0; i < stringAt.length; i++) {
+                if (at + 4 > size) return null;
+                stringAt[i] = (int) at;
+                at += 4 + buf.getInt((int) at);
+            }
+            if (at > size) return null;
+            return new RentalColumnStore(buf, n, (buf.getInt(16) & SORTED) != 0, stringAt);
+        } catch (IOException | RuntimeException e) {
+            // missing, being written, or cut short: the caller reads the rows another way
+            return null;
+        }
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int startDay(int row) {
+        return buf.getInt(HEADER + 4 * (4 * rows + row));
+    }
+
+    public long cents(int row) {
+        return buf.getLong(HEADER + 24 * rows + 8 * row);
+    }
+
+    public byte status(int row) {
+        return buf.get(HEADER + 32 * rows + row);
+    }
+
+    /** The row as a Rental, as it was written. */
+    public Rental rental(int row) {
+        int id = buf.getInt(HEADER + 4 * row);
+        return new Rental(id >= 0 ? idText(id) : string(-1 - id),
+                string(buf.getInt(HEADER + 4 * (rows + row))), string(buf.getInt(HEADER + 4 * (2 * rows + row))),
+                LocalDate.ofEpochDay(startDay(row)).toString(), LocalDate.ofEpochDay(buf.getInt(HEADER + 4 * (5 * rows + row))).toString(),
+                cents(row) / 100.0, status(row) == RETURNED ? RentalLog.RETURNED : RentalLog.RENTED);
+    }
+
+    /**
+     * Rows [first, last) whose rentals started from..to (either may be null
+     * for no bound), found by binary search when the rows are in start
+     * order; otherwise the whole file and the caller checks startDay.
+     */
+    public int[] range(LocalDate from, LocalDate to) {
+        if (!sorted) return new int[] {0, rows};
+        int first = from == null ? 0 : firstFrom(from.toEpochDay());
+        int last = to == null ? rows : firstFrom(to.toEpochDay() + 1);
+        return new int[] {first, Math.max(first, last)};
+    }
+
+    private int firstFrom(long day) {
+        int lo = 0;
+        int hi = rows;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (startDay(mid) < day) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Adds every row's price to the sums per start day, vehicle id and
+     * vehicle type, and returns the total, all in cents. Reads only the
+     * columns: per-vehicle and per-type sums are kept by string number and
+     * days are summed over runs of equal start days, so a map entry is
+     * touched once per key (per run when the rows are not in start order).
+     */
+    public long income(Map<String, Long> byDay, Map<String, Long> byVehicle, Map<String, Long> byType) {
+        long[] vehicles = new long[stringAt.length];
+        long[] types = new long[stringAt.length];
+        long total = 0;
+        long run = 0;
+        int runDay = 0;
+        int vehicleAt = HEADER + 4 * 2 * rows;
+        int typeAt = HEADER + 4 * 3 * rows;
+        for (int i = 0; i < rows; i++) {
+            long c = cents(i);
+            int day = startDay(i);
+            if (i > 0 && day != runDay) {
+                byDay.merge(LocalDate.ofEpochDay(runDay).toString(), run, Long::sum);
+                run = 0;
+            }
+            runDay = day;
+            run += c;
+            total += c;
+            vehicles[buf.getInt(vehicleAt + 4 * i)] += c;
+            int t = buf.getInt(typeAt + 4 * i);
+            if (t >= 0) types[t] += c;
+        }
+        if (rows > 0) byDay.merge(LocalDate.ofEpochDay(runDay).toString(), run, Long::sum);
+        for (int s = 0; s < stringAt.length; s++) {
+            if (vehicles[s] != 0) byVehicle.merge(string(s), vehicles[s], Long::sum);
+            if (types[s] != 0) byType.merge(string(s), types[s], Long::sum);
+        }
+        return total;
+    }
+
+    private synchronized String string(int i) {
+        String s = strings[i];
+        if (s == null) {
+            byte[] b = new byte[buf.getInt(stringAt[i])];
+            ByteBuffer in = buf.duplicate();
+            in.position(stringAt[i] + 4);
+            in.get(b);
+            s = new String(b, StandardCharsets.UTF_8);
+            strings[i] = s;
+        }
+        return s;
+    }
+
+    private static int id(String id, Map<String, Integer> table, List<String> strings) {
+        if (id != null && id.length() >= 4 && id.charAt(0) == 'R') {
+            long n = RentalArchive.idNumber(id);
+            if (n <= Integer.MAX_VALUE && idText((int) n).equals(id)) return (int) n;
+        }
+        return -1 - ref(id == null ? "" : id, table, strings);
+    }
+
+    // R + at least three digits, as IdAllocator makes them; String.format is most of a row's cost otherwise
+    private static String idText(int n) {
+        String digits = Integer.toString(n);
+        StringBuilder sb = new StringBuilder(4 + digits.length()).append('R');
+        for (int i = digits.length(); i < 3; i++) sb.append('0');
+        return sb.append(digits).toString();
+    }
+
+    private static int ref(String s, Map<String, Integer> table, List<String> strings) {
+        Integer i = table.get(s == null ? "" : s);
+        if (i == null) {
+            i = strings.size();
+            table.put(s == null ? "" : s, i);
+            strings.add(s == null ? "" : s);
+        }
+        return i;
+    }
+
+    // dates must survive the round trip: only plain YYYY-MM-DD
+    private static int day(String date, Rental r) {
+        try {
+            LocalDate d = LocalDate.parse(date);
+            if (d.toString().equals(date)) return (int) d.toEpochDay();
+        } catch (DateTimeParseException | NullPointerException e) {
+            // falls through
+        }
+        throw new IllegalArgumentException("rental " + r.getId() + " has a date the columns cannot hold: " + date);
+    }
+
+    private static byte status(Rental r) {
+        if (RentalLog.RENTED.equals(r.getStatus())) return RENTED;
+        if (RentalLog.RETURNED.equals(r.getStatus())) return RETURNED;
+        throw new IllegalArgumentException("rental " + r.getId() + " has a status the columns cannot hold: " + r.getStatus());
+    }
+
+    /**
+     * Converts between rentals.txt lines and a column file:
+     * {@code import <rentals.txt> <file.col>} or {@code export <file.col> <rentals.txt>}.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3 || !(args[0].equals("import") || args[0].equals("export"))) {
+            System.out.println("usage: RentalColumnStore import <csv> <col> | export <col> <csv>");
+            return;
+        }
+        if (args[0].equals("import")) {
+            List<Rental> rentals = new ArrayList<>();
+            for (String l : Files.readAllLines(Paths.get(args[1]), StandardCharsets.UTF_8)) {
+                Rental r = l.trim().isEmpty() ? null : Rental.fromCSV(l);
+                if (r != null) rentals.add(r);
+            }
+            byte[] data;
+            try {
+                data = encode(rentals, null);
+            } catch (IllegalArgumentException e) {
+                System.out.println("Not imported: " + e.getMessage());
+                return;
+            }
+            Files.write(Paths.get(args[2]), data);
+            System.out.println("Imported " + rentals.size() + " rentals.");
+        } else {
+            RentalColumnStore s = open(Paths.get(args[1]));
+            if (s == null) throw new IOException("not a rental column file: " + args[1]);
+            List<String> lines = new ArrayList<>(s.rows());
+            for (int i = 0; i < s.rows(); i++) lines.add(s.rental(i).toCSV());
+            Files.write(Paths.get(args[2]), lines, StandardCharsets.UTF_8);
+            System.out.println("Exported " + s.rows() + " rentals.");
+        }
+    }
+}
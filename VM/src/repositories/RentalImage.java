@@ -0,0 +1,190 @@
+package repositories;
+
+import models.Rental;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary image of a {@link RentalLog}'s rows, so a cold start loads them
+ * without parsing the CSV snapshot and only replays the log written since.
+ * It names the snapshot it was taken from (size, modified time, file key)
+ * and how far into the log it goes, with a CRC of the log bytes just before
+ * that offset to tell the same log from a new one. A CRC32 over the whole
+ * image catches torn or damaged files; a bad or stale image is ignored.
+ *
+ * Customer and vehicle ids, dates and statuses repeat across rows, so they
+ * are stored once in a string table and rows refer to them by number.
+ */
+final class RentalImage {
+    private static final int MAGIC = 0x564D5249; // "VMRI"
+    private static final int VERSION = 1;
+    private static final int LOG_CHECK = 4096;
+
+    final long snapshotSize;
+    final long snapshotModified;
+    final String snapshotKey;
+    final String logKey;
+    final long logOffset;
+    final long logCheck;
+    final int pendingEvents;
+    final List<Rental> rows;
+
+    RentalImage(long snapshotSize, long snapshotModified, String snapshotKey, String logKey, long logOffset, long logCheck, int pendingEvents, List<Rental> rows) {
+        this.snapshotSize = snapshotSize;
+        this.snapshotModified = snapshotModified;
+        this.snapshotKey = snapshotKey;
+        this.logKey = logKey;
+        this.logOffset = logOffset;
+        this.logCheck = logCheck;
+        this.pendingEvents = pendingEvents;
+        this.rows = rows;
+    }
+
+    /** CRC32 of up to 4 KB of the file ending at offset; 0 when offset is 0, -1 when the file is shorter. */
+    static long logCheck(Path log, long offset) {
+        if (offset == 0) return 0;
+        try (FileChannel ch = FileChannel.open(log, StandardOpenOption.READ)) {
+            if (ch.size() < offset) return -1;
+            int n = (int) Math.min(LOG_CHECK, offset);
+            ByteBuffer buf = ByteBuffer.allocate(n);
+            while (buf.hasRemaining() && ch.read(buf, offset - n + buf.position()) > 0) { }
+            if (buf.hasRemaining()) return -1;
+            CRC32 crc = new CRC32();
+            crc.update(buf.array(), 0, n);
+            return crc.getValue();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /** Writes the image next to path and renames it over path, so readers never see half of one. */
+    void write(Path path) throws IOException {
+        // two processes writing at once can garble the temp file; the CRC then rejects it
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            CRC32 crc = new CRC32();
+            try (OutputStream os = Files.newOutputStream(tmp)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(os, crc), 1 << 16));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(snapshotSize);
+                out.writeLong(snapshotModified);
+                writeString(out, snapshotKey);
+                writeString(out, logKey);
+                out.writeLong(logOffset);
+                out.writeLong(logCheck);
+                out.writeInt(pendingEvents);
+                Map<String, Integer> table = new HashMap<>();
+                List<String> strings = new ArrayList<>();
+                int[] refs = new int[rows.size() * 5];
+                for (int i = 0; i < rows.size(); i++) {
+                    Rental r = rows.get(i);
+                    refs[i * 5] = ref(r.getCustomerId(), table, strings);
+                    refs[i * 5 + 1] = ref(r.getVehicleId(), table, strings);
+                    refs[i * 5 + 2] = ref(r.getStartDate(), table, strings);
+                    refs[i * 5 + 3] = ref(r.getEndDate(), table, strings);
+                    refs[i * 5 + 4] = ref(r.getStatus(), table, strings);
+                }
+                out.writeInt(strings.size());
+                for (String s : strings) writeString(out, s);
+                out.writeInt(rows.size());
+                for (int i = 0; i < rows.size(); i++) {
+                    Rental r = rows.get(i);
+                    writeString(out, r.getId() == null ? "" : r.getId());
+                    for (int k = 0; k < 5; k++) out.writeInt(refs[i * 5 + k]);
+                    out.writeDouble(r.getTotalPrice());
+                }
+                out.flush();
+                // the trailer is not part of its own checksum
+                new DataOutputStream(os).writeLong(crc.getValue());
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /** The image at path, or null when there is none or it does not check out. */
+    static RentalImage read(Path path) {
+        try {
+            byte[] all = Files.readAllBytes(path);
+            if (all.length < 8) return null;
+            ByteBuffer in = ByteBuffer.wrap(all);
+            CRC32 crc = new CRC32();
+            crc.update(all, 0, all.length - 8);
+            if (in.getLong(all.length - 8) != crc.getValue()) return null;
+            in.limit(all.length - 8);
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) return null;
+            long snapshotSize = in.getLong();
+            long snapshotModified = in.getLong();
+            String snapshotKey = readString(in);
+            String logKey = readString(in);
+            long logOffset = in.getLong();
+            long logCheck = in.getLong();
+            int pendingEvents = in.getInt();
+            String[] strings = new String[in.getInt()];
+            for (int i = 0; i < strings.length; i++) strings[i] = readString(in);
+            int count = in.getInt();
+            List<Rental> rows = new ArrayList<>(Math.min(count, in.remaining() / 30));
+            for (int i = 0; i < count; i++) {
+                String id = readString(in);
+                String customer = string(strings, in.getInt());
+                String vehicle = string(strings, in.getInt());
+                String start = string(strings, in.getInt());
+                String end = string(strings, in.getInt());
+                String status = string(strings, in.getInt());
+                rows.add(new Rental(id, customer, vehicle, start, end, in.getDouble(), status));
+            }
+            return new RentalImage(snapshotSize, snapshotModified, snapshotKey, logKey, logOffset, logCheck, pendingEvents, rows);
+        } catch (IOException | RuntimeException e) {
+            // missing, damaged or from another version: load from the CSV instead
+            return null;
+        }
+    }
+
+    // strings are their UTF-8 bytes after a length
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int n = in.getInt();
+        String s = new String(in.array(), in.position(), n, StandardCharsets.UTF_8);
+        in.position(in.position() + n);
+        return s;
+    }
+
+    private static String string(String[] strings, int ref) {
+        return ref < 0 ? null : strings[ref];
+    }
+
+    // index into the string table, -1 for null
+    private static int ref(String s, Map<String, Integer> table, List<String> strings) {
+        if (s == null) return -1;
+        Integer i = table.get(s);
+        if (i == null) {
+            i = strings.size();
+            table.put(s, i);
+            strings.add(s);
+        }
+        return i;
+    }
+}
@@ -0,0 +1,581 @@
+package repositories;
+
+import models.Rental;
+import utils.Events;
+import utils.FileManager;
+import utils.Metrics;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+/**
+ * Rentals stored as a snapshot (rentals.txt, same CSV as before) plus an
+ * append-only event log next to it. The log holds one event per line:
+ *
+ *   RENTED,&lt;rental csv&gt;
+ *   RETURNED,&lt;rentalId&gt;,&lt;timestamp&gt;
+ *
+ * The current state is the snapshot with the log replayed on top, so a
+ * return is one short append instead of a rewrite of the whole file. A
+ * background task folds the log into a new snapshot once it grows past
+ * COMPACT_THRESHOLD events.
+ *
+ * After each compaction or full CSV load a binary image of the rows is
+ * saved as rentals.img (see {@link RentalImage}); the first load of a
+ * process starts from it when it still matches the snapshot, and replays
+ * only the log written since.
+ *
+ * Compaction also moves RETURNED rentals that started more than
+ * ARCHIVE_DAYS ago out of the snapshot into the {@link RentalArchive}
+ * (files/rentals/), so the snapshot, the image and every index only hold
+ * open rentals and recent history.
+ */
+public class RentalLog extends Repository<Rental> {
+    public static final String RENTED = "RENTED";
+    public static final String RETURNED = "RETURNED";
+    private static final int COMPACT_THRESHOLD = 1000;
+    // age in days of returned rentals to archive, from -Drentals.archiveDays; negative keeps them all in the snapshot
+    private static final int ARCHIVE_DAYS = Integer.getInteger("rentals.archiveDays", 90);
+    private static final Map<String, RentalLog> OPEN = new HashMap<>();
+
+    private final String snapshotPath;
+    private final String logPath;
+    private final String compactingPath;
+    private final String imagePath;
+    private final List<Rental> rows = new ArrayList<>();
+    private final Map<String, Integer> positions = new HashMap<>();
+    private List<Rental> view;
+    private long snapshotModified = -1;
+    private long snapshotSize = -1;
+    private long logModified = -1;
+    private long logOffset = -1;
+    // our own events that landed past logOffset, by start offset, waiting for the gap before them to fill
+    private final TreeMap<Long, Long> landedAhead = new TreeMap<>();
+    private int pendingEvents = 0;
+    private final Metrics.Timer reloadTimer;
+    private final Metrics.Timer tailTimer;
+    private final Metrics.Histogram reloaded;
+    private final Metrics.Histogram replayed;
+    private int replayedNow;
+    private boolean booted = false;
+    // the snapshot the image on disk was taken from
+    private long imageModified = -1;
+    private long imageSize = -1;
+    private ScheduledExecutorService background;
+    private final RentalArchive archive;
+    // rows compaction would move to the archive, as of archivableBefore
+    private int archivable = 0;
+    private String archivableBefore;
+    private volatile LongConsumer folded;
+
+    private RentalLog(String snapshotPath) {
+        this.snapshotPath = snapshotPath;
+        this.logPath = logPathFor(snapshotPath);
+        this.compactingPath = logPath + ".compacting";
+        this.imagePath = logPath.substring(0, logPath.length() - ".log".length()) + ".img";
+        this.archive = new RentalArchive(logPath.substring(0, logPath.length() - ".log".length()));
+        this.reloadTimer = Metrics.timer("parse " + snapshotPath);
+        this.tailTimer = Metrics.timer("parse " + logPath);
+        this.reloaded = Metrics.sizes("records parsed " + snapshotPath);
+        this.replayed = Metrics.sizes("records parsed " + logPath);
+    }
+
+    /** Returns the shared log for a snapshot file and starts its background compaction. */
+    public static synchronized RentalLog open(String snapshotPath) {
+        RentalLog log = OPEN.get(snapshotPath);
+        if (log == null) {
+            log = new RentalLog(snapshotPath);
+            OPEN.put(snapshotPath, log);
+            log.scheduleCompaction();
+            FileWatcher.watch(log, snapshotPath, log.logPath, log.compactingPath);
+        }
+        return log;
+    }
+
+    public static String logPathFor(String snapshotPath) {
+        String base = snapshotPath.endsWith(".txt") ? snapshotPath.substring(0, snapshotPath.length() - 4) : snapshotPath;
+        return base + ".log";
+    }
+
+    @Override
+    public synchronized List<Rental> all() {
+        refresh();
+        return loaded();
+    }
+
+    @Override
+    List<Rental> loaded() {
+        if (view == null) view = Collections.unmodifiableList(new ArrayList<>(rows));
+        return view;
+    }
+
+    /** Drops the in-memory state and replays the snapshot and log from scratch, rebuilding every index. */
+    public synchronized void reload() {
+        logOffset = -1;
+        markChanged();
+        refresh();
+    }
+
+    /** Picks up whatever other processes appended, without waiting for the file watcher. */
+    public synchronized void sync() {
+        markChanged();
+        refresh();
+    }
+
+    /** The closed months moved out of the snapshot, as of the last refresh. */
+    public synchronized RentalArchive archive() {
+        refresh();
+        return archive;
+    }
+
+    /** Finds the rental the way the old full scan did: the first row with this id that is still RENTED. */
+    public synchronized Rental findActive(String rentalId) {
+        refresh();
+        int pos = activePosition(rentalId);
+        return pos < 0 ? null : rows.get(pos);
+    }
+
+    public void rent(Rental r) throws IOException {
+        FileManager.Transaction tx = FileManager.begin();
+        rent(r, tx);
+        tx.commit();
+    }
+
+    /** Stages a RENTED event in tx; the in-memory state follows once tx commits. */
+    public synchronized void rent(Rental r, FileManager.Transaction tx) {
+        markChanged();
+        refresh();
+        appendEvent(RENTED + "," + r.toCSV(), tx, () -> {
+            if (!alreadyApplied(r)) applyRented(r);
+        });
+    }
+
+    /**
+     * Stages a RETURNED event in tx. Returns false, staging nothing, when no
+     * active rental has that id.
+     */
+    public synchronized boolean markReturned(String rentalId, FileManager.Transaction tx) {
+        // another process may have returned it already
+        markChanged();
+        refresh();
+        if (activePosition(rentalId) < 0) return false;
+        appendEvent(RETURNED + "," + rentalId + "," + LocalDateTime.now(), tx, () -> applyReturned(rentalId));
+        return true;
+    }
+
+    /**
+     * Has every fold report the highest rental id number it saw, so the
+     * caller can keep its id sequence above it; ids then never have to be
+     * seeded from the archive.
+     */
+    public void onFold(LongConsumer highestId) {
+        folded = highestId;
+    }
+
+    /** Writes the current state as the new snapshot and starts an empty log. */
+    public void compact() throws IOException {
+        FileManager.drain();
+        // hold the log's lock so no other process appends between our last read and parking the log
+        long highest = FileManager.withLock(logPath, () -> {
+            synchronized (this) {
+                return compactLocked();
+            }
+        });
+        // outside the log's monitor: seeding an id sequence takes the sequence lock, then reads the rows
+        LongConsumer report = folded;
+        if (highest > 0 && report != null) report.accept(highest);
+    }
+
+    // the highest rental id number folded, or -1 when this round had to be skipped
+    private long compactLocked() throws IOException {
+        // queued events must be in the log before it is parked
+        FileManager.writePending(logPath);
+        // a group-mode commit is still applying its event; try again next round
+        if (FileManager.hasPendingWrites(logPath)) return -1;
+        markChanged();
+        refresh();
+        Path log = Paths.get(logPath);
+        Path compacting = Paths.get(compactingPath);
+        // park the log first: if we crash after this, the next load replays it idempotently
+        if (Files.exists(log)) {
+            if (Files.exists(compacting)) {
+                Files.write(compacting, Files.readAllBytes(log), StandardOpenOption.APPEND);
+                Files.delete(log);
+            } else {
+                Files.move(log, compacting);
+            }
+        }
+        String before = archiveCutoff();
+        List<Rental> hot = new ArrayList<>(rows.size());
+        Map<YearMonth, List<Rental>> closed = new TreeMap<>();
+        long highest = 0;
+        for (Rental r : rows) {
+            highest = Math.max(highest, RentalArchive.idNumber(r.getId()));
+            if (archivable(r, before)) closed.computeIfAbsent(RentalArchive.month(r), k -> new ArrayList<>()).add(r);
+            else hot.add(r);
+        }
+        List<String> lines = new ArrayList<>(hot.size());
+        for (Rental r : hot) lines.add(r.toCSV());
+        FileManager.Transaction tx = FileManager.begin();
+        // archived income stays under the vehicle type it was counted with
+        RevenueIndex revenue = registered(RevenueIndex.NAME);
+        Map<String, byte[]> parts = archive.stage(closed, r -> revenue == null ? RevenueIndex.UNKNOWN_TYPE : revenue.countedType(r));
+        for (Map.Entry<String, byte[]> part : parts.entrySet()) tx.overwrite(part.getKey(), part.getValue());
+        // replaying the parked log after a crash must not bring archived rentals back
+        if (!closed.isEmpty() && Files.exists(compacting)) tx.overwrite(compactingPath, Collections.<String>emptyList());
+        tx.overwrite(snapshotPath, lines).durable().commit();
+        Files.deleteIfExists(compacting);
+        // parts are never written again, so nobody takes their lock sidecars after this
+        for (String part : parts.keySet()) Files.deleteIfExists(Paths.get(part + ".lock"));
+        if (!closed.isEmpty()) {
+            rows.clear();
+            positions.clear();
+            for (Rental r : hot) addRow(r);
+            view = null;
+            reindex(loaded());
+            archive.refresh();
+        }
+        archivable = 0;
+        archivableBefore = before;
+        pendingEvents = 0;
+        landedAhead.clear();
+        BasicFileAttributes s = attributes(snapshotPath);
+        snapshotModified = s == null ? -1 : s.lastModifiedTime().toMillis();
+        snapshotSize = s == null ? -1 : s.size();
+        logModified = -1;
+        logOffset = 0;
+        saveImage();
+        return highest;
+    }
+
+    @Override
+    void refresh() {
+        // the log is behind what we hold until our queued events land
+        if (FileManager.hasPendingWrites(logPath)) return;
+        if (!landedAhead.isEmpty()) {
+            // the gap never filled: another writer's events are in it
+            landedAhead.clear();
+            logOffset = -1;
+            markChanged();
+        }
+        if (!needsCheck()) return;
+        BasicFileAttributes s = attributes(snapshotPath);
+        long sm = s == null ? -1 : s.lastModifiedTime().toMillis();
+        long ss = s == null ? -1 : s.size();
+        BasicFileAttributes l = attributes(logPath);
+        long lm = l == null ? -1 : l.lastModifiedTime().toMillis();
+        long ls = l == null ? 0 : l.size();
+        if (logOffset >= 0 && sm == snapshotModified && ss == snapshotSize && !Files.exists(Paths.get(compactingPath))) {
+            if (ls == logOffset && lm == logModified) return;
+            if (ls > logOffset) {
+                // the log only ever grows between compactions: apply just the new tail
+                replayTail(lm, ls);
+                return;
+            }
+        }
+        reload(sm, ss);
+    }
+
+    private void reload(long sm, long ss) {
+        long t0 = reloadTimer.start();
+        Events.Parse event = Events.Parse.start(snapshotPath);
+        try {
+            reloadAll(sm, ss);
+        } finally {
+            reloadTimer.stop(t0);
+            event.end(rows.size());
+        }
+    }
+
+    private void reloadAll(long sm, long ss) {
+        if (!booted) {
+            booted = true;
+            if (loadImage(sm, ss)) return;
+        }
+        rows.clear();
+        positions.clear();
+        try {
+            // parsed in parallel but returned in file order, so the first of duplicate ids still wins
+            for (Rental r : FileManager.parseAll(snapshotPath, Rental::fromCSV)) addRow(r);
+        } catch (IOException e) {
+            rows.clear();
+            positions.clear();
+        }
+        reloaded.record(rows.size());
+        snapshotModified = sm;
+        snapshotSize = ss;
+        pendingEvents = 0;
+        if (Files.exists(Paths.get(compactingPath))) {
+            try {
+                FileManager.forEachLine(compactingPath, line -> {
+                    applyEvent(line, true);
+                    return true;
+                });
+            } catch (IOException ignored) {
+                // replayed from the log once compaction finishes
+            }
+        }
+        logOffset = 0;
+        logModified = -1;
+        landedAhead.clear();
+        BasicFileAttributes l = attributes(logPath);
+        if (l != null) replayTail(l.lastModifiedTime().toMillis(), l.size());
+        view = null;
+        reindex(loaded());
+        // listed after the snapshot is read: a compaction writes its parts first
+        archive.refresh();
+        countArchivable();
+        saveImage();
+    }
+
+    // cold start: take the rows from the image if it is of this snapshot and log, then replay the log past it
+    private boolean loadImage(long sm, long ss) {
+        if (Files.exists(Paths.get(compactingPath))) return false;
+        RentalImage image = RentalImage.read(Paths.get(imagePath));
+        BasicFileAttributes s = attributes(snapshotPath);
+        if (image == null || s == null || image.snapshotSize != ss || image.snapshotModified != sm
+                || !image.snapshotKey.equals(String.valueOf(s.fileKey()))) {
+            return false;
+        }
+        BasicFileAttributes l = attributes(logPath);
+        if (image.logOffset > 0 && (l == null || !image.logKey.equals(String.valueOf(l.fileKey())) || l.size() < image.logOffset
+                || RentalImage.logCheck(Paths.get(logPath), image.logOffset) != image.logCheck)) {
+            return false;
+        }
+        rows.clear();
+        positions.clear();
+        for (Rental r : image.rows) addRow(r);
+        snapshotModified = sm;
+        snapshotSize = ss;
+        imageModified = sm;
+        imageSize = ss;
+        pendingEvents = image.pendingEvents;
+        logOffset = image.logOffset;
+        logModified = -1;
+        landedAhead.clear();
+        if (l != null) replayTail(l.lastModifiedTime().toMillis(), l.size());
+        view = null;
+        reindex(loaded());
+        archive.refresh();
+        countArchivable();
+        return true;
+    }
+
+    /**
+     * Takes an image of the rows as just loaded or compacted, when the
+     * snapshot is newer than the one the last image was taken from, and
+     * writes it in the background.
+     */
+    private void saveImage() {
+        if (background == null || logOffset < 0 || (snapshotModified == imageModified && snapshotSize == imageSize)) return;
+        BasicFileAttributes s = attributes(snapshotPath);
+        if (s == null || s.size() != snapshotSize || s.lastModifiedTime().toMillis() != snapshotModified) return;
+        BasicFileAttributes l = attributes(logPath);
+        long check = l == null ? 0 : RentalImage.logCheck(Paths.get(logPath), logOffset);
+        if (check < 0 || (l == null && logOffset > 0)) return;
+        RentalImage image = new RentalImage(snapshotSize, snapshotModified, String.valueOf(s.fileKey()),
+                l == null ? "" : String.valueOf(l.fileKey()), logOffset, check, pendingEvents, new ArrayList<>(rows));
+        imageModified = snapshotModified;
+        imageSize = snapshotSize;
+        background.execute(() -> {
+            try {
+                image.write(Paths.get(imagePath));
+            } catch (IOException e) {
+                // the next load parses the CSV and tries again
+                synchronized (this) {
+                    imageModified = -1;
+                }
+            }
+        });
+    }
+
+    private void replayTail(long modified, long size) {
+        long t0 = tailTimer.start();
+        Events.Parse event = Events.Parse.start(logPath);
+        replayedNow = 0;
+        try {
+            replay(modified, size);
+        } finally {
+            tailTimer.stop(t0);
+            event.end(replayedNow);
+        }
+    }
+
+    private void replay(long modified, long size) {
+        int[] lines = new int[1];
+        long end;
+        try {
+            // a writer may be mid-line; the partial line is left for the next refresh
+            end = FileManager.forEachLine(logPath, logOffset, line -> {
+                applyEvent(line, false);
+                lines[0]++;
+                return true;
+            });
+        } catch (IOException e) {
+            // some events may be applied already; reload everything next time
+            logOffset = -1;
+            markChanged();
+            return;
+        }
+        if (end == logOffset) return;
+        replayed.record(lines[0]);
+        replayedNow = lines[0];
+        logOffset = end;
+        logModified = end == size ? modified : -1;
+    }
+
+    private void applyEvent(String line, boolean idempotent) {
+        if (line.trim().isEmpty()) return;
+        int comma = line.indexOf(',');
+        if (comma < 0) return;
+        String type = line.substring(0, comma).trim();
+        String rest = line.substring(comma + 1);
+        if (RENTED.equalsIgnoreCase(type)) {
+            Rental r = Rental.fromCSV(rest);
+            if (r == null) return;
+            if (idempotent && alreadyApplied(r)) return;
+            applyRented(r);
+        } else if (RETURNED.equalsIgnoreCase(type)) {
+            int next = rest.indexOf(',');
+            applyReturned((next < 0 ? rest : rest.substring(0, next)).trim());
+        }
+        pendingEvents++;
+    }
+
+    // a parked log may already be folded into the snapshot if compaction crashed after writing it
+    private boolean alreadyApplied(Rental r) {
+        Integer pos = positions.get(r.getId());
+        if (pos == null) return false;
+        Rental existing = rows.get(pos);
+        return existing.getCustomerId().equals(r.getCustomerId()) && existing.getVehicleId().equals(r.getVehicleId()) && existing.getStartDate().equals(r.getStartDate());
+    }
+
+    private void applyRented(Rental r) {
+        addRow(r);
+        view = null;
+        indexAdded(r);
+    }
+
+    private Rental applyReturned(String rentalId) {
+        int pos = activePosition(rentalId);
+        if (pos < 0) return null;
+        Rental r = rows.get(pos);
+        Rental updated = new Rental(r.getId(), r.getCustomerId(), r.getVehicleId(), r.getStartDate(), r.getEndDate(), r.getTotalPrice(), RETURNED);
+        rows.set(pos, updated);
+        view = null;
+        indexReplaced(r, updated);
+        if (archivableBefore != null && archivable(updated, archivableBefore)) archivable++;
+        return updated;
+    }
+
+    // the first start date (YYYY-MM-DD) that stays in the snapshot; null when nothing is archived
+    private static String archiveCutoff() {
+        return ARCHIVE_DAYS < 0 ? null : LocalDate.now().minusDays(ARCHIVE_DAYS).toString();
+    }
+
+    // returned, and started before the cutoff; start dates are YYYY-MM-DD, which sort as text
+    private static boolean archivable(Rental r, String before) {
+        if (before == null || !RETURNED.equalsIgnoreCase(r.getStatus()) || RentalArchive.month(r) == null) return false;
+        return r.getStartDate().trim().compareTo(before) < 0;
+    }
+
+    private void countArchivable() {
+        archivableBefore = archiveCutoff();
+        archivable = 0;
+        for (Rental r : rows) {
+            if (archivable(r, archivableBefore)) archivable++;
+        }
+    }
+
+    private void addRow(Rental r) {
+        positions.putIfAbsent(r.getId(), rows.size());
+        rows.add(r);
+    }
+
+    private int activePosition(String rentalId) {
+        Integer pos = positions.get(rentalId);
+        if (pos == null) return -1;
+        if (RENTED.equalsIgnoreCase(rows.get(pos).getStatus())) return pos;
+        // duplicate ids are rare; fall back to the old first-match scan
+        for (int i = pos + 1; i < rows.size(); i++) {
+            Rental r = rows.get(i);
+            if (r.getId().equals(rentalId) && RENTED.equalsIgnoreCase(r.getStatus())) return i;
+        }
+        return -1;
+    }
+
+    private void appendEvent(String line, FileManager.Transaction tx, Runnable apply) {
+        long length = (line + System.lineSeparator()).getBytes(StandardCharsets.UTF_8).length;
+        tx.appendLine(logPath, line, at -> {
+            synchronized (this) {
+                if (at == logOffset) {
+                    logOffset = at + length;
+                    // events of one batch may report in any order
+                    for (Long end = landedAhead.remove(logOffset); end != null; end = landedAhead.remove(logOffset)) logOffset = end;
+                    BasicFileAttributes l = attributes(logPath);
+                    logModified = l != null && l.size() == logOffset ? l.lastModifiedTime().toMillis() : -1;
+                } else if (logOffset >= 0 && at > logOffset) {
+                    landedAhead.put(at, at + length);
+                } else {
+                    // rebuild from disk rather than guess where our event landed
+                    landedAhead.clear();
+                    logOffset = -1;
+                    markChanged();
+                }
+            }
+        }).onCommit(() -> {
+            synchronized (this) {
+                pendingEvents++;
+                // a reload may have brought the event in already; applying is idempotent
+                apply.run();
+            }
+        });
+    }
+
+    private void scheduleCompaction() {
+        ScheduledExecutorService ses = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "rental-log-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        ses.scheduleWithFixedDelay(() -> {
+            try {
+                boolean due;
+                synchronized (this) {
+                    // every day more rentals come of age
+                    if (archivableBefore != null && !archivableBefore.equals(archiveCutoff())) countArchivable();
+                    due = pendingEvents >= COMPACT_THRESHOLD || archivable >= COMPACT_THRESHOLD;
+                }
+                if (due) compact();
+            } catch (IOException ignored) {
+            }
+        }, 30, 30, TimeUnit.SECONDS);
+        background = ses;
+    }
+
+    private static BasicFileAttributes attributes(String path) {
+        try {
+            return Files.readAttributes(Paths.get(path), BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
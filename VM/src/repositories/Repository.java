@@ -0,0 +1,90 @@
+package repositories;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * In-memory view over persisted records plus the indexes derived from them.
+ * Subclasses decide how records are loaded and written; they must call the
+ * reindex/indexAdded/indexReplaced hooks whenever the records change, always
+ * while holding the repository's monitor.
+ */
+public abstract class Repository<T> {
+    private final Map<String, Index<T>> indexes = new LinkedHashMap<>();
+    // while a FileWatcher covers the files, reads skip the disk check until it reports a change
+    private volatile boolean watched = false;
+    private volatile boolean changed = true;
+
+    /** Current records, reloaded first if the backing files changed. The list is read-only. */
+    public abstract List<T> all();
+
+    /** Brings the in-memory state up to date with disk; called with the monitor held. */
+    abstract void refresh();
+
+    /** Records as currently held in memory, without checking the disk. */
+    abstract List<T> loaded();
+
+    /**
+     * Returns the named index, creating it on first use. With lastWins the
+     * latest record for a key is kept, otherwise the first one, matching a
+     * forward scan that stops at the first hit.
+     */
+    public synchronized RecordIndex<T> index(String name, Function<T, String> key, boolean lastWins) {
+        return register(name, () -> new RecordIndex<>(this, key, lastWins));
+    }
+
+    /** Returns the named group index (records grouped by key, then by partition), creating it on first use. */
+    public synchronized GroupIndex<T> groupIndex(String name, Function<T, String> key, Function<T, String> partition) {
+        return register(name, () -> new GroupIndex<>(this, key, partition));
+    }
+
+    void setWatched(boolean on) {
+        changed = true;
+        watched = on;
+    }
+
+    /** Makes the next refresh look at the disk again. */
+    void markChanged() {
+        changed = true;
+    }
+
+    /** Whether refresh has to stat the files; false while watched and nothing changed since the last check. */
+    boolean needsCheck() {
+        if (!watched) return true;
+        if (!changed) return false;
+        changed = false; // cleared before the check, so an event arriving meanwhile is not lost
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    synchronized <I extends Index<T>> I register(String name, Supplier<I> factory) {
+        Index<T> idx = indexes.get(name);
+        if (idx == null) {
+            idx = factory.get();
+            idx.rebuild(loaded());
+            indexes.put(name, idx);
+        }
+        return (I) idx;
+    }
+
+    /** The index registered under name, or null if nobody has asked for it. */
+    @SuppressWarnings("unchecked")
+    synchronized <I extends Index<T>> I registered(String name) {
+        return (I) indexes.get(name);
+    }
+
+    protected void reindex(List<T> records) {
+        for (Index<T> idx : indexes.values()) idx.rebuild(records);
+    }
+
+    protected void indexAdded(T record) {
+        for (Index<T> idx : indexes.values()) idx.add(record);
+    }
+
+    protected void indexReplaced(T old, T updated) {
+        for (Index<T> idx : indexes.values()) idx.replace(old, updated);
+    }
+}
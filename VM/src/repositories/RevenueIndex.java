@@ -0,0 +1,165 @@
+package repositories;
+
+import models.Rental;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * Running revenue totals over the rentals, kept in step like any other
+ * index: every new rental is added, a status change moves the rental between
+ * the booked-only and returned figures, and a reload rebuilds everything
+ * from the snapshot and event log. Amounts are in cents, so totals never
+ * drift, and reading a figure does not touch the rentals.
+ *
+ * A rental stays under the vehicle type it was counted with, even if the
+ * vehicle's type is edited later, so taking it out on a status change
+ * subtracts from the same figure it was added to.
+ */
+public class RevenueIndex extends Index<Rental> {
+    public static final String UNKNOWN_TYPE = "Unknown";
+    static final String NAME = "revenue";
+
+    private final Repository<Rental> repository;
+    private final Function<String, String> vehicleType;
+    private long totalCents;
+    private long returnedCents;
+    private int count;
+    private int returnedCount;
+    private final Map<String, Long> byDay = new HashMap<>();
+    private final Map<String, Long> byMonth = new HashMap<>();
+    private final Map<String, Long> byType = new HashMap<>();
+    private final Map<String, Long> byVehicle = new HashMap<>();
+    // rental id -> the vehicle type its amount is counted under
+    private final Map<String, String> countedType = new HashMap<>();
+
+    private RevenueIndex(Repository<Rental> repository, Function<String, String> vehicleType) {
+        this.repository = repository;
+        this.vehicleType = vehicleType;
+    }
+
+    /**
+     * Returns the revenue index of a rentals repository, creating it on first
+     * use. vehicleType maps a vehicle id to its type (Car/Bike/Truck) and is
+     * read when a rental is first counted, once per vehicle on a rebuild.
+     */
+    public static RevenueIndex on(Repository<Rental> repository, Function<String, String> vehicleType) {
+        return repository.register(NAME, () -> new RevenueIndex(repository, vehicleType));
+    }
+
+    public long totalCents() {
+        synchronized (repository) {
+            repository.refresh();
+            return totalCents;
+        }
+    }
+
+    public long returnedCents() {
+        synchronized (repository) {
+            repository.refresh();
+            return returnedCents;
+        }
+    }
+
+    public int count() {
+        synchronized (repository) {
+            repository.refresh();
+            return count;
+        }
+    }
+
+    public int returnedCount() {
+        synchronized (repository) {
+            repository.refresh();
+            return returnedCount;
+        }
+    }
+
+    /** Cents per rental start day (YYYY-MM-DD), sorted by day. */
+    public TreeMap<String, Long> byDay() { return copy(byDay); }
+
+    /** Cents per rental start month (YYYY-MM), sorted by month. */
+    public TreeMap<String, Long> byMonth() { return copy(byMonth); }
+
+    public TreeMap<String, Long> byVehicleType() { return copy(byType); }
+
+    public TreeMap<String, Long> byVehicle() { return copy(byVehicle); }
+
+    private TreeMap<String, Long> copy(Map<String, Long> m) {
+        synchronized (repository) {
+            repository.refresh();
+            return new TreeMap<>(m);
+        }
+    }
+
+    @Override
+    void rebuild(List<Rental> records) {
+        totalCents = 0;
+        returnedCents = 0;
+        count = 0;
+        returnedCount = 0;
+        byDay.clear();
+        byMonth.clear();
+        byType.clear();
+        byVehicle.clear();
+        countedType.clear();
+        Map<String, String> types = new HashMap<>();
+        for (Rental r : records) {
+            String type = types.computeIfAbsent(String.valueOf(r.getVehicleId()), id -> typeOf(r.getVehicleId()));
+            count(r, type);
+        }
+    }
+
+    @Override
+    void add(Rental record) {
+        count(record, typeOf(record.getVehicleId()));
+    }
+
+    @Override
+    void replace(Rental old, Rental updated) {
+        String type = countedType.remove(old.getId());
+        if (type == null) type = typeOf(old.getVehicleId());
+        apply(old, -1, type);
+        count(updated, type);
+    }
+
+    /** The type a rental is counted under, for the archive to keep it there; called with the repository's monitor held. */
+    String countedType(Rental r) {
+        String type = countedType.get(r.getId());
+        return type == null ? typeOf(r.getVehicleId()) : type;
+    }
+
+    private String typeOf(String vehicleId) {
+        String type = vehicleType.apply(vehicleId);
+        return type == null ? UNKNOWN_TYPE : type;
+    }
+
+    private void count(Rental r, String type) {
+        countedType.put(r.getId(), type);
+        apply(r, 1, type);
+    }
+
+    private void apply(Rental r, int sign, String type) {
+        long cents = sign * Math.round(r.getTotalPrice() * 100);
+        totalCents += cents;
+        count += sign;
+        if ("RETURNED".equalsIgnoreCase(r.getStatus())) {
+            returnedCents += cents;
+            returnedCount += sign;
+        }
+        String day = r.getStartDate() == null ? "" : r.getStartDate();
+        bump(byDay, day, cents);
+        bump(byMonth, day.length() >= 7 ? day.substring(0, 7) : day, cents);
+        bump(byType, type, cents);
+        bump(byVehicle, r.getVehicleId(), cents);
+    }
+
+    private static void bump(Map<String, Long> m, String key, long cents) {
+        long v = m.getOrDefault(key, 0L) + cents;
+        if (v == 0) m.remove(key);
+        else m.put(key, v);
+    }
+}
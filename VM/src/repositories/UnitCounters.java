@@ -0,0 +1,263 @@
+package repositories;
+
+import utils.FileManager;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-vehicle unit counters in a memory-mapped file that every process on
+ * the same files/ folder maps, so all of them update one shared copy in
+ * place (files/vehicles.units). Each vehicle has one fixed-width record:
+ *
+ *   available int | base int | picked up int | id length short | id (up to MAX_ID bytes)
+ *
+ * available is the live unit count; base is the quantity the vehicles file
+ * held when it was last written from the counters, for the caller to spot
+ * edits made to that file by hand; picked up is the epoch day through which
+ * the vehicle's started rentals have taken their units (0 until set). Records are appended, never moved or
+ * removed, so a record's place is fixed once another process has seen it.
+ *
+ * On Java 9 and later available is changed with a compare-and-set on the
+ * mapped memory itself (through a VarHandle, looked up reflectively so the
+ * code still runs on Java 8), which is atomic across threads and processes
+ * and needs no lock. On Java 8 each change holds an OS lock on the record's
+ * bytes instead. The page cache carries the counters over a crashed
+ * process; {@link Counter#force()} puts them on disk.
+ */
+public class UnitCounters {
+    private static final int MAGIC = 0x564D5532; // "VMU2"
+    private static final int HEADER = 64;
+    private static final int COUNT = 8;
+    private static final int RECORD = 64;
+    private static final int ID = 14;
+    private static final int MAX_ID = RECORD - ID;
+    private static final int CHUNK_RECORDS = 1024;
+    private static final Map<String, UnitCounters> OPEN = new HashMap<>();
+    private static final MethodHandle GET;
+    private static final MethodHandle CAS;
+
+    static {
+        MethodHandle get = null;
+        MethodHandle cas = null;
+        try {
+            Method view = MethodHandles.class.getMethod("byteBufferViewVarHandle", Class.class, ByteOrder.class);
+            Object ints = view.invoke(null, int[].class, ByteOrder.BIG_ENDIAN);
+            Class<?> mode = Class.forName("java.lang.invoke.VarHandle$AccessMode");
+            Method toMethodHandle = Class.forName("java.lang.invoke.VarHandle").getMethod("toMethodHandle", mode);
+            get = (MethodHandle) toMethodHandle.invoke(ints, mode.getField("GET_VOLATILE").get(null));
+            cas = (MethodHandle) toMethodHandle.invoke(ints, mode.getField("COMPARE_AND_SET").get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Java 8: counters are changed under a lock on their record
+            get = null;
+            cas = null;
+        }
+        GET = get;
+        CAS = cas;
+    }
+
+    private final String path;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final List<MappedByteBuffer> chunks = new ArrayList<>();
+    private final Map<String, Counter> byId = new ConcurrentHashMap<>();
+    private int scanned;
+
+    /** One vehicle's record. */
+    public final class Counter {
+        private final MappedByteBuffer chunk;
+        private final int at;
+        private final long position;
+
+        private Counter(MappedByteBuffer chunk, int at, long position) {
+            this.chunk = chunk;
+            this.at = at;
+            this.position = position;
+        }
+
+        /** The live unit count. */
+        public int get() {
+            if (GET == null) return chunk.getInt(at);
+            try {
+                return (int) GET.invoke(chunk, at);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        }
+
+        /** Sets the count to update if it is still expect; false, changing nothing, if another thread or process got there first. */
+        public boolean compareAndSet(int expect, int update) throws IOException {
+            if (CAS != null) {
+                try {
+                    return (boolean) CAS.invoke(chunk, at, expect, update);
+                } catch (Throwable t) {
+                    throw rethrow(t);
+                }
+            }
+            synchronized (this) {
+                FileLock lock = channel.lock(position, 4, false);
+                try {
+                    if (chunk.getInt(at) != expect) return false;
+                    chunk.putInt(at, update);
+                    return true;
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+
+        /** Adds delta to the count and returns the new count. */
+        public int add(int delta) throws IOException {
+            while (true) {
+                int q = get();
+                if (compareAndSet(q, q + delta)) return q + delta;
+            }
+        }
+
+        /** The quantity the vehicles file was last written with; read and set only with that file locked. */
+        public int base() {
+            return chunk.getInt(at + 4);
+        }
+
+        public void setBase(int quantity) {
+            chunk.putInt(at + 4, quantity);
+        }
+
+        /** The epoch day the vehicle's started rentals have taken their units through, 0 if never; read and set only with the vehicle locked. */
+        public int pickedUp() {
+            return chunk.getInt(at + 8);
+        }
+
+        public void setPickedUp(int epochDay) {
+            chunk.putInt(at + 8, epochDay);
+        }
+
+        /** Writes the record's part of the file to disk. */
+        public void force() {
+            chunk.force();
+        }
+    }
+
+    private UnitCounters(String path) throws IOException {
+        this.path = path;
+        Path p = Paths.get(path);
+        Path parent = p.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        this.channel = FileChannel.open(p, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.header = FileManager.withLock(path, () -> {
+            MappedByteBuffer h = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER);
+            if (h.getInt(0) != MAGIC) {
+                // a new file: no records yet
+                h.putInt(COUNT, 0);
+                h.putInt(0, MAGIC);
+                h.force();
+            }
+            return h;
+        });
+    }
+
+    /** Returns the shared counters kept in path, creating the file on first use. */
+    public static synchronized UnitCounters open(String path) throws IOException {
+        String key = Paths.get(path).toAbsolutePath().normalize().toString();
+        UnitCounters c = OPEN.get(key);
+        if (c == null) {
+            c = new UnitCounters(path);
+            OPEN.put(key, c);
+        }
+        return c;
+    }
+
+    /** The id's counter, or null when no process has created one yet. */
+    public Counter find(String id) throws IOException {
+        Counter c = byId.get(id);
+        if (c != null || header.getInt(COUNT) <= scanned()) return c;
+        FileManager.withLock(path, () -> {
+            scan();
+            return null;
+        });
+        return byId.get(id);
+    }
+
+    /** The id's counter, created holding quantity units when it has none yet. */
+    public Counter create(String id, int quantity) throws IOException {
+        Counter found = find(id);
+        if (found != null) return found;
+        byte[] name = id.getBytes(StandardCharsets.UTF_8);
+        if (name.length > MAX_ID) throw new IOException("vehicle id longer than " + MAX_ID + " bytes: " + id);
+        return FileManager.withLock(path, () -> {
+            scan();
+            Counter c = byId.get(id);
+            if (c != null) return c;
+            int n = header.getInt(COUNT);
+            c = counter(n);
+            c.chunk.putInt(c.at, quantity);
+            c.chunk.putInt(c.at + 4, quantity);
+            c.chunk.putInt(c.at + 8, 0);
+            c.chunk.putShort(c.at + ID - 2, (short) name.length);
+            for (int i = 0; i < name.length; i++) c.chunk.put(c.at + ID + i, name[i]);
+            c.chunk.force();
+            // counted only once the record is complete
+            header.putInt(COUNT, n + 1);
+            header.force();
+            synchronized (this) {
+                scanned = n + 1;
+            }
+            byId.put(id, c);
+            return c;
+        });
+    }
+
+    /** Writes every counter to disk. */
+    public synchronized void force() {
+        for (MappedByteBuffer chunk : chunks) chunk.force();
+    }
+
+    private synchronized int scanned() {
+        return scanned;
+    }
+
+    // reads the records other processes added since the last scan; called with the file locked
+    private synchronized void scan() throws IOException {
+        int n = header.getInt(COUNT);
+        for (; scanned < n; scanned++) {
+            Counter c = counter(scanned);
+            int length = c.chunk.getShort(c.at + ID - 2);
+            byte[] name = new byte[length];
+            for (int i = 0; i < length; i++) name[i] = c.chunk.get(c.at + ID + i);
+            byId.putIfAbsent(new String(name, StandardCharsets.UTF_8), c);
+        }
+    }
+
+    // the n-th record, mapping its chunk (and growing the file) if needed
+    private synchronized Counter counter(int n) throws IOException {
+        int chunk = n / CHUNK_RECORDS;
+        while (chunks.size() <= chunk) {
+            long from = HEADER + (long) chunks.size() * CHUNK_RECORDS * RECORD;
+            chunks.add(channel.map(FileChannel.MapMode.READ_WRITE, from, (long) CHUNK_RECORDS * RECORD));
+        }
+        int at = (n % CHUNK_RECORDS) * RECORD;
+        return new Counter(chunks.get(chunk), at, HEADER + (long) n * RECORD);
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) return (RuntimeException) t;
+        if (t instanceof Error) throw (Error) t;
+        return new IllegalStateException(t);
+    }
+}
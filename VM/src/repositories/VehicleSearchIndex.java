@@ -0,0 +1,225 @@
+package repositories;
+
+import models.Vehicle;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Search structures over the fleet. Vehicles are numbered in ratePerDay
+ * order, so a rate range is one run of positions and any match set read in
+ * position order is already sorted by price. On top of that:
+ *
+ *   type          one bitmap per type
+ *   year          one bitmap per year
+ *   make, model   lower-cased values sorted with their positions, so a
+ *                 prefix is one binary-searched run
+ *
+ * A query ANDs the bitmaps of the filters it uses. The structures are built
+ * on the first query after the fleet changed; when only quantities changed
+ * (every rental rewrites vehicles.txt) the records are swapped in place
+ * without re-sorting.
+ */
+public class VehicleSearchIndex extends Index<Vehicle> {
+    private final Repository<Vehicle> repository;
+    private List<Vehicle> pending = Collections.emptyList();
+    private boolean dirty = true;
+
+    private List<Vehicle> source = Collections.emptyList();
+    private int[] positionOf = new int[0]; // source index -> price position
+    private Vehicle[] byPrice = new Vehicle[0];
+    private double[] rates = new double[0];
+    private final Map<String, BitSet> byType = new HashMap<>();
+    private final TreeMap<Integer, BitSet> byYear = new TreeMap<>();
+    private String[] makes = new String[0];
+    private int[] makePositions = new int[0];
+    private String[] models = new String[0];
+    private int[] modelPositions = new int[0];
+
+    private VehicleSearchIndex(Repository<Vehicle> repository) {
+        this.repository = repository;
+    }
+
+    /** Returns the search index of a vehicles repository, creating it on first use. */
+    public static VehicleSearchIndex on(Repository<Vehicle> repository) {
+        return repository.register("search", () -> new VehicleSearchIndex(repository));
+    }
+
+    /**
+     * Vehicles matching every given filter, cheapest first. Null (or NaN for
+     * rates) leaves a filter out; prefixes ignore case; ranges are inclusive.
+     */
+    public List<Vehicle> find(String type, String makePrefix, String modelPrefix,
+                              Integer minYear, Integer maxYear, double minRate, double maxRate) {
+        synchronized (repository) {
+            repository.refresh();
+            if (dirty) build();
+            int n = byPrice.length;
+            BitSet hits = new BitSet(n);
+            // the rate range narrows the starting run; everything else is ANDed on top
+            int from = Double.isNaN(minRate) ? 0 : firstAtLeast(minRate);
+            int to = Double.isNaN(maxRate) ? n : firstAbove(maxRate);
+            if (from < to) hits.set(from, to);
+            if (type != null) {
+                BitSet t = byType.get(key(type));
+                if (t == null) return new ArrayList<>();
+                hits.and(t);
+            }
+            if (minYear != null || maxYear != null) {
+                BitSet years = new BitSet(n);
+                int lo = minYear == null ? Integer.MIN_VALUE : minYear;
+                int hi = maxYear == null ? Integer.MAX_VALUE : maxYear;
+                if (lo <= hi) for (BitSet b : byYear.subMap(lo, true, hi, true).values()) years.or(b);
+                hits.and(years);
+            }
+            if (makePrefix != null) hits.and(prefix(makes, makePositions, key(makePrefix), n));
+            if (modelPrefix != null) hits.and(prefix(models, modelPositions, key(modelPrefix), n));
+            List<Vehicle> out = new ArrayList<>(hits.cardinality());
+            for (int i = hits.nextSetBit(0); i >= 0; i = hits.nextSetBit(i + 1)) out.add(byPrice[i]);
+            return out;
+        }
+    }
+
+    @Override
+    void rebuild(List<Vehicle> records) {
+        pending = records;
+        dirty = true;
+    }
+
+    @Override
+    void add(Vehicle record) {
+        List<Vehicle> next = new ArrayList<>(pending.size() + 1);
+        next.addAll(pending);
+        next.add(record);
+        pending = next;
+        dirty = true;
+    }
+
+    @Override
+    void replace(Vehicle old, Vehicle updated) {
+        List<Vehicle> next = new ArrayList<>(pending);
+        for (int i = 0; i < next.size(); i++) {
+            if (next.get(i) == old) {
+                next.set(i, updated);
+                break;
+            }
+        }
+        pending = next;
+        dirty = true;
+    }
+
+    private void build() {
+        dirty = false;
+        List<Vehicle> records = pending;
+        if (sameKeys(source, records)) {
+            // quantities or availability changed: same positions, new records
+            for (int i = 0; i < records.size(); i++) byPrice[positionOf[i]] = records.get(i);
+            source = records;
+            return;
+        }
+        int n = records.size();
+        List<Integer> order = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) order.add(i);
+        // stable, so equal rates keep file order
+        order.sort((a, b) -> Double.compare(records.get(a).getRatePerDay(), records.get(b).getRatePerDay()));
+        byPrice = new Vehicle[n];
+        rates = new double[n];
+        positionOf = new int[n];
+        byType.clear();
+        byYear.clear();
+        for (int p = 0; p < n; p++) {
+            int i = order.get(p);
+            Vehicle v = records.get(i);
+            byPrice[p] = v;
+            rates[p] = v.getRatePerDay();
+            positionOf[i] = p;
+            byType.computeIfAbsent(key(v.getType()), k -> new BitSet(n)).set(p);
+            byYear.computeIfAbsent(v.getYear(), k -> new BitSet(n)).set(p);
+        }
+        List<Integer> byMake = new ArrayList<>(n);
+        for (int p = 0; p < n; p++) byMake.add(p);
+        List<Integer> byModel = new ArrayList<>(byMake);
+        byMake.sort((a, b) -> key(byPrice[a].getMake()).compareTo(key(byPrice[b].getMake())));
+        byModel.sort((a, b) -> key(byPrice[a].getModel()).compareTo(key(byPrice[b].getModel())));
+        makes = new String[n];
+        makePositions = new int[n];
+        models = new String[n];
+        modelPositions = new int[n];
+        for (int k = 0; k < n; k++) {
+            makePositions[k] = byMake.get(k);
+            makes[k] = key(byPrice[makePositions[k]].getMake());
+            modelPositions[k] = byModel.get(k);
+            models[k] = key(byPrice[modelPositions[k]].getModel());
+        }
+        source = records;
+    }
+
+    private static boolean sameKeys(List<Vehicle> a, List<Vehicle> b) {
+        if (a.size() != b.size() || a.isEmpty()) return false;
+        for (int i = 0; i < a.size(); i++) {
+            Vehicle x = a.get(i);
+            Vehicle y = b.get(i);
+            if (x == y) continue;
+            if (Double.compare(x.getRatePerDay(), y.getRatePerDay()) != 0 || x.getYear() != y.getYear()
+                    || !same(x.getType(), y.getType()) || !same(x.getMake(), y.getMake()) || !same(x.getModel(), y.getModel())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean same(String x, String y) {
+        if (x == null || y == null) return x == y;
+        return x.trim().equalsIgnoreCase(y.trim());
+    }
+
+    private static BitSet prefix(String[] sorted, int[] positions, String p, int n) {
+        BitSet out = new BitSet(n);
+        int lo = lowerBound(sorted, p);
+        for (int k = lo; k < sorted.length && sorted[k].startsWith(p); k++) out.set(positions[k]);
+        return out;
+    }
+
+    private static int lowerBound(String[] sorted, String s) {
+        int lo = 0;
+        int hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid].compareTo(s) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private int firstAtLeast(double rate) {
+        int lo = 0;
+        int hi = rates.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (rates[mid] < rate) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private int firstAbove(double rate) {
+        int lo = 0;
+        int hi = rates.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (rates[mid] <= rate) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private static String key(String s) {
+        return s == null ? "" : s.trim().toLowerCase(Locale.ROOT);
+    }
+}
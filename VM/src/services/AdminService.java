@@ -1,7 +1,10 @@
 package services;
 
 import models.Admin;
+import repositories.FileRepository;
+import repositories.IdAllocator;
 import utils.FileManager;
+import utils.Metrics;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -9,7 +12,11 @@ import java.util.List;
 import java.util.Optional;
 
 public class AdminService {
+    private static final Metrics.Timer LOAD_ALL = Metrics.timer("admins.loadAll");
+    private static final Metrics.Timer AUTHENTICATE = Metrics.timer("admins.authenticate");
     private final String adminsFile = "files/admins.txt";
+    private final FileRepository<Admin> repository = FileRepository.open(adminsFile, Admin::fromCSV, Admin::toCSV);
+    private final IdAllocator ids = IdAllocator.open("files/sequences.txt");
 
     public AdminService() {
         try {
@@ -19,18 +26,27 @@ public class AdminService {
     }
 
     public List<Admin> loadAll() {
-        List<String> lines = FileManager.safeRead(adminsFile);
-        List<Admin> out = new ArrayList<>();
-        for (String l : lines) {
-            if (l.trim().isEmpty()) continue;
-            Admin a = Admin.fromCSV(l);
-            if (a != null) out.add(a);
+        long t0 = LOAD_ALL.start();
+        try {
+            List<Admin> out = new ArrayList<>();
+            for (Admin a : repository.all()) out.add(copyOf(a));
+            return out;
+        } finally {
+            LOAD_ALL.stop(t0);
         }
-        return out;
     }
 
     public Admin authenticate(String username, String password) {
-        List<Admin> all = loadAll();
+        long t0 = AUTHENTICATE.start();
+        try {
+            return checkPassword(username, password);
+        } finally {
+            AUTHENTICATE.stop(t0);
+        }
+    }
+
+    private Admin checkPassword(String username, String password) {
+        List<Admin> all = repository.all();
         Admin found = null;
         for (Admin a : all) {
             if (a.getUsername().equalsIgnoreCase(username)) found = a;
@@ -45,38 +61,42 @@ public class AdminService {
             ns = java.text.Normalizer.normalize(ns, java.text.Normalizer.Form.NFKC);
             ng = java.text.Normalizer.normalize(ng, java.text.Normalizer.Form.NFKC);
         } catch (Exception ignored) {}
-        if (ns.equals(ng)) return found;
+        if (ns.equals(ng)) return copyOf(found);
         return null;
     }
 
     private void ensureDefaultAdmin() throws IOException {
-        List<Admin> all = loadAll();
+        List<Admin> all = repository.all();
         if (all.isEmpty()) {
             Admin d = new Admin("A001", "admin", "admin123");
-            FileManager.appendLine(adminsFile, d.toCSV());
+            repository.append(d);
         }
     }
 
     public void addAdmin(String username, String password) throws IOException {
-        List<Admin> all = loadAll();
+        List<Admin> all = repository.all();
         Optional<Admin> existing = all.stream().filter(a -> a.getUsername().equals(username)).findFirst();
         if (existing.isPresent()) throw new IllegalArgumentException("username exists");
-        String id = String.format("A%03d", all.size() + 1);
+        String id = ids.next("admin", "A", () -> IdAllocator.seedFrom(repository.all(), Admin::getId, "A"));
         Admin a = new Admin(id, username, password);
-        FileManager.appendLine(adminsFile, a.toCSV());
+        repository.append(a);
     }
 
     public void updateAdmin(Admin updated) throws IOException {
-        List<Admin> list = loadAll();
-        List<Admin> out = new ArrayList<>();
-        boolean replaced = false;
-        for (Admin a : list) {
-            if (a.getId().equalsIgnoreCase(updated.getId())) { out.add(updated); replaced = true; }
-            else out.add(a);
-        }
-        if (!replaced) out.add(updated);
-        List<String> lines = new ArrayList<>();
-        for (Admin a : out) lines.add(a.toCSV());
-        FileManager.overwrite(adminsFile, lines);
+        FileManager.withLock(adminsFile, () -> {
+            List<Admin> out = new ArrayList<>();
+            boolean replaced = false;
+            for (Admin a : repository.reread()) {
+                if (a.getId().equalsIgnoreCase(updated.getId())) { out.add(copyOf(updated)); replaced = true; }
+                else out.add(copyOf(a));
+            }
+            if (!replaced) out.add(copyOf(updated));
+            repository.replaceAll(out);
+            return null;
+        });
+    }
+
+    private static Admin copyOf(Admin a) {
+        return new Admin(a.getId(), a.getUsername(), a.getPassword());
     }
 }
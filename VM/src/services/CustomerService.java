@@ -1,58 +1,95 @@
 package services;
 
 import models.Customer;
+import repositories.FileRepository;
+import repositories.IdAllocator;
+import repositories.RecordIndex;
 import utils.FileManager;
+import utils.Metrics;
+import utils.StripedLock;
 
 import java.io.IOException;
 import java.text.Normalizer;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Optional;
+import java.util.Locale;
+import java.util.Map;
 
 public class CustomerService {
+    private static final Metrics.Timer LOAD_ALL = Metrics.timer("customers.loadAll");
+    private static final Metrics.Timer AUTHENTICATE = Metrics.timer("customers.authenticate");
     private final String customersFile = "files/customers.txt";
-
+    private final FileRepository<Customer> repository = FileRepository.open(customersFile, Customer::fromCSV, Customer::toCSV);
+    // ids match case-insensitively and the first record wins; emails keep the latest record
+    private final RecordIndex<Customer> byId = repository.index("id", c -> key(c.getId()), false);
+    private final RecordIndex<Customer> byEmail = repository.index("email", c -> key(c.getEmail()), true);
+    private final IdAllocator ids = IdAllocator.open("files/sequences.txt");
+    private final StripedLock locks = StripedLock.open("files/.locks");
+
+    // callers edit customers through the setters, so never hand out the cached instances
     public List<Customer> loadAll() {
-        List<String> lines = FileManager.safeRead(customersFile);
-        
-        List<Customer> out = new ArrayList<>();
-        for (String l : lines) {
-            if (l.trim().isEmpty()) continue;
-            Customer c = Customer.fromCSV(l);
-            if (c != null) out.add(c);
+        long t0 = LOAD_ALL.start();
+        try {
+            List<Customer> out = new ArrayList<>();
+            for (Customer c : repository.all()) out.add(copyOf(c));
+            return out;
+        } finally {
+            LOAD_ALL.stop(t0);
         }
-        return out;
     }
 
     public void saveAll(List<Customer> list) throws IOException {
-        List<String> lines = new ArrayList<>();
-        for (Customer c : list) lines.add(c.toCSV());
-        FileManager.overwrite(customersFile, lines);
+        locked(() -> {
+            repository.replaceAll(list);
+            return null;
+        });
+    }
+
+    /** Lock key for a customer in the shared stripes. */
+    public static String lockKey(String customerId) {
+        return "customer:" + key(customerId);
+    }
+
+    /** Runs action with customers.txt locked against other processes. */
+    private <R> R locked(FileManager.Locked<R> action) throws IOException {
+        return FileManager.withLock(customersFile, action);
     }
 
     public Customer register(String name, String email, String phone, String password) throws IOException {
-        List<Customer> existing = loadAll();
-        Optional<Customer> found = existing.stream().filter(c -> c.getEmail().equalsIgnoreCase(email)).findFirst();
-        if (found.isPresent()) {
-            throw new IllegalArgumentException("Email already registered: " + email);
+        // two terminals registering the same email serialize here
+        StripedLock.Held held = locks.lock("email:" + key(email));
+        try {
+            repository.reread();
+            if (byEmail.contains(key(email))) {
+                throw new IllegalArgumentException("Email already registered: " + email);
+            }
+            String id = generateId();
+            Customer c = new Customer(id, name, email, phone, password);
+            repository.append(copyOf(c));
+            return c;
+        } finally {
+            held.close();
         }
-        String id = generateId(existing.size());
-        Customer c = new Customer(id, name, email, phone, password);
-        FileManager.appendLine(customersFile, c.toCSV());
-        return c;
     }
 
-    private String generateId(int count) {
-        return String.format("C%03d", count + 1);
+    private String generateId() throws IOException {
+        return ids.next("customer", "C", () -> IdAllocator.seedFrom(repository.all(), Customer::getId, "C"));
     }
 
     public Customer authenticate(String email, String password) {
-        List<Customer> existing = loadAll();
-        // prefer the most recent entry for an email in case of duplicates
-        Customer found = null;
-        for (Customer c : existing) {
-            if (c.getEmail().equalsIgnoreCase(email)) found = c;
+        long t0 = AUTHENTICATE.start();
+        try {
+            return checkPassword(email, password);
+        } finally {
+            AUTHENTICATE.stop(t0);
         }
+    }
+
+    private Customer checkPassword(String email, String password) {
+        // prefer the most recent entry for an email in case of duplicates
+        Customer found = byEmail.get(key(email));
         if (found == null) return null;
 
         String stored = found.getPassword() == null ? "" : found.getPassword();
@@ -69,46 +106,55 @@ public class CustomerService {
         // exact comparison after normalization
         boolean ok = ns.equals(ng);
 
-        return ok ? found : null;
+        return ok ? copyOf(found) : null;
     }
 
     public Customer findById(String id) {
-        if (id == null) return null;
-        List<Customer> existing = loadAll();
-        for (Customer c : existing) {
-            if (id.equalsIgnoreCase(c.getId())) return c;
-        }
-        return null;
+        Customer c = byId.get(key(id));
+        return c == null ? null : copyOf(c);
     }
 
-    public void updateCustomer(Customer updated) throws IOException {
-        List<Customer> list = loadAll();
-        List<Customer> out = new ArrayList<>();
-        boolean replaced = false;
-        for (Customer c : list) {
-            if (c.getId().equalsIgnoreCase(updated.getId())) { out.add(updated); replaced = true; }
-            else out.add(c);
-        }
-        if (!replaced) out.add(updated);
-        saveAll(out);
+    /** Batch form of findById, keyed by the ids as given. */
+    public Map<String, Customer> findByIds(Collection<String> ids) {
+        Map<String, String> keys = new HashMap<>();
+        for (String id : ids) if (id != null) keys.put(key(id), id);
+        Map<String, Customer> found = byId.getAll(keys.keySet());
+        Map<String, Customer> out = new HashMap<>();
+        for (Map.Entry<String, Customer> e : found.entrySet()) out.put(keys.get(e.getKey()), copyOf(e.getValue()));
+        return out;
     }
 
-    public void incrementCompletedRentals(String customerId) throws IOException {
-        List<Customer> list = loadAll();
-        boolean changed = false;
-        for (Customer c : list) {
-            if (c.getId().equalsIgnoreCase(customerId)) {
-                int v = c.getCompletedRentals() + 1;
-                c.setCompletedRentals(v);
-                // assign badge
-                if (v >= 25) c.setBadge("SILVER");
-                else if (v >= 10) c.setBadge("BRONZE");
-                else c.setBadge("");
-                changed = true;
-                break;
+    public void updateCustomer(Customer updated) throws IOException {
+        locked(() -> {
+            List<Customer> out = new ArrayList<>();
+            boolean replaced = false;
+            for (Customer c : repository.reread()) {
+                if (c.getId().equalsIgnoreCase(updated.getId())) { out.add(updated); replaced = true; }
+                else out.add(copyOf(c));
             }
-        }
-        if (changed) saveAll(list);
+            if (!replaced) out.add(updated);
+            repository.replaceAll(out);
+            return null;
+        });
+    }
+
+    /**
+     * The badge earned by a number of completed rentals. Completed rentals
+     * are counted from the rental history (see RentalService#withCompletedRentals),
+     * so a return never rewrites customers.txt.
+     */
+    public static String badgeFor(int completedRentals) {
+        if (completedRentals >= 25) return "SILVER";
+        if (completedRentals >= 10) return "BRONZE";
+        return "";
+    }
+
+    private static String key(String s) {
+        return s == null ? null : s.toLowerCase(Locale.ROOT);
+    }
+
+    private static Customer copyOf(Customer c) {
+        return new Customer(c.getId(), c.getName(), c.getEmail(), c.getPhone(), c.getPassword(), c.getCompletedRentals(), c.getBadge());
     }
 
     public int allowedConcurrentRentals(Customer c) {
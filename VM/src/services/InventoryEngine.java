@@ -0,0 +1,316 @@
+package services;
+
+import models.Vehicle;
+import repositories.FileRepository;
+import repositories.RecordIndex;
+import repositories.UnitCounters;
+import utils.Events;
+import utils.FileManager;
+import utils.Metrics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Live unit counts, one shared counter per vehicle id in
+ * files/vehicles.units (see {@link UnitCounters}), which every process
+ * maps and changes in place. Taking a unit is a compare-and-set that never
+ * goes below zero, on the mapped counter itself, so threads and processes
+ * renting different vehicles share no lock at all and those renting the
+ * same vehicle only retry.
+ *
+ * vehicles.txt is not written on that path. A background task folds the
+ * counters into its quantities every FLUSH_INTERVAL_MS (and on shutdown),
+ * as one rewrite with the file locked, and picks up quantities someone
+ * edited in the file by hand since: each counter keeps the quantity the
+ * file was last written with as its base.
+ *
+ * Unless file durability is async (see {@link FileManager#durability()})
+ * the counter's page is forced to disk before a take or give-back returns.
+ */
+public class InventoryEngine {
+    private static final long FLUSH_INTERVAL_MS = 200;
+    private static final Metrics.Timer FLUSH = Metrics.timer("inventory.flush");
+    // compare-and-set attempts lost before each take settled
+    private static final Metrics.Histogram RETRIES = Metrics.sizes("inventory.cas retries");
+    private static final boolean DURABLE = !FileManager.ASYNC.equals(FileManager.durability());
+    private static final Map<FileRepository<Vehicle>, InventoryEngine> ENGINES = new ConcurrentHashMap<>();
+
+    private final FileRepository<Vehicle> repository;
+    private final RecordIndex<Vehicle> byId;
+    private final UnitCounters counters;
+    // set by every change made here; the file's size and time as we last wrote or read it catch the rest
+    private volatile boolean dirty = true;
+    private volatile long flushedModified = -1;
+    private volatile long flushedSize = -1;
+
+    private InventoryEngine(FileRepository<Vehicle> repository) {
+        this.repository = repository;
+        this.byId = repository.index("id", Vehicle::getId, false);
+        String path = repository.getPath();
+        try {
+            this.counters = UnitCounters.open((path.endsWith(".txt") ? path.substring(0, path.length() - 4) : path) + ".units");
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot open the unit counters of " + path, e);
+        }
+    }
+
+    /** Returns the shared engine for a vehicles repository, starting its flusher on first use. */
+    public static InventoryEngine forRepository(FileRepository<Vehicle> repository) {
+        return ENGINES.computeIfAbsent(repository, r -> {
+            InventoryEngine e = new InventoryEngine(r);
+            e.start();
+            return e;
+        });
+    }
+
+    /** Lock key for a vehicle in the shared stripes. */
+    public static String lockKey(String vehicleId) {
+        return "vehicle:" + vehicleId;
+    }
+
+    /**
+     * Takes one unit if any is left, counting units other processes took or
+     * returned. Never lets the count go below zero.
+     */
+    public boolean tryReserve(String vehicleId) throws IOException {
+        UnitCounters.Counter c = counter(vehicleId);
+        if (c == null) return false;
+        for (int retries = 0; ; retries++) {
+            int q = c.get();
+            if (q <= 0) return false;
+            if (c.compareAndSet(q, q - 1)) {
+                RETRIES.record(retries);
+                if (retries > 0) Events.InventoryConflict.emit(vehicleId, retries);
+                changed(c);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Takes one unit for a rental starting now that the caller has already
+     * checked against the booking calendar. The count never goes below
+     * zero: returns false when no unit is left or the vehicle is unknown.
+     */
+    public boolean book(String vehicleId) throws IOException {
+        return tryReserve(vehicleId);
+    }
+
+    public void release(String vehicleId) throws IOException {
+        UnitCounters.Counter c = counter(vehicleId);
+        if (c == null) return;
+        c.add(1);
+        changed(c);
+    }
+
+    /**
+     * Epoch day through which the vehicle's started rentals have taken their
+     * units, 0 if that was never done, or -1 when the vehicle has no counter.
+     */
+    public int pickedUpThrough(String vehicleId) throws IOException {
+        UnitCounters.Counter c = vehicleId == null ? null : counters.find(vehicleId);
+        return c == null ? -1 : c.pickedUp();
+    }
+
+    /**
+     * Takes units for rentals that have started, as many as are left if
+     * fewer, and records them taken through epochDay. The caller holds the
+     * vehicle's stripe.
+     */
+    public void pickUp(String vehicleId, int units, int epochDay) throws IOException {
+        UnitCounters.Counter c = counter(vehicleId);
+        if (c == null) return;
+        boolean took = false;
+        while (units > 0) {
+            int q = c.get();
+            int take = Math.min(q, units);
+            if (take <= 0) break;
+            if (c.compareAndSet(q, q - take)) {
+                took = true;
+                break;
+            }
+        }
+        c.setPickedUp(epochDay);
+        // the day alone may be lost: done again, it takes nothing more
+        if (took) changed(c);
+    }
+
+    private void changed(UnitCounters.Counter c) {
+        dirty = true;
+        if (DURABLE) c.force();
+    }
+
+    /** Live unit count, or -1 when the vehicle is unknown. */
+    public int available(String vehicleId) throws IOException {
+        UnitCounters.Counter c = counter(vehicleId);
+        return c == null ? -1 : c.get();
+    }
+
+    /** Returns the vehicle as stored, or a copy carrying the live quantity when it differs. */
+    public Vehicle withLiveQuantity(Vehicle v) {
+        if (v == null) return null;
+        UnitCounters.Counter c;
+        try {
+            c = counters.find(v.getId());
+        } catch (IOException e) {
+            return v;
+        }
+        if (c == null) return v;
+        int q = c.get();
+        if (q == v.getQuantity()) return v;
+        Vehicle copy = new Vehicle(v.getId(), v.getType(), v.getMake(), v.getModel(), v.getYear(), v.getRatePerDay(), v.isAvailable(), v.getQuantity());
+        copy.setQuantity(q);
+        return copy;
+    }
+
+    /**
+     * Writes the given list as the new vehicles file, taking each quantity in
+     * it as the new count. Units taken or returned since the last flush stay
+     * counted on top of it.
+     */
+    public void overwrite(List<Vehicle> list) throws IOException {
+        FileManager.withLock(repository.getPath(), () -> {
+            flushLocked();
+            repository.replaceAll(list);
+            for (Vehicle v : list) rebase(v);
+            seen();
+            return null;
+        });
+    }
+
+    /** Replaces one vehicle record; its quantity becomes the new count, as with {@link #overwrite(List)}. */
+    public void update(Vehicle updated) throws IOException {
+        FileManager.withLock(repository.getPath(), () -> {
+            flushLocked();
+            List<Vehicle> list = new ArrayList<>(repository.all());
+            boolean replaced = false;
+            for (int i = 0; i < list.size(); i++) {
+                if (list.get(i).getId().equals(updated.getId())) { list.set(i, updated); replaced = true; }
+            }
+            if (!replaced) list.add(updated);
+            repository.replaceAll(list);
+            rebase(updated);
+            seen();
+            return null;
+        });
+    }
+
+    // the file now says v's quantity: move the counter by the change, keeping units taken since the last flush
+    private void rebase(Vehicle v) throws IOException {
+        UnitCounters.Counter c = counters.find(v.getId());
+        if (c == null) return;
+        c.add(v.getQuantity() - c.base());
+        c.setBase(v.getQuantity());
+        c.force();
+    }
+
+    /** Writes the live counts to vehicles.txt and folds in quantities changed there by hand. */
+    public void flush() throws IOException {
+        long t0 = FLUSH.start();
+        try {
+            FileManager.withLock(repository.getPath(), () -> {
+                flushLocked();
+                return null;
+            });
+        } finally {
+            FLUSH.stop(t0);
+        }
+    }
+
+    private void flushLocked() throws IOException {
+        dirty = false;
+        List<Vehicle> list = new ArrayList<>(repository.reread());
+        List<UnitCounters.Counter> touched = new ArrayList<>();
+        List<Integer> written = new ArrayList<>();
+        boolean changed = false;
+        for (int i = 0; i < list.size(); i++) {
+            Vehicle v = list.get(i);
+            UnitCounters.Counter c = counters.find(v.getId());
+            if (c == null) continue;
+            if (c.base() != v.getQuantity()) {
+                // edited by hand since the last flush
+                c.add(v.getQuantity() - c.base());
+                c.setBase(v.getQuantity());
+            }
+            int q = c.get();
+            touched.add(c);
+            written.add(q);
+            if (q != v.getQuantity()) {
+                Vehicle copy = new Vehicle(v.getId(), v.getType(), v.getMake(), v.getModel(), v.getYear(), v.getRatePerDay(), v.isAvailable(), v.getQuantity());
+                copy.setQuantity(q);
+                list.set(i, copy);
+                changed = true;
+            }
+        }
+        try {
+            if (changed) repository.replaceAll(list);
+        } catch (IOException e) {
+            dirty = true;
+            throw e;
+        }
+        for (int i = 0; i < touched.size(); i++) touched.get(i).setBase(written.get(i));
+        counters.force();
+        seen();
+    }
+
+    // remembers the file as it is now, so the flusher only comes back when something changed
+    private void seen() {
+        try {
+            BasicFileAttributes a = Files.readAttributes(Paths.get(repository.getPath()), BasicFileAttributes.class);
+            flushedModified = a.lastModifiedTime().toMillis();
+            flushedSize = a.size();
+        } catch (IOException e) {
+            flushedModified = -1;
+        }
+    }
+
+    private boolean fileChanged() {
+        try {
+            BasicFileAttributes a = Files.readAttributes(Paths.get(repository.getPath()), BasicFileAttributes.class);
+            return a.lastModifiedTime().toMillis() != flushedModified || a.size() != flushedSize;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private UnitCounters.Counter counter(String vehicleId) throws IOException {
+        if (vehicleId == null) return null;
+        UnitCounters.Counter c = counters.find(vehicleId);
+        if (c != null) return c;
+        Vehicle v = byId.get(vehicleId);
+        if (v == null) return null;
+        return counters.create(vehicleId, v.getQuantity());
+    }
+
+    private void start() {
+        ScheduledExecutorService ses = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "inventory-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        ses.scheduleWithFixedDelay(() -> {
+            try {
+                if (dirty || fileChanged()) flush();
+            } catch (IOException ignored) {
+                // still dirty; the next tick retries
+            }
+        }, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                if (dirty) flush();
+            } catch (IOException ignored) {
+            }
+        }, "inventory-drain"));
+    }
+}
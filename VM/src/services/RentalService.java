@@ -1,62 +1,522 @@
 package services;
 
+import exceptions.RentalConflictException;
+import models.Customer;
 import models.Rental;
+import models.Vehicle;
+import repositories.BookingCalendar;
+import repositories.GroupIndex;
+import repositories.IdAllocator;
+import repositories.RentalArchive;
+import repositories.RentalLog;
+import repositories.RevenueIndex;
+import utils.Events;
 import utils.FileManager;
+import utils.Metrics;
+import utils.StripedLock;
 
 import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 public class RentalService {
+    private static final Metrics.Timer LOAD_ALL = Metrics.timer("rentals.loadAll");
+    private static final Metrics.Timer ADD = Metrics.timer("rentals.addRental");
+    private static final Metrics.Timer RETURN = Metrics.timer("rentals.returnRental");
     private final String rentalsFile = "files/rentals.txt";
+    private final RentalLog repository = RentalLog.open(rentalsFile);
+    // rentals per customer, partitioned by upper-cased status
+    private final GroupIndex<Rental> byCustomer = repository.groupIndex("customer", Rental::getCustomerId, r -> status(r.getStatus()));
+    private final BookingCalendar calendar = BookingCalendar.on(repository);
+    private final IdAllocator ids = IdAllocator.open("files/sequences.txt");
+    private final StripedLock locks = StripedLock.open("files/.locks");
+    private final VehicleService vehicleService = new VehicleService();
+    private final CustomerService customerService = new CustomerService();
+    private final RevenueIndex revenue = RevenueIndex.on(repository, id -> {
+        models.Vehicle v = vehicleService.findById(id);
+        return v == null ? null : v.getType();
+    });
 
+    public RentalService() {
+        // every fold keeps the rental sequence past the ids it moved, so nextRentalId never has to read the archive
+        repository.onFold(highest -> {
+            try {
+                ids.raise("rental", highest + 1);
+            } catch (IOException ignored) {
+                // seeded from the snapshot and the archive footers if the sequence is missing
+            }
+        });
+    }
+
+    /** Every rental, archived months first; this reads the whole archive. */
     public List<Rental> loadAll() {
-        List<String> lines = FileManager.safeRead(rentalsFile);
+        long t0 = LOAD_ALL.start();
+        try {
+            RentalArchive archive = repository.archive();
+            List<Rental> out = new ArrayList<>();
+            archive.scan(null, null, out::add);
+            out.addAll(repository.all());
+            return out;
+        } finally {
+            LOAD_ALL.stop(t0);
+        }
+    }
+
+    /**
+     * All rentals of a customer: archived ones first, by start month and by
+     * start date within a month, then the rest in the order they were created.
+     */
+    public List<Rental> findByCustomer(String customerId) {
+        List<Rental> out = repository.archive().findByCustomer(customerId);
+        out.addAll(byCustomer.get(customerId));
+        return out;
+    }
+
+    public List<Rental> findByCustomer(String customerId, String status) {
+        // only returned rentals are ever archived
+        if (!RentalLog.RETURNED.equals(status(status))) return byCustomer.get(customerId, status(status));
+        List<Rental> out = repository.archive().findByCustomer(customerId);
+        out.addAll(byCustomer.get(customerId, RentalLog.RETURNED));
+        return out;
+    }
+
+    /** Sets c's completed rentals and badge from the rental history and returns c. */
+    public Customer withCompletedRentals(Customer c) {
+        int completed = countByCustomer(c.getId(), RentalLog.RETURNED);
+        c.setCompletedRentals(completed);
+        c.setBadge(CustomerService.badgeFor(completed));
+        return c;
+    }
+
+    public int countByCustomer(String customerId, String status) {
+        int n = byCustomer.count(customerId, status(status));
+        if (RentalLog.RETURNED.equals(status(status))) n += repository.archive().count(customerId);
+        return n;
+    }
+
+    /**
+     * Rentals that started from..to (either may be null for no bound) with
+     * the given status (null for any). Archive blocks outside the range are
+     * not read, and open rentals never touch the archive.
+     */
+    public List<Rental> find(LocalDate from, LocalDate to, String status) {
+        String first = from == null ? null : from.toString();
+        String last = to == null ? null : to.toString();
+        String st = status == null ? null : status(status);
         List<Rental> out = new ArrayList<>();
-        for (String l : lines) {
-            if (l.trim().isEmpty()) continue;
-            Rental r = Rental.fromCSV(l);
-            if (r != null) out.add(r);
+        if (st == null || RentalLog.RETURNED.equals(st)) {
+            repository.archive().scan(from, to, r -> {
+                if (started(r, first, last)) out.add(r);
+                return true;
+            });
+        }
+        for (Rental r : repository.all()) {
+            if ((st == null || st.equals(status(r.getStatus()))) && started(r, first, last)) out.add(r);
+        }
+        return out;
+    }
+
+    // start dates are YYYY-MM-DD, which sort as text
+    private static boolean started(Rental r, String first, String last) {
+        String d = r.getStartDate() == null ? "" : r.getStartDate().trim();
+        return (first == null || d.compareTo(first) >= 0) && (last == null || d.compareTo(last) <= 0);
+    }
+
+    private static String status(String s) {
+        return s == null ? "" : s.toUpperCase(Locale.ROOT);
+    }
+
+    /** One line of the admin rental history: the rental plus its customer and vehicle, either of which may be null. */
+    public static class HistoryRow {
+        public final Rental rental;
+        public final models.Customer customer;
+        public final models.Vehicle vehicle;
+
+        HistoryRow(Rental rental, models.Customer customer, models.Vehicle vehicle) {
+            this.rental = rental;
+            this.customer = customer;
+            this.vehicle = vehicle;
+        }
+    }
+
+    public static class HistoryPage {
+        public final List<HistoryRow> rows;
+        public final int page;
+        public final int pageCount;
+        public final int total;
+
+        HistoryPage(List<HistoryRow> rows, int page, int pageCount, int total) {
+            this.rows = rows;
+            this.page = page;
+            this.pageCount = pageCount;
+            this.total = total;
+        }
+    }
+
+    /** One page of search results; each vehicle's quantity is its number of units free for the searched dates. */
+    public static class SearchPage {
+        public final List<Vehicle> rows;
+        public final int page;
+        public final int pageCount;
+        public final int total;
+
+        SearchPage(List<Vehicle> rows, int page, int pageCount, int total) {
+            this.rows = rows;
+            this.page = page;
+            this.pageCount = pageCount;
+            this.total = total;
+        }
+    }
+
+    /** Rows per history page, from -Dhistory.pageSize (default 50). */
+    public static int historyPageSize() {
+        return Math.max(1, Integer.getInteger("history.pageSize", 50));
+    }
+
+    /**
+     * One page (0-based) of the rental history joined to customers and
+     * vehicles. The page's distinct customer and vehicle ids are collected
+     * first, then probed against the id hash indexes in one batch each, so a
+     * page costs O(pageSize) no matter how many rentals, customers or
+     * vehicles exist.
+     */
+    public HistoryPage history(int page, int pageSize) {
+        RentalArchive archive = repository.archive();
+        List<Rental> all = repository.all();
+        // archived months come first; only the archive blocks the page falls in are read
+        int archived = archive.count();
+        int total = archived + all.size();
+        int pageCount = Math.max(1, (total + pageSize - 1) / pageSize);
+        int p = Math.max(0, Math.min(page, pageCount - 1));
+        int start = p * pageSize;
+        int end = Math.min(total, start + pageSize);
+        List<Rental> slice = start < archived ? archive.page(start, Math.min(end, archived) - start) : new ArrayList<>();
+        if (end > archived) slice.addAll(all.subList(Math.max(0, start - archived), end - archived));
+        Set<String> customerIds = new HashSet<>();
+        Set<String> vehicleIds = new HashSet<>();
+        for (Rental r : slice) {
+            customerIds.add(r.getCustomerId());
+            vehicleIds.add(r.getVehicleId());
+        }
+        Map<String, models.Customer> customers = customerService.findByIds(customerIds);
+        Map<String, models.Vehicle> vehicles = vehicleService.findByIds(vehicleIds);
+        List<HistoryRow> rows = new ArrayList<>(slice.size());
+        for (Rental r : slice) rows.add(new HistoryRow(r, customers.get(r.getCustomerId()), vehicles.get(r.getVehicleId())));
+        return new HistoryPage(rows, p, pageCount, total);
+    }
+
+    // a missing sequence (sequences.txt deleted) is seeded from the snapshot and the archive footers, never a full history read
+    public String nextRentalId() throws IOException {
+        return ids.next("rental", "R", () -> Math.max(IdAllocator.seedFrom(repository.all(), Rental::getId, "R"),
+                repository.archive().summary().maxId() + 1));
+    }
+
+    /**
+     * Units of the vehicle free on every day from..to (inclusive). The fleet
+     * is the units on the lot (its quantity) plus one per open rental that
+     * has started and so took one; the busiest day in the range decides.
+     * Returns 0 for an unknown vehicle.
+     */
+    public int freeUnits(String vehicleId, LocalDate from, LocalDate to) {
+        Vehicle v = vehicleService.findById(vehicleId);
+        if (v == null) return 0;
+        LocalDate through;
+        try {
+            through = vehicleService.pickedUpThrough(v.getId());
+        } catch (IOException e) {
+            return 0;
+        }
+        return free(v.getQuantity(), calendar.started(v.getId(), through), calendar.maxBooked(v.getId(), from, to));
+    }
+
+    private static int free(int quantity, int pickedUp, int booked) {
+        return Math.max(0, quantity + pickedUp - booked);
+    }
+
+    /**
+     * Takes a unit off the lot for each open rental of the vehicle that has
+     * started since this last ran, and returns the day it now ran through.
+     * The caller holds the vehicle's stripe. The first time for a vehicle it
+     * takes nothing and runs through its latest open rental, as those all
+     * took their unit when they were made.
+     */
+    private LocalDate pickUpLocked(String vehicleId) throws IOException {
+        LocalDate today = LocalDate.now();
+        LocalDate through = vehicleService.pickedUpThrough(vehicleId);
+        if (through == null) {
+            LocalDate last = calendar.lastStart(vehicleId);
+            through = last != null && last.isAfter(today) ? last : today;
+            vehicleService.pickUp(vehicleId, 0, through);
+        } else if (through.isBefore(today)) {
+            vehicleService.pickUp(vehicleId, calendar.started(vehicleId, today) - calendar.started(vehicleId, through), today);
+            through = today;
+        }
+        return through;
+    }
+
+    /**
+     * Picks up the rentals started since for vehicles last done before
+     * today, so the lot counts shown are current; true if any was due.
+     * Vehicles never done are left to their first rent or return. One sync
+     * is enough: whoever rents one of them after it moves its day to today
+     * first, which the check under the lock sees.
+     */
+    private boolean pickUp(List<Vehicle> vehicles) {
+        LocalDate today = LocalDate.now();
+        boolean due = false;
+        for (Vehicle v : vehicles) {
+            try {
+                LocalDate through = vehicleService.pickedUpThrough(v.getId());
+                if (through == null || !through.isBefore(today)) continue;
+                if (!due) repository.sync();
+                due = true;
+                StripedLock.Held held = locks.lock(InventoryEngine.lockKey(v.getId()));
+                try {
+                    pickUpLocked(v.getId());
+                } finally {
+                    held.close();
+                }
+            } catch (IOException ignored) {
+                // free units do not depend on it; the next look retries
+            }
+        }
+        return due;
+    }
+
+    // a rental that has not started by through (a booking ahead) has not taken its unit
+    private static boolean pickedUp(Rental r, LocalDate through) {
+        try {
+            return !LocalDate.parse(r.getStartDate().trim()).isAfter(through);
+        } catch (DateTimeParseException | NullPointerException e) {
+            return true;
+        }
+    }
+
+    /** Vehicles with at least one unit free on every day from..to; each copy's quantity is that number of units. */
+    public List<Vehicle> availableBetween(LocalDate from, LocalDate to) {
+        List<Vehicle> all = vehicleService.loadAll();
+        if (pickUp(all)) all = vehicleService.loadAll();
+        List<String> ids = new ArrayList<>(all.size());
+        LocalDate[] through = new LocalDate[all.size()];
+        for (int i = 0; i < through.length; i++) {
+            ids.add(all.get(i).getId());
+            through[i] = pickedUpThrough(ids.get(i));
+        }
+        int[] booked = new int[ids.size()];
+        int[] started = new int[ids.size()];
+        calendar.lookup(ids, from, to, through, booked, started);
+        List<Vehicle> out = new ArrayList<>();
+        for (int i = 0; i < booked.length; i++) {
+            Vehicle v = all.get(i);
+            int free = free(v.getQuantity(), started[i], booked[i]);
+            if (free <= 0) continue;
+            Vehicle copy = new Vehicle(v.getId(), v.getType(), v.getMake(), v.getModel(), v.getYear(), v.getRatePerDay(), v.isAvailable(), v.getQuantity());
+            copy.setQuantity(free);
+            out.add(copy);
         }
         return out;
     }
 
+    /**
+     * One page (0-based) of the vehicles matching q that have a unit free on
+     * every day of its date range, cheapest first. The vehicle filters come
+     * from the search index; free units for all candidates are then read from
+     * the booking calendar under one lock.
+     */
+    public SearchPage search(VehicleQuery q, int page, int pageSize) {
+        LocalDate from = q.from == null ? LocalDate.now() : q.from;
+        LocalDate to = q.to == null ? from : q.to;
+        List<Vehicle> candidates = vehicleService.find(q);
+        if (pickUp(candidates)) candidates = vehicleService.find(q);
+        List<String> ids = new ArrayList<>(candidates.size());
+        LocalDate[] through = new LocalDate[candidates.size()];
+        for (int i = 0; i < through.length; i++) {
+            ids.add(candidates.get(i).getId());
+            through[i] = pickedUpThrough(ids.get(i));
+        }
+        int[] booked = new int[ids.size()];
+        int[] started = new int[ids.size()];
+        calendar.lookup(ids, from, to, through, booked, started);
+        int[] free = new int[ids.size()];
+        int total = 0;
+        for (int i = 0; i < free.length; i++) {
+            free[i] = free(candidates.get(i).getQuantity(), started[i], booked[i]);
+            if (free[i] > 0) total++;
+        }
+        int pageCount = Math.max(1, (total + pageSize - 1) / pageSize);
+        int p = Math.max(0, Math.min(page, pageCount - 1));
+        int skip = p * pageSize;
+        List<Vehicle> rows = new ArrayList<>(Math.min(pageSize, total));
+        for (int i = 0; i < free.length && rows.size() < pageSize; i++) {
+            if (free[i] <= 0) continue;
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+            Vehicle v = candidates.get(i);
+            Vehicle copy = new Vehicle(v.getId(), v.getType(), v.getMake(), v.getModel(), v.getYear(), v.getRatePerDay(), v.isAvailable(), v.getQuantity());
+            copy.setQuantity(free[i]);
+            rows.add(copy);
+        }
+        return new SearchPage(rows, p, pageCount, total);
+    }
+
+    // null (every open rental took its unit) also when the counter cannot be read
+    private LocalDate pickedUpThrough(String vehicleId) {
+        try {
+            return vehicleService.pickedUpThrough(vehicleId);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
     public void addRental(Rental r) throws IOException {
-        // Before writing rental, decrement vehicle quantity
-        services.VehicleService vs = new VehicleService();
-        boolean ok = vs.decrementQuantity(r.getVehicleId());
-        if (!ok) throw new IllegalStateException("No vehicles available for id: " + r.getVehicleId());
-        FileManager.appendLine(rentalsFile, r.toCSV());
+        addRental(r, Integer.MAX_VALUE);
     }
 
-    public void returnRental(String rentalId) throws IOException {
-        List<Rental> list = loadAll();
-        boolean changed = false;
-        for (Rental r : list) {
-            if (r.getId().equals(rentalId) && "RENTED".equalsIgnoreCase(r.getStatus())) {
-                // mark returned
-                Rental updated = new Rental(r.getId(), r.getCustomerId(), r.getVehicleId(), r.getStartDate(), r.getEndDate(), r.getTotalPrice(), "RETURNED");
-                // replace
-                int idx = list.indexOf(r);
-                list.set(idx, updated);
-                // increment vehicle quantity
-                new VehicleService().incrementQuantity(r.getVehicleId());
-                // increment customer's completed count and maybe badge
-                new services.CustomerService().incrementCompletedRentals(r.getCustomerId());
-                changed = true;
-                break;
+    /**
+     * Records the rental unless the customer already has maxActive rentals
+     * out or the vehicle is fully booked on some day of the rental. A rental
+     * starting today or earlier takes its unit off the lot now; one booked
+     * ahead takes it on its start day (see {@link #pickUpLocked}). The
+     * customer and vehicle stay locked across processes from the checks to
+     * the write, so two sessions cannot both take the last unit or go over
+     * the limit.
+     */
+    public void addRental(Rental r, int maxActive) throws IOException {
+        long t0 = ADD.start();
+        Events.RentalTransition event = Events.RentalTransition.start(r.getId(), "", RentalLog.RENTED).of(r.getCustomerId(), r.getVehicleId());
+        String outcome = "failed";
+        try {
+            record(r, maxActive);
+            outcome = "ok";
+        } catch (RentalConflictException | IllegalArgumentException e) {
+            outcome = "rejected: " + e.getMessage();
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            outcome = "failed: " + e;
+            throw e;
+        } finally {
+            ADD.stop(t0);
+            event.end(outcome);
+        }
+    }
+
+    private void record(Rental r, int maxActive) throws IOException {
+        StripedLock.Held held = locks.lock(CustomerService.lockKey(r.getCustomerId()), InventoryEngine.lockKey(r.getVehicleId()));
+        try {
+            // see what other processes rented and booked before checking; unit counts are shared live
+            repository.sync();
+            if (maxActive < Integer.MAX_VALUE) {
+                int active = countByCustomer(r.getCustomerId(), RentalLog.RENTED);
+                if (active >= maxActive) {
+                    throw new RentalConflictException(String.format("customer has %d active rental(s), the limit is %d", active, maxActive));
+                }
+            }
+            LocalDate start;
+            LocalDate end;
+            try {
+                start = LocalDate.parse(r.getStartDate());
+                end = LocalDate.parse(r.getEndDate());
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("rental dates must be YYYY-MM-DD: " + r.getStartDate() + " - " + r.getEndDate());
+            }
+            LocalDate through = pickUpLocked(r.getVehicleId());
+            if (freeUnits(r.getVehicleId(), start, end) < 1) {
+                throw new RentalConflictException("No vehicles available for id: " + r.getVehicleId() + " between " + start + " and " + end);
             }
+            // take the unit first; give it back if the rental cannot be recorded
+            boolean pickedUp = !start.isAfter(through);
+            if (pickedUp && !vehicleService.bookUnit(r.getVehicleId())) throw new RentalConflictException("No vehicles available for id: " + r.getVehicleId());
+            try {
+                repository.rent(r);
+            } catch (IOException | RuntimeException e) {
+                if (pickedUp) vehicleService.incrementQuantity(r.getVehicleId());
+                throw e;
+            }
+        } finally {
+            held.close();
+        }
+    }
+
+    public void returnRental(String rentalId) throws IOException {
+        long t0 = RETURN.start();
+        Events.RentalTransition event = Events.RentalTransition.start(rentalId, RentalLog.RENTED, RentalLog.RETURNED);
+        String outcome = "failed";
+        try {
+            outcome = markReturned(rentalId, event);
+        } catch (IOException | RuntimeException e) {
+            outcome = "failed: " + e;
+            throw e;
+        } finally {
+            RETURN.stop(t0);
+            event.end(outcome);
         }
-        if (changed) {
-            List<String> lines = new ArrayList<>();
-            for (Rental rr : list) lines.add(rr.toCSV());
-            FileManager.overwrite(rentalsFile, lines);
+    }
+
+    /** Returns the outcome for the rental transition event. */
+    private String markReturned(String rentalId, Events.RentalTransition event) throws IOException {
+        Rental r = repository.findActive(rentalId);
+        if (r == null) return "not found";
+        event.of(r.getCustomerId(), r.getVehicleId());
+        StripedLock.Held held = locks.lock(CustomerService.lockKey(r.getCustomerId()), InventoryEngine.lockKey(r.getVehicleId()));
+        try {
+            // mark returned: a single RETURNED event appended to the log; false if another session beat us to it.
+            // The customer's completed count and badge follow from the log, so customers.txt is not touched.
+            repository.sync();
+            LocalDate through = pickUpLocked(r.getVehicleId());
+            FileManager.Transaction tx = FileManager.begin();
+            if (!repository.markReturned(rentalId, tx)) return "already returned";
+            tx.commit();
+            // the unit goes back once the return is recorded; a booking cancelled before its start never took one
+            if (pickedUp(r, through)) vehicleService.incrementQuantity(r.getVehicleId());
+        } finally {
+            held.close();
         }
+        return "ok";
     }
 
+    // income figures are the revenue index over the snapshot plus the archive's income, summed from its columns
     public double totalIncome() {
-        double sum = 0.0;
-        for (Rental r : loadAll()) sum += r.getTotalPrice();
-        return sum;
+        return (revenue.totalCents() + repository.archive().income().cents()) / 100.0;
+    }
+
+    /** Income from rentals already returned. */
+    public double returnedIncome() {
+        return (revenue.returnedCents() + repository.archive().income().cents()) / 100.0;
+    }
+
+    /** Income per rental start day, month, vehicle type or vehicle id, in dollars and sorted by key. */
+    public TreeMap<String, Double> incomeByDay() { return dollars(plus(revenue.byDay(), repository.archive().income().byDay())); }
+
+    public TreeMap<String, Double> incomeByMonth() { return dollars(plus(revenue.byMonth(), repository.archive().income().byMonth())); }
+
+    public TreeMap<String, Double> incomeByVehicleType() { return dollars(plus(revenue.byVehicleType(), repository.archive().income().byVehicleType())); }
+
+    public TreeMap<String, Double> incomeByVehicle() { return dollars(plus(revenue.byVehicle(), repository.archive().income().byVehicle())); }
+
+    private static TreeMap<String, Long> plus(TreeMap<String, Long> a, TreeMap<String, Long> b) {
+        for (Map.Entry<String, Long> e : b.entrySet()) {
+            if (a.merge(e.getKey(), e.getValue(), Long::sum) == 0) a.remove(e.getKey());
+        }
+        return a;
+    }
+
+    /** Recomputes every income figure from the rental snapshot and event log. */
+    public void rebuildIncome() {
+        repository.reload();
+    }
+
+    private static TreeMap<String, Double> dollars(TreeMap<String, Long> cents) {
+        TreeMap<String, Double> out = new TreeMap<>();
+        for (Map.Entry<String, Long> e : cents.entrySet()) out.put(e.getKey(), e.getValue() / 100.0);
+        return out;
     }
 }
@@ -0,0 +1,20 @@
+package services;
+
+import java.time.LocalDate;
+
+/**
+ * Filters for {@link RentalService#search}. Every field is optional: null
+ * (NaN for the rates) means "any". Prefixes ignore case and ranges include
+ * both ends. Without dates, availability is checked for today.
+ */
+public class VehicleQuery {
+    public String type;
+    public String makePrefix;
+    public String modelPrefix;
+    public Integer minYear;
+    public Integer maxYear;
+    public double minRate = Double.NaN;
+    public double maxRate = Double.NaN;
+    public LocalDate from;
+    public LocalDate to;
+}
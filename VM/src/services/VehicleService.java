@@ -1,66 +1,99 @@
 package services;
 
 import models.Vehicle;
-import utils.FileManager;
+import repositories.FileRepository;
+import repositories.IdAllocator;
+import repositories.RecordIndex;
+import repositories.VehicleSearchIndex;
+import utils.Metrics;
 
 import java.io.IOException;
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 public class VehicleService {
+    private static final Metrics.Timer LOAD_ALL = Metrics.timer("vehicles.loadAll");
     private final String vehiclesFile = "files/vehicles.txt";
+    private final FileRepository<Vehicle> repository = FileRepository.open(vehiclesFile, Vehicle::fromCSV, Vehicle::toCSV);
+    private final RecordIndex<Vehicle> byId = repository.index("id", Vehicle::getId, false);
+    private final VehicleSearchIndex search = VehicleSearchIndex.on(repository);
+    private final InventoryEngine inventory = InventoryEngine.forRepository(repository);
+    private final IdAllocator ids = IdAllocator.open("files/sequences.txt");
 
+    // quantities come from the inventory counters, which may be ahead of the file
     public List<Vehicle> loadAll() {
-        List<String> lines = FileManager.safeRead(vehiclesFile);
-        List<Vehicle> out = new ArrayList<>();
-        for (String l : lines) {
-            if (l.trim().isEmpty()) continue;
-            Vehicle v = Vehicle.fromCSV(l);
-            if (v != null) out.add(v);
+        long t0 = LOAD_ALL.start();
+        try {
+            List<Vehicle> out = new ArrayList<>();
+            for (Vehicle v : repository.all()) out.add(inventory.withLiveQuantity(v));
+            return out;
+        } finally {
+            LOAD_ALL.stop(t0);
         }
-        return out;
     }
 
     public void saveAll(List<Vehicle> list) throws IOException {
-        List<String> lines = new ArrayList<>();
-        for (Vehicle v : list) lines.add(v.toCSV());
-        FileManager.overwrite(vehiclesFile, lines);
+        inventory.overwrite(list);
+    }
+
+    public void updateVehicle(Vehicle updated) throws IOException {
+        inventory.update(updated);
+    }
+
+    public String nextVehicleId() throws IOException {
+        return ids.next("vehicle", "V", () -> IdAllocator.seedFrom(repository.all(), Vehicle::getId, "V"));
     }
 
     public void addVehicle(Vehicle v) throws IOException {
-        FileManager.appendLine(vehiclesFile, v.toCSV());
+        repository.append(v);
     }
 
     public Vehicle findById(String id) {
-        for (Vehicle v : loadAll()) if (v.getId().equals(id)) return v;
-        return null;
+        return inventory.withLiveQuantity(byId.get(id));
+    }
+
+    /** Batch form of findById: one index pass for all ids. */
+    public Map<String, Vehicle> findByIds(Collection<String> ids) {
+        Map<String, Vehicle> out = byId.getAll(ids);
+        for (Map.Entry<String, Vehicle> e : out.entrySet()) e.setValue(inventory.withLiveQuantity(e.getValue()));
+        return out;
+    }
+
+    /** Vehicles passing the query's vehicle filters (its dates are ignored here), cheapest first. */
+    public List<Vehicle> find(VehicleQuery q) {
+        List<Vehicle> out = search.find(q.type, q.makePrefix, q.modelPrefix, q.minYear, q.maxYear, q.minRate, q.maxRate);
+        for (int i = 0; i < out.size(); i++) out.set(i, inventory.withLiveQuantity(out.get(i)));
+        return out;
     }
 
     public boolean decrementQuantity(String vehicleId) throws IOException {
-        List<Vehicle> list = loadAll();
-        boolean changed = false;
-        for (Vehicle v : list) {
-            if (v.getId().equals(vehicleId)) {
-                if (v.getQuantity() <= 0) return false;
-                v.setQuantity(v.getQuantity() - 1);
-                changed = true;
-                break;
-            }
-        }
-        if (changed) saveAll(list);
-        return changed;
+        return inventory.tryReserve(vehicleId);
+    }
+
+    /** Takes a unit for a booking already checked against the calendar; see {@link InventoryEngine#book(String)}. */
+    public boolean bookUnit(String vehicleId) throws IOException {
+        return inventory.book(vehicleId);
     }
 
     public void incrementQuantity(String vehicleId) throws IOException {
-        List<Vehicle> list = loadAll();
-        boolean changed = false;
-        for (Vehicle v : list) {
-            if (v.getId().equals(vehicleId)) {
-                v.setQuantity(v.getQuantity() + 1);
-                changed = true;
-                break;
-            }
-        }
-        if (changed) saveAll(list);
+        inventory.release(vehicleId);
+    }
+
+    /** Day through which the vehicle's started rentals have taken their units, or null if never; see {@link InventoryEngine#pickUp}. */
+    public LocalDate pickedUpThrough(String vehicleId) throws IOException {
+        int day = inventory.pickedUpThrough(vehicleId);
+        return day <= 0 ? null : LocalDate.ofEpochDay(day);
+    }
+
+    public void pickUp(String vehicleId, int units, LocalDate through) throws IOException {
+        inventory.pickUp(vehicleId, units, (int) through.toEpochDay());
+    }
+
+    /** Writes the live unit counts to vehicles.txt now instead of on the next background flush. */
+    public void flush() throws IOException {
+        inventory.flush();
     }
 }
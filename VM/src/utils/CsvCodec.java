@@ -0,0 +1,313 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Hand-written CSV reader/writer for the model classes. One instance per
+ * thread ({@link #get()}) keeps a char buffer for the line being parsed and
+ * a StringBuilder for the line being written, so the only allocations left
+ * are the field Strings the models keep.
+ *
+ * Reading follows the old split-and-trim rules: fields are separated by
+ * commas and trimmed. A field that starts with a double quote is quoted:
+ * commas inside it are kept and "" stands for one quote. Unquoted fields
+ * are taken as is, so existing files read exactly as before.
+ *
+ * Writing quotes a field only when it contains a comma, a quote or a line
+ * break, so plain records come out byte for byte as they used to.
+ *
+ * Number getters never throw; a field that does not parse sets
+ * {@link #failed()} until the next {@link #split(String, boolean)}.
+ */
+public final class CsvCodec {
+    private static final ThreadLocal<CsvCodec> LOCAL = ThreadLocal.withInitial(CsvCodec::new);
+    private static final double[] POW10 = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private char[] buf = new char[256];
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private boolean[] blank = new boolean[16];
+    private int count;
+    private boolean failed;
+    private final StringBuilder out = new StringBuilder(128);
+    private boolean firstField;
+
+    private CsvCodec() { }
+
+    /** The calling thread's codec. Do not hold on to it across threads. */
+    public static CsvCodec get() {
+        return LOCAL.get();
+    }
+
+    // ---- reading ----
+
+    /**
+     * Splits the line into fields and returns how many there are. With
+     * dropTrailingEmpty the count matches line.split(","), which ignores
+     * empty fields at the end; without it, line.split(",", -1).
+     */
+    public int split(String line, boolean dropTrailingEmpty) {
+        int len = line.length();
+        if (buf.length < len) buf = new char[Math.max(len, buf.length * 2)];
+        line.getChars(0, len, buf, 0);
+        count = 0;
+        failed = false;
+        int i = 0;
+        while (true) {
+            int s = i;
+            while (s < len && buf[s] <= ' ') s++;
+            if (s < len && buf[s] == '"') {
+                // unescape in place: the result is never longer than the raw text
+                int w = s;
+                int r = s + 1;
+                while (r < len) {
+                    char ch = buf[r++];
+                    if (ch == '"') {
+                        if (r < len && buf[r] == '"') { buf[w++] = '"'; r++; }
+                        else break;
+                    } else {
+                        buf[w++] = ch;
+                    }
+                }
+                addField(s, w, false);
+                while (r < len && buf[r] != ',') r++;
+                i = r;
+            } else {
+                int e = s;
+                while (e < len && buf[e] != ',') e++;
+                int t = e;
+                while (t > s && buf[t - 1] <= ' ') t--;
+                addField(s, t, e == i);
+                i = e;
+            }
+            if (i >= len) break;
+            i++; // skip the comma
+        }
+        // split(",") only drops fields with nothing at all between the commas
+        if (dropTrailingEmpty) while (count > 0 && blank[count - 1]) count--;
+        return count;
+    }
+
+    private void addField(int s, int e, boolean rawEmpty) {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+            ends = Arrays.copyOf(ends, count * 2);
+            blank = Arrays.copyOf(blank, count * 2);
+        }
+        starts[count] = s;
+        ends[count] = e;
+        blank[count] = rawEmpty;
+        count++;
+    }
+
+    /** True once a number getter has met a field it could not parse. */
+    public boolean failed() {
+        return failed;
+    }
+
+    public String text(int field) {
+        return new String(buf, starts[field], ends[field] - starts[field]);
+    }
+
+    public boolean bool(int field) {
+        int s = starts[field];
+        if (ends[field] - s != 4) return false;
+        return (buf[s] | 0x20) == 't' && (buf[s + 1] | 0x20) == 'r' && (buf[s + 2] | 0x20) == 'u' && (buf[s + 3] | 0x20) == 'e';
+    }
+
+    public int intAt(int field) {
+        long v = parseLong(starts[field], ends[field]);
+        if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) {
+            failed = true;
+            return 0;
+        }
+        return (int) v;
+    }
+
+    /** Like {@link #intAt(int)} but returns fallback instead of setting {@link #failed()}. */
+    public int intAt(int field, int fallback) {
+        boolean before = failed;
+        failed = false;
+        int v = intAt(field);
+        if (failed) v = fallback;
+        failed = before;
+        return v;
+    }
+
+    /**
+     * Parses plain decimals ("12", "-3.50") directly. With at most 15
+     * significant digits and 22 decimals, digits / 10^scale is exactly what
+     * Double.parseDouble returns; anything else goes through it.
+     */
+    public double doubleAt(int field) {
+        int s = starts[field];
+        int e = ends[field];
+        int i = s;
+        boolean neg = false;
+        if (i < e && (buf[i] == '-' || buf[i] == '+')) neg = buf[i++] == '-';
+        long digits = 0;
+        int significant = 0;
+        int scale = 0;
+        boolean seenDot = false;
+        boolean any = false;
+        for (; i < e; i++) {
+            char ch = buf[i];
+            if (ch >= '0' && ch <= '9') {
+                any = true;
+                if (digits == 0 && ch == '0') {
+                    if (seenDot) scale++;
+                    continue;
+                }
+                if (++significant > 15) return slowDouble(s, e);
+                digits = digits * 10 + (ch - '0');
+                if (seenDot) scale++;
+            } else if (ch == '.' && !seenDot) {
+                seenDot = true;
+            } else {
+                return slowDouble(s, e);
+            }
+        }
+        if (!any) {
+            failed = true;
+            return 0;
+        }
+        if (scale > 22) return slowDouble(s, e);
+        double v = scale == 0 ? digits : digits / POW10[scale];
+        return neg ? -v : v;
+    }
+
+    private double slowDouble(int s, int e) {
+        try {
+            return Double.parseDouble(new String(buf, s, e - s));
+        } catch (NumberFormatException ex) {
+            failed = true;
+            return 0;
+        }
+    }
+
+    private long parseLong(int s, int e) {
+        int i = s;
+        boolean neg = false;
+        if (i < e && (buf[i] == '-' || buf[i] == '+')) neg = buf[i++] == '-';
+        if (i == e) {
+            failed = true;
+            return 0;
+        }
+        while (i < e - 1 && buf[i] == '0') i++;
+        if (e - i > 18) {
+            failed = true;
+            return 0;
+        }
+        long v = 0;
+        for (; i < e; i++) {
+            char ch = buf[i];
+            if (ch < '0' || ch > '9') {
+                failed = true;
+                return 0;
+            }
+            v = v * 10 + (ch - '0');
+        }
+        return neg ? -v : v;
+    }
+
+    // ---- writing ----
+
+    /** Starts a new line; follow with field calls and finish with {@link #line()}. */
+    public CsvCodec begin() {
+        out.setLength(0);
+        firstField = true;
+        return this;
+    }
+
+    public CsvCodec field(String s) {
+        separator();
+        if (s == null) {
+            out.append("null"); // what String.join wrote
+            return this;
+        }
+        boolean quote = false;
+        for (int i = 0; i < s.length() && !quote; i++) {
+            char ch = s.charAt(i);
+            quote = ch == ',' || ch == '"' || ch == '\n' || ch == '\r';
+        }
+        if (!quote) {
+            out.append(s);
+            return this;
+        }
+        out.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (ch == '"') out.append('"');
+            out.append(ch);
+        }
+        out.append('"');
+        return this;
+    }
+
+    public CsvCodec field(int v) {
+        separator();
+        out.append(v);
+        return this;
+    }
+
+    public CsvCodec field(boolean v) {
+        separator();
+        out.append(v);
+        return this;
+    }
+
+    /**
+     * Appends the value with two decimals, rounded half up from its shortest
+     * decimal form, which is what String.format("%.2f") produces. Very large
+     * or very small values fall back to String.format.
+     */
+    public CsvCodec fixed2(double v) {
+        separator();
+        double a = Math.abs(v);
+        if (Double.isNaN(v) || Double.isInfinite(v) || a >= 1e7 || (a != 0 && a < 1e-3)) {
+            out.append(String.format(Locale.ROOT, "%.2f", v));
+            return this;
+        }
+        int start = out.length();
+        out.append(v); // plain notation in this range, e.g. 12.5 or 0.125
+        int dot = out.indexOf(".", start);
+        int decimals = out.length() - dot - 1;
+        if (decimals < 2) {
+            out.append('0');
+            return this;
+        }
+        boolean up = decimals > 2 && out.charAt(dot + 3) >= '5';
+        out.setLength(dot + 3);
+        if (up) roundUp(start, dot);
+        return this;
+    }
+
+    // adds one in the last place, carrying left past the dot
+    private void roundUp(int start, int dot) {
+        int i = out.length() - 1;
+        int first = out.charAt(start) == '-' ? start + 1 : start;
+        while (i >= first) {
+            char ch = out.charAt(i);
+            if (i == dot) { i--; continue; }
+            if (ch < '9') {
+                out.setCharAt(i, (char) (ch + 1));
+                return;
+            }
+            out.setCharAt(i, '0');
+            i--;
+        }
+        out.insert(first, '1');
+    }
+
+    private void separator() {
+        if (!firstField) out.append(',');
+        firstField = false;
+    }
+
+    /** The finished line. */
+    public String line() {
+        return out.toString();
+    }
+}
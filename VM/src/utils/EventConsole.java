@@ -0,0 +1,90 @@
+package utils;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.Locale;
+import java.util.function.Consumer;
+import jdk.jfr.ValueDescriptor;
+import jdk.jfr.consumer.RecordedEvent;
+
+/**
+ * Prints the {@link Events} of a running app as they happen, one line each.
+ * Start the app with a disk recording in a known repository:
+ *
+ *   java -XX:StartFlightRecording -XX:FlightRecorderOptions:repository=files/.jfr -cp out Main
+ *
+ * and, from another terminal, java -cp out utils.EventConsole [repository]
+ * (files/.jfr by default). Streaming needs a JDK 14 or newer; on older ones
+ * dump the recording with jcmd JFR.dump and read it with jfr print.
+ */
+public final class EventConsole {
+    private static final String[] EVENTS = {"vm.FileIO", "vm.Parse", "vm.InventoryConflict", "vm.RentalTransition"};
+
+    private EventConsole() { }
+
+    public static void main(String[] args) throws Exception {
+        File repository = chunks(new File(args.length > 0 ? args[0] : "files/.jfr"));
+        if (repository == null) {
+            System.err.println("No recording found. Start the app with -XX:StartFlightRecording -XX:FlightRecorderOptions:repository=<dir>");
+            System.exit(1);
+        }
+        Class<?> streams;
+        try {
+            // jdk.jfr.consumer.EventStream only exists from JDK 14
+            streams = Class.forName("jdk.jfr.consumer.EventStream");
+        } catch (ClassNotFoundException e) {
+            System.err.println("Live streaming needs JDK 14 or newer; use jcmd <pid> JFR.dump and jfr print instead.");
+            System.exit(1);
+            return;
+        }
+        System.out.println("Watching " + repository + " (Ctrl+C to stop)");
+        Object stream = streams.getMethod("openRepository", Path.class).invoke(null, repository.toPath());
+        Method onEvent = streams.getMethod("onEvent", String.class, Consumer.class);
+        Consumer<RecordedEvent> print = EventConsole::print;
+        for (String name : EVENTS) onEvent.invoke(stream, name, print);
+        try {
+            streams.getMethod("start").invoke(stream);
+        } catch (InvocationTargetException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /** The newest directory under dir holding .jfr chunks (the JVM makes one per run), or dir itself. */
+    private static File chunks(File dir) {
+        if (hasChunks(dir)) return dir;
+        File newest = null;
+        File[] subdirs = dir.listFiles(File::isDirectory);
+        if (subdirs == null) return null;
+        for (File d : subdirs) {
+            if (hasChunks(d) && (newest == null || d.lastModified() > newest.lastModified())) newest = d;
+        }
+        return newest;
+    }
+
+    private static boolean hasChunks(File dir) {
+        String[] names = dir.list((d, n) -> n.endsWith(".jfr"));
+        return names != null && names.length > 0;
+    }
+
+    private static void print(RecordedEvent e) {
+        StringBuilder sb = new StringBuilder();
+        LocalTime at = LocalTime.ofInstant(e.getStartTime(), ZoneId.systemDefault()).truncatedTo(ChronoUnit.MILLIS);
+        sb.append(at).append(' ').append(e.getEventType().getName());
+        if (!e.getDuration().isZero()) {
+            sb.append(String.format(Locale.ROOT, " %.3f ms", e.getDuration().toNanos() / 1e6));
+        }
+        for (ValueDescriptor f : e.getFields()) {
+            String name = f.getName();
+            if (name.equals("startTime") || name.equals("duration") || name.equals("eventThread") || name.equals("stackTrace")) continue;
+            Object v = e.getValue(name);
+            if (v == null || "".equals(v)) continue;
+            sb.append(' ').append(name).append('=').append(v);
+        }
+        System.out.println(sb);
+    }
+}
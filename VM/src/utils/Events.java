@@ -0,0 +1,146 @@
+package utils;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight Recorder events for file I/O, parses, inventory contention and the
+ * rental workflow. They cost next to nothing unless a recording is running
+ * (start the JVM with -XX:StartFlightRecording, or use jcmd JFR.start), and
+ * share the recording with the JVM's own GC, lock and I/O events, so a slow
+ * rental shows which file operations it waited on. {@link EventConsole}
+ * prints them live.
+ *
+ * Events are emitted as
+ *
+ *   Events.FileIo e = Events.FileIo.start(path, "read");
+ *   ...
+ *   e.end(bytes);
+ */
+public final class Events {
+    private Events() { }
+
+    @Name("vm.FileIO")
+    @Label("File I/O")
+    @Category({"Vehicle Rental", "Files"})
+    @Description("A read, write or journal force through FileManager")
+    @StackTrace(false)
+    @Threshold("1 ms")
+    public static final class FileIo extends Event {
+        @Label("Path")
+        String path;
+        @Label("Operation")
+        String operation;
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        public static FileIo start(String path, String operation) {
+            FileIo e = new FileIo();
+            e.path = path;
+            e.operation = operation;
+            e.begin();
+            return e;
+        }
+
+        public void end(long bytes) {
+            if (!shouldCommit()) return;
+            this.bytes = bytes;
+            commit();
+        }
+    }
+
+    @Name("vm.Parse")
+    @Label("Parse")
+    @Category({"Vehicle Rental", "Files"})
+    @Description("A cache re-reading its file, fully or just the new tail")
+    @StackTrace(false)
+    @Threshold("1 ms")
+    public static final class Parse extends Event {
+        @Label("File")
+        String file;
+        @Label("Records")
+        int records;
+
+        public static Parse start(String file) {
+            Parse e = new Parse();
+            e.file = file;
+            e.begin();
+            return e;
+        }
+
+        public void end(int records) {
+            if (!shouldCommit()) return;
+            this.records = records;
+            commit();
+        }
+    }
+
+    @Name("vm.InventoryConflict")
+    @Label("Inventory CAS Conflict")
+    @Category({"Vehicle Rental", "Inventory"})
+    @Description("Taking a unit lost compare-and-set races to other threads before it settled")
+    @StackTrace(false)
+    public static final class InventoryConflict extends Event {
+        @Label("Vehicle")
+        String vehicleId;
+        @Label("Retries")
+        int retries;
+
+        public static void emit(String vehicleId, int retries) {
+            InventoryConflict e = new InventoryConflict();
+            if (!e.isEnabled()) return;
+            e.vehicleId = vehicleId;
+            e.retries = retries;
+            e.commit();
+        }
+    }
+
+    @Name("vm.RentalTransition")
+    @Label("Rental Transition")
+    @Category({"Vehicle Rental", "Rentals"})
+    @Description("Renting or returning a vehicle, from the first check to the last write")
+    @StackTrace(false)
+    public static final class RentalTransition extends Event {
+        @Label("Rental")
+        String rentalId;
+        @Label("Customer")
+        String customerId;
+        @Label("Vehicle")
+        String vehicleId;
+        @Label("From")
+        String from;
+        @Label("To")
+        String to;
+        @Label("Outcome")
+        @Description("ok, rejected (limit or stock), not found, or the error")
+        String outcome;
+
+        public static RentalTransition start(String rentalId, String from, String to) {
+            RentalTransition e = new RentalTransition();
+            e.rentalId = rentalId;
+            e.from = from;
+            e.to = to;
+            e.begin();
+            return e;
+        }
+
+        public RentalTransition of(String customerId, String vehicleId) {
+            this.customerId = customerId;
+            this.vehicleId = vehicleId;
+            return this;
+        }
+
+        public void end(String outcome) {
+            if (!shouldCommit()) return;
+            this.outcome = outcome;
+            commit();
+        }
+    }
+}
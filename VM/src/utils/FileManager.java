@@ -1,31 +1,614 @@
 package utils;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
 
 public class FileManager {
+    /** Every commit is on disk before it returns (the default). */
+    public static final String SYNC = "sync";
+    /** Commits are queued and written in shared batches; a commit still waits for its batch. */
+    public static final String GROUP = "group";
+    /** Commits are queued and return at once; the batch is written a little later. */
+    public static final String ASYNC = "async";
+
+    private static final String JOURNAL_FILE = "files/.journal";
+    private static final Journal journal = new Journal(JOURNAL_FILE);
+    private static final Map<String, ReentrantLock> fileLocks = new ConcurrentHashMap<>();
+    private static volatile boolean recovered = false;
+    private static final String DURABILITY = durabilityFrom(System.getProperty("files.durability"));
+    private static final WriteBehind writeBehind = SYNC.equals(DURABILITY) ? null
+            : new WriteBehind(ASYNC.equals(DURABILITY), Integer.getInteger("files.batch", 256), Integer.getInteger("files.flushMs", 20));
+    private static final Metrics.Timer READ = Metrics.timer("file.read");
+    private static final Metrics.Timer WRITE = Metrics.timer("file.write");
+    private static final Metrics.Timer JOURNAL = Metrics.timer("file.journal");
+    private static final int READ_CHUNK = 64 * 1024;
+    // one direct buffer per reading thread, taken out while in use so a nested read gets its own
+    private static final ThreadLocal<ByteBuffer> readBuffers = new ThreadLocal<>();
+
     public static List<String> readAllLines(String pathStr) throws IOException {
+        List<String> lines = new ArrayList<>();
+        forEachLine(pathStr, line -> {
+            lines.add(line);
+            return true;
+        });
+        return lines;
+    }
+
+    /** Called with each line, without its line ending; return false to stop reading. */
+    public interface LineHandler {
+        boolean line(String line);
+    }
+
+    /**
+     * Streams the file's lines to handler, a chunk at a time, so only the
+     * line being handled is held in memory. Returns false if the handler
+     * stopped early.
+     */
+    public static boolean forEachLine(String pathStr, LineHandler handler) throws IOException {
+        boolean[] finished = {true};
+        scan(pathStr, 0, true, line -> finished[0] = handler.line(line));
+        return finished[0];
+    }
+
+    /**
+     * Streams the complete lines from offset on, leaving out a last line a
+     * writer has not finished. Returns the offset just past the last line
+     * handed to handler, which is where to continue next time.
+     */
+    public static long forEachLine(String pathStr, long offset, LineHandler handler) throws IOException {
+        return scan(pathStr, offset, false, handler);
+    }
+
+    /**
+     * Parses every non-blank line of a large file, in file order, on the
+     * fork/join common pool (see {@link ParallelLoader}); null results are
+     * dropped. parser is called from several threads at once.
+     */
+    public static <T> List<T> parseAll(String pathStr, Function<String, T> parser) throws IOException {
+        ensureRecovered();
         Path path = Paths.get(pathStr);
         ensureFile(path);
-        return Files.readAllLines(path, StandardCharsets.UTF_8);
+        long t0 = READ.start();
+        Events.FileIo event = Events.FileIo.start(pathStr, "parallel read");
+        long bytes = 0;
+        try {
+            List<T> out = ParallelLoader.parse(path, parser);
+            bytes = sizeOf(pathStr);
+            Metrics.file(pathStr).read(bytes);
+            return out;
+        } finally {
+            READ.stop(t0);
+            event.end(bytes);
+        }
     }
 
-    public static void appendLine(String pathStr, String line) throws IOException {
+    private static long scan(String pathStr, long offset, boolean toEnd, LineHandler handler) throws IOException {
+        ensureRecovered();
         Path path = Paths.get(pathStr);
         ensureFile(path);
-        Files.write(path, (line + System.lineSeparator()).getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        long t0 = READ.start();
+        Events.FileIo event = Events.FileIo.start(pathStr, "read");
+        ByteBuffer buf = readBuffers.get();
+        if (buf == null) buf = ByteBuffer.allocateDirect(READ_CHUNK);
+        else readBuffers.set(null);
+        long read = 0;
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            byte[] bytes = new byte[READ_CHUNK];
+            int held = 0;       // start of an unfinished line, carried over from the last chunk
+            long at = offset;   // file offset of bytes[0]
+            while (true) {
+                buf.clear();
+                int n = ch.read(buf, offset + read);
+                if (n <= 0) break;
+                read += n;
+                buf.flip();
+                if (held + n > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, held + n));
+                buf.get(bytes, held, n);
+                int end = held + n;
+                int start = 0;
+                for (int i = held; i < end; i++) {
+                    if (bytes[i] != '\n') continue;
+                    int len = i > start && bytes[i - 1] == '\r' ? i - 1 - start : i - start;
+                    String line = new String(bytes, start, len, StandardCharsets.UTF_8);
+                    start = i + 1;
+                    if (!handler.line(line)) return at + start;
+                }
+                held = end - start;
+                System.arraycopy(bytes, start, bytes, 0, held);
+                at += start;
+            }
+            if (toEnd && held > 0) {
+                int len = bytes[held - 1] == '\r' ? held - 1 : held;
+                handler.line(new String(bytes, 0, len, StandardCharsets.UTF_8));
+                at += held;
+            }
+            return at;
+        } finally {
+            readBuffers.set(buf);
+            Metrics.file(pathStr).read(read);
+            READ.stop(t0);
+            event.end(read);
+        }
+    }
+
+    public static void appendLine(String pathStr, String line) throws IOException {
+        begin().appendLine(pathStr, line).commit();
+    }
+
+    /**
+     * How commits reach the disk, from -Dfiles.durability: {@link #SYNC},
+     * {@link #GROUP} or {@link #ASYNC}. Queued modes batch up to -Dfiles.batch
+     * transactions (256); async also waits up to -Dfiles.flushMs (20) for a
+     * batch to fill.
+     *
+     * Only transactions that write a single file, made by a thread not holding
+     * that file's lock, are queued. Anything else (multi-file transactions,
+     * read-modify-writes under {@link #withLock}, {@link Transaction#durable()})
+     * is written at once, together with whatever is queued for its files so
+     * the order of writes is kept. Async is for a single process such as the
+     * API server: other processes do not see a write until it is flushed.
+     */
+    public static String durability() {
+        return DURABILITY;
+    }
+
+    /** Whether writes to the file are queued and not yet on disk. Caches should not reload it meanwhile. */
+    public static boolean hasPendingWrites(String pathStr) {
+        return writeBehind != null && writeBehind.hasPending(key(pathStr));
+    }
+
+    /** Writes everything queued for the file now, in this thread. */
+    public static void writePending(String pathStr) throws IOException {
+        if (writeBehind == null) return;
+        withLock(pathStr, () -> {
+            writeBehind.done(write(null, pathStr), null);
+            return null;
+        });
+    }
+
+    /** Waits until every queued write is on disk. Also runs on JVM shutdown. */
+    public static void drain() throws IOException {
+        if (writeBehind != null) writeBehind.drain();
+    }
+
+    private static String durabilityFrom(String value) {
+        if (value == null) return SYNC;
+        String v = value.trim().toLowerCase(Locale.ROOT);
+        if (v.equals(GROUP) || v.equals(ASYNC)) return v;
+        return SYNC;
+    }
+
+    public interface Locked<R> {
+        R run() throws IOException;
+    }
+
+    /**
+     * Runs action while holding the file's lock, which also keeps out other
+     * processes (an OS lock on pathStr + ".lock"). Use it around a
+     * read-modify-write of a whole file. Reentrant; writes made inside take
+     * the same lock without waiting.
+     */
+    public static <R> R withLock(String pathStr, Locked<R> action) throws IOException {
+        Unlock lock = lockFile(pathStr);
+        try {
+            return action.run();
+        } finally {
+            lock.unlock();
+        }
     }
 
+    /** Replaces the file's contents atomically: write a temp file, fsync it, then rename it over the original. */
     public static void overwrite(String pathStr, List<String> lines) throws IOException {
-        Path path = Paths.get(pathStr);
+        begin().overwrite(pathStr, lines).commit();
+    }
+
+    public static Transaction begin() {
+        return new Transaction();
+    }
+
+    /**
+     * A group of writes to one or more files that take effect together. With
+     * more than one write, the changes are first forced to the redo journal,
+     * so a crash part way through is completed by recovery on the next start.
+     */
+    public static class Transaction {
+        final List<Journal.Op> ops = new ArrayList<>();
+        private final List<LongConsumer> landed = new ArrayList<>();
+        private final List<Runnable> onCommit = new ArrayList<>();
+        private final List<Runnable> onWritten = new ArrayList<>();
+        private boolean durable = false;
+        private long[] offsets;
+        // set while queued in group mode
+        CountDownLatch done;
+        IOException failure;
+
+        public Transaction overwrite(String pathStr, List<String> lines) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] sep = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+            for (String l : lines) {
+                byte[] b = l.getBytes(StandardCharsets.UTF_8);
+                out.write(b, 0, b.length);
+                out.write(sep, 0, sep.length);
+            }
+            return overwrite(pathStr, out.toByteArray());
+        }
+
+        /** Replaces the file's contents with data, e.g. a compressed file. */
+        public Transaction overwrite(String pathStr, byte[] data) {
+            ops.add(new Journal.Op(Journal.OVERWRITE, pathStr, 0, data));
+            landed.add(null);
+            return this;
+        }
+
+        public Transaction appendLine(String pathStr, String line) {
+            return appendLine(pathStr, line, null);
+        }
+
+        /**
+         * Appends a line; once it is on disk, at (if not null) gets the offset
+         * it was written at, before the onCommit actions unless those already
+         * ran when the transaction was queued.
+         */
+        public Transaction appendLine(String pathStr, String line, LongConsumer at) {
+            // the offset is filled in at write time, once the file is locked
+            ops.add(new Journal.Op(Journal.APPEND, pathStr, -1, (line + System.lineSeparator()).getBytes(StandardCharsets.UTF_8)));
+            landed.add(at);
+            return this;
+        }
+
+        /**
+         * Runs once the transaction is committed, to update in-memory caches:
+         * after its writes are on disk, or, with async durability, as soon as
+         * it is queued.
+         */
+        public Transaction onCommit(Runnable r) {
+            onCommit.add(r);
+            return this;
+        }
+
+        /** Runs once the writes are on disk, after the onCommit actions. */
+        public Transaction onWritten(Runnable r) {
+            onWritten.add(r);
+            return this;
+        }
+
+        /** Makes commit write at once whatever the durability mode. */
+        public Transaction durable() {
+            durable = true;
+            return this;
+        }
+
+        public boolean isEmpty() { return ops.isEmpty(); }
+
+        public void commit() throws IOException {
+            ensureRecovered();
+            if (ops.isEmpty()) {
+                committed();
+                written();
+                return;
+            }
+            if (writeBehind != null && !durable && singleFile() && !holdsLock(path())) {
+                writeBehind.submit(this);
+                return;
+            }
+            List<Transaction> queued = write(this, null);
+            if (writeBehind != null) writeBehind.done(queued, null);
+            landed();
+            committed();
+            written();
+        }
+
+        void landed() {
+            for (int i = 0; i < landed.size(); i++) {
+                LongConsumer at = landed.get(i);
+                if (at != null && offsets != null && offsets[i] >= 0) at.accept(offsets[i]);
+            }
+        }
+
+        void committed() {
+            for (Runnable r : onCommit) r.run();
+        }
+
+        void written() {
+            for (Runnable r : onWritten) r.run();
+        }
+
+        String path() {
+            return ops.get(0).path;
+        }
+
+        private boolean singleFile() {
+            String key = key(path());
+            for (Journal.Op op : ops) {
+                if (!key(op.path).equals(key)) return false;
+            }
+            return true;
+        }
+
+        private List<String> paths() {
+            List<String> out = new ArrayList<>();
+            for (Journal.Op op : ops) out.add(op.path);
+            return out;
+        }
+    }
+
+    /**
+     * Writes own (may be null) together with the transactions queued for its
+     * files, or for pathStr when own is null, queued ones first. Returns the
+     * queued transactions it wrote; if the write fails they are handed back
+     * to the queue.
+     */
+    static List<Transaction> write(Transaction own, String pathStr) throws IOException {
+        while (true) {
+            try {
+                return writeLocked(own, pathStr);
+            } catch (Journal.Unrecovered e) {
+                // a process died mid-commit: finish its transaction, which needs our locks released
+                recover();
+            }
+        }
+    }
+
+    private static List<Transaction> writeLocked(Transaction own, String pathStr) throws IOException {
+        TreeSet<String> paths = new TreeSet<>();
+        if (own != null) paths.addAll(own.paths());
+        if (pathStr != null) paths.add(pathStr);
+        List<Unlock> held = new ArrayList<>();
+        List<Transaction> queued = Collections.emptyList();
+        // lock in path order so two transactions over the same files cannot deadlock
+        try {
+            for (String p : paths) held.add(lockFile(p));
+            if (journal.leftOver()) throw new Journal.Unrecovered();
+            // queued writes only leave the queue under their file's lock, so nothing older is in flight
+            if (writeBehind != null) queued = writeBehind.take(paths);
+            List<Transaction> all = new ArrayList<>(queued);
+            if (own != null) all.add(own);
+            try {
+                writeAll(all);
+            } catch (IOException | RuntimeException e) {
+                if (writeBehind != null) writeBehind.done(queued, e instanceof IOException ? (IOException) e : new IOException(e));
+                throw e;
+            }
+            return queued;
+        } finally {
+            for (int i = held.size() - 1; i >= 0; i--) held.get(i).unlock();
+        }
+    }
+
+    private static void writeAll(List<Transaction> txs) throws IOException {
+        // an overwrite makes every earlier write to the same file moot
+        Map<String, Integer> lastOverwrite = new HashMap<>();
+        int k = 0;
+        for (Transaction tx : txs) {
+            for (Journal.Op op : tx.ops) {
+                if (op.type == Journal.OVERWRITE) lastOverwrite.put(key(op.path), k);
+                k++;
+            }
+        }
+        List<Journal.Op> resolved = new ArrayList<>();
+        Map<String, Long> sizes = new HashMap<>();
+        k = 0;
+        for (Transaction tx : txs) {
+            tx.offsets = new long[tx.ops.size()];
+            for (int i = 0; i < tx.ops.size(); i++, k++) {
+                Journal.Op op = tx.ops.get(i);
+                String key = key(op.path);
+                tx.offsets[i] = -1;
+                if (lastOverwrite.getOrDefault(key, -1) > k) continue;
+                if (op.type == Journal.APPEND) {
+                    long at = sizes.computeIfAbsent(key, p -> sizeOf(op.path));
+                    sizes.put(key, at + op.data.length);
+                    tx.offsets[i] = at;
+                    resolved.add(new Journal.Op(op.type, op.path, at, op.data));
+                } else {
+                    sizes.put(key, (long) op.data.length);
+                    resolved.add(op);
+                }
+            }
+        }
+        if (resolved.size() == 1) {
+            apply(resolved.get(0), false);
+        } else if (!resolved.isEmpty()) {
+            long t0 = JOURNAL.start();
+            Events.FileIo event = Events.FileIo.start(JOURNAL_FILE, "journal");
+            try {
+                journal.log(resolved);
+            } finally {
+                JOURNAL.stop(t0);
+                long bytes = 0;
+                for (Journal.Op op : resolved) bytes += op.data.length;
+                event.end(bytes);
+            }
+            try {
+                for (Journal.Op op : resolved) apply(op, false);
+            } finally {
+                journal.applied();
+            }
+        }
+    }
+
+    /**
+     * Finishes any transaction a crash interrupted. Runs automatically before
+     * the first file access, and again whenever a write finds another
+     * process's unfinished commit in the journal.
+     */
+    public static void recover() throws IOException {
+        // lock the journal's files first, like a commit does, then check they are still the ones it names
+        while (true) {
+            TreeSet<String> paths = new TreeSet<>(journal.paths());
+            Set<String> keys = new HashSet<>();
+            List<Unlock> held = new ArrayList<>();
+            try {
+                for (String p : paths) {
+                    held.add(lockFile(p));
+                    keys.add(key(p));
+                }
+                if (journal.recover(keys)) break;
+            } finally {
+                for (int i = held.size() - 1; i >= 0; i--) held.get(i).unlock();
+            }
+        }
+        recovered = true;
+    }
+
+    private static void ensureRecovered() throws IOException {
+        if (!recovered) recover();
+    }
+
+    // replaying an append is idempotent: bytes already at the recorded offset are left alone
+    static void apply(Journal.Op op, boolean replay) throws IOException {
+        long t0 = WRITE.start();
+        Events.FileIo event = Events.FileIo.start(op.path, op.type == Journal.OVERWRITE ? "overwrite" : "append");
+        try {
+            applyOp(op, replay);
+            Metrics.file(op.path).written(op.data.length);
+        } finally {
+            WRITE.stop(t0);
+            event.end(op.data.length);
+        }
+    }
+
+    private static void applyOp(Journal.Op op, boolean replay) throws IOException {
+        Path path = Paths.get(op.path);
         ensureFile(path);
-        Files.write(path, lines, StandardCharsets.UTF_8);
+        if (op.type == Journal.OVERWRITE) {
+            Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buf = ByteBuffer.wrap(op.data);
+                while (buf.hasRemaining()) ch.write(buf);
+                ch.force(true);
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            forceDirectory(path.toAbsolutePath().getParent());
+            return;
+        }
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            long at = replay ? op.offset : Math.max(op.offset, ch.size());
+            if (replay && ch.size() >= op.offset + op.data.length && sameBytes(path, op.offset, op.data)) return;
+            ByteBuffer buf = ByteBuffer.wrap(op.data);
+            while (buf.hasRemaining()) at += ch.write(buf, at);
+            ch.force(true);
+        }
+    }
+
+    private static boolean sameBytes(Path path, long offset, byte[] data) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate(data.length);
+            long at = offset;
+            while (buf.hasRemaining()) {
+                int n = ch.read(buf, at);
+                if (n < 0) return false;
+                at += n;
+            }
+            return Arrays.equals(buf.array(), data);
+        }
+    }
+
+    private static void forceDirectory(Path dir) {
+        if (dir == null) return;
+        try (FileChannel ch = FileChannel.open(dir, StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (IOException ignored) {
+            // not supported on every platform (e.g. Windows); the rename is still atomic
+        }
+    }
+
+    private static long sizeOf(String pathStr) {
+        try {
+            return Files.size(Paths.get(pathStr));
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    static String key(String pathStr) {
+        return Paths.get(pathStr).toAbsolutePath().normalize().toString();
+    }
+
+    private static boolean holdsLock(String pathStr) {
+        ReentrantLock local = fileLocks.get(key(pathStr));
+        return local != null && local.isHeldByCurrentThread();
+    }
+
+    private interface Unlock {
+        void unlock();
+    }
+
+    // this process's lock for the file, plus an OS lock on its ".lock" sidecar the first time a thread takes it
+    private static Unlock lockFile(String pathStr) throws IOException {
+        ReentrantLock local = fileLocks.computeIfAbsent(key(pathStr), p -> new ReentrantLock());
+        local.lock();
+        if (local.getHoldCount() > 1) return local::unlock;
+        FileChannel ch = null;
+        try {
+            Path lockPath = Paths.get(pathStr + ".lock");
+            Path parent = lockPath.toAbsolutePath().getParent();
+            if (parent != null) Files.createDirectories(parent);
+            ch = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileChannel channel = ch;
+            FileLock os = osLock(channel, 0, Long.MAX_VALUE);
+            return () -> {
+                try {
+                    os.release();
+                    channel.close();
+                } catch (IOException ignored) {
+                    // closing the channel drops the OS lock anyway
+                }
+                local.unlock();
+            };
+        } catch (IOException | RuntimeException e) {
+            if (ch != null) {
+                try { ch.close(); } catch (IOException ignored) { }
+            }
+            local.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Blocking OS lock on a range of ch. The kernel tracks these locks per
+     * process, not per thread, so two busy processes can look deadlocked
+     * when no thread is; it then refuses the lock and we simply try again.
+     */
+    static FileLock osLock(FileChannel ch, long position, long size) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return ch.lock(position, size, false);
+            } catch (IOException e) {
+                String m = e.getMessage();
+                if (m == null || !m.toLowerCase(Locale.ROOT).contains("deadlock") || attempt >= 1000) throw e;
+            }
+            try {
+                Thread.sleep(1 + attempt % 10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while waiting for a file lock", e);
+            }
+        }
     }
 
     private static void ensureFile(Path path) throws IOException {
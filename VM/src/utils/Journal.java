@@ -0,0 +1,307 @@
+package utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.CRC32;
+
+/**
+ * Redo journal behind {@link FileManager.Transaction}. A transaction's full
+ * effect (new file contents, appended bytes and the offset they go to) is
+ * written here and forced to disk before any data file is touched, so after
+ * a crash {@link #recover(Set)} can finish the job.
+ *
+ * Commits are group-committed: whichever thread finds no flush in progress
+ * writes every queued record and issues one force() for the whole batch,
+ * while the others wait for it.
+ *
+ * The journal is shared by every process on the files/ folder. A process
+ * holds an OS lock on it (the ".lock" sidecar) from its first record until
+ * its last commit is applied and the journal truncated, so the journal
+ * only ever holds one process's records, and records found while nobody
+ * holds the lock belong to a process that died mid-commit. The callers
+ * hold the data files' locks before the journal's, and recovery takes
+ * them in the same order.
+ */
+class Journal {
+    static final byte OVERWRITE = 1;
+    static final byte APPEND = 2;
+    private static final int MAGIC = 0x564A524E; // "VJRN"
+
+    private final Path path;
+    private final Path lockPath;
+    private FileChannel lockChannel;
+    private FileLock held;
+    private final List<Pending> queue = new ArrayList<>();
+    private boolean flushing = false;
+    private int inFlight = 0;
+    private FileChannel channel;
+
+    Journal(String path) {
+        this.path = Paths.get(path);
+        this.lockPath = Paths.get(path + ".lock");
+    }
+
+    /** Thrown when the journal holds the commit of a process that died; recover before writing. */
+    static final class Unrecovered extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        Unrecovered() {
+            super("the journal holds an unfinished commit of another process");
+        }
+    }
+
+    static class Op {
+        final byte type;
+        final String path;
+        final long offset;
+        final byte[] data;
+
+        Op(byte type, String path, long offset, byte[] data) {
+            this.type = type;
+            this.path = path;
+            this.offset = offset;
+            this.data = data;
+        }
+    }
+
+    private static class Pending {
+        final byte[] record;
+        final CountDownLatch done = new CountDownLatch(1);
+        IOException error;
+
+        Pending(byte[] record) { this.record = record; }
+    }
+
+    /** Durably records the ops; returns once they are on disk. Call {@link #applied()} after applying them. */
+    void log(List<Op> ops) throws IOException {
+        Pending p = new Pending(encode(ops));
+        boolean leader;
+        synchronized (this) {
+            queue.add(p);
+            inFlight++;
+            leader = !flushing;
+            if (leader) flushing = true;
+        }
+        if (leader) {
+            flushBatches();
+        } else {
+            try {
+                p.done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while waiting for journal flush", e);
+            }
+        }
+        if (p.error != null) {
+            applied();
+            throw p.error;
+        }
+    }
+
+    private void flushBatches() {
+        while (true) {
+            List<Pending> batch;
+            synchronized (this) {
+                if (queue.isEmpty()) {
+                    flushing = false;
+                    return;
+                }
+                batch = new ArrayList<>(queue);
+                queue.clear();
+            }
+            IOException error = null;
+            try {
+                lock();
+                FileChannel ch = channel();
+                for (Pending p : batch) {
+                    ByteBuffer buf = ByteBuffer.wrap(p.record);
+                    while (buf.hasRemaining()) ch.write(buf);
+                }
+                ch.force(false);
+            } catch (IOException e) {
+                error = e;
+            }
+            for (Pending p : batch) {
+                p.error = error;
+                p.done.countDown();
+            }
+        }
+    }
+
+    // takes the OS lock for this process's first record; the journal must be empty then
+    private synchronized void lock() throws IOException {
+        if (held != null) return;
+        FileLock l = osLock();
+        if (channel().size() > 0) {
+            l.release();
+            throw new Unrecovered();
+        }
+        held = l;
+    }
+
+    private FileLock osLock() throws IOException {
+        if (lockChannel == null) {
+            Path parent = lockPath.toAbsolutePath().getParent();
+            if (parent != null) Files.createDirectories(parent);
+            lockChannel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        }
+        return FileManager.osLock(lockChannel, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Marks one logged transaction as applied. Once nothing is in flight the
+     * journal is truncated and the OS lock let go.
+     */
+    synchronized void applied() {
+        inFlight--;
+        if (inFlight == 0 && !flushing && held != null) {
+            try {
+                channel().truncate(0);
+            } catch (IOException ignored) {
+                // leaving applied records behind is harmless, recovery redoes them idempotently
+            }
+            try {
+                held.release();
+            } catch (IOException ignored) {
+                // closing the channel at exit drops it anyway
+            }
+            held = null;
+        }
+    }
+
+    /** True when the journal holds records and no commit of this process is in flight, so they are another's leftovers. */
+    synchronized boolean leftOver() throws IOException {
+        return held == null && inFlight == 0 && Files.exists(path) && Files.size(path) > 0;
+    }
+
+    /** Files named in the journal right now; a hint for which locks {@link #recover(Set)} needs. */
+    synchronized List<String> paths() throws IOException {
+        List<String> out = new ArrayList<>();
+        if (held != null || inFlight > 0) return out;
+        for (List<Op> ops : records()) {
+            for (Op op : ops) out.add(op.path);
+        }
+        return out;
+    }
+
+    /**
+     * Redoes every complete record left by a process that died mid-commit,
+     * then empties the journal. locked holds the keys of the files the
+     * caller has locked; returns false, changing nothing, when the records
+     * name any other file.
+     */
+    synchronized boolean recover(Set<String> locked) throws IOException {
+        if (held != null || inFlight > 0) return true;
+        held = osLock();
+        try {
+            List<List<Op>> records = records();
+            for (List<Op> ops : records) {
+                for (Op op : ops) {
+                    if (!locked.contains(FileManager.key(op.path))) return false;
+                }
+            }
+            for (List<Op> ops : records) {
+                for (Op op : ops) FileManager.apply(op, true);
+            }
+            if (channel().size() > 0) {
+                channel().truncate(0);
+                channel().force(false);
+            }
+            return true;
+        } finally {
+            held.release();
+            held = null;
+        }
+    }
+
+    // every complete record; a torn or damaged tail never committed
+    private List<List<Op>> records() throws IOException {
+        List<List<Op>> out = new ArrayList<>();
+        if (Files.notExists(path) || Files.size(path) == 0) return out;
+        DataInputStream in = new DataInputStream(new java.io.ByteArrayInputStream(Files.readAllBytes(path)));
+        while (true) {
+            List<Op> ops;
+            try {
+                ops = decode(in);
+            } catch (EOFException e) {
+                break;
+            }
+            if (ops == null) break;
+            out.add(ops);
+        }
+        return out;
+    }
+
+    private FileChannel channel() throws IOException {
+        if (channel == null) {
+            Path parent = path.getParent();
+            if (parent != null) Files.createDirectories(parent);
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        return channel;
+    }
+
+    private static byte[] encode(List<Op> ops) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+        out.writeInt(ops.size());
+        for (Op op : ops) {
+            out.writeByte(op.type);
+            out.writeUTF(op.path);
+            out.writeLong(op.offset);
+            out.writeInt(op.data.length);
+            out.write(op.data);
+        }
+        out.flush();
+        byte[] b = body.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(b);
+        ByteArrayOutputStream rec = new ByteArrayOutputStream(b.length + 16);
+        DataOutputStream r = new DataOutputStream(rec);
+        r.writeInt(MAGIC);
+        r.writeInt(b.length);
+        r.write(b);
+        r.writeLong(crc.getValue());
+        r.flush();
+        return rec.toByteArray();
+    }
+
+    // returns null when the record is damaged; anything after it is ignored
+    private static List<Op> decode(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) return null;
+        int len = in.readInt();
+        if (len < 0 || len > in.available()) throw new EOFException();
+        byte[] b = new byte[len];
+        in.readFully(b);
+        long expected = in.readLong();
+        CRC32 crc = new CRC32();
+        crc.update(b);
+        if (crc.getValue() != expected) return null;
+        DataInputStream body = new DataInputStream(new java.io.ByteArrayInputStream(b));
+        int n = body.readInt();
+        List<Op> ops = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            byte type = body.readByte();
+            String p = body.readUTF();
+            long offset = body.readLong();
+            byte[] data = new byte[body.readInt()];
+            body.readFully(data);
+            ops.add(new Op(type, p, offset, data));
+        }
+        return ops;
+    }
+}
@@ -0,0 +1,149 @@
+package utils;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The little JSON the API and the benchmarks need: writing values, and
+ * reading request bodies that are one flat object of strings, numbers,
+ * booleans or null. Nested objects and arrays in a body are rejected.
+ */
+public final class Json {
+    private Json() { }
+
+    public static String quote(String s) {
+        if (s == null) return "null";
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (ch == '"' || ch == '\\') sb.append('\\').append(ch);
+            else if (ch < 0x20) sb.append(String.format("\\u%04x", (int) ch));
+            else sb.append(ch);
+        }
+        return sb.append('"').toString();
+    }
+
+    public static String money(double v) {
+        return String.format(Locale.ROOT, "%.2f", v);
+    }
+
+    public static String number(double v) {
+        if (Double.isNaN(v) || Double.isInfinite(v)) return "null";
+        if (v == Math.rint(v) && Math.abs(v) < 1e15) return Long.toString((long) v);
+        return String.format(Locale.ROOT, "%.3f", v);
+    }
+
+    /** Joins already-encoded JSON values into an array. */
+    public static String array(List<String> values) {
+        return "[" + String.join(",", values) + "]";
+    }
+
+    /** Parses a flat object; values come back as String, Double, Boolean or null. */
+    public static Map<String, Object> parseObject(String text) {
+        Reader r = new Reader(text);
+        Map<String, Object> out = new LinkedHashMap<>();
+        r.skipSpace();
+        r.expect('{');
+        r.skipSpace();
+        if (r.peek() == '}') {
+            r.pos++;
+        } else {
+            while (true) {
+                r.skipSpace();
+                String key = r.string();
+                r.skipSpace();
+                r.expect(':');
+                r.skipSpace();
+                out.put(key, r.value());
+                r.skipSpace();
+                char ch = r.next();
+                if (ch == '}') break;
+                if (ch != ',') throw r.error("expected , or }");
+            }
+        }
+        r.skipSpace();
+        if (r.pos < text.length()) throw r.error("unexpected text after the object");
+        return out;
+    }
+
+    private static final class Reader {
+        final String s;
+        int pos;
+
+        Reader(String s) { this.s = s; }
+
+        char peek() {
+            if (pos >= s.length()) throw error("unexpected end of JSON");
+            return s.charAt(pos);
+        }
+
+        char next() {
+            char ch = peek();
+            pos++;
+            return ch;
+        }
+
+        void expect(char ch) {
+            if (next() != ch) throw error("expected " + ch);
+        }
+
+        void skipSpace() {
+            while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) pos++;
+        }
+
+        Object value() {
+            char ch = peek();
+            if (ch == '"') return string();
+            if (s.startsWith("true", pos)) { pos += 4; return Boolean.TRUE; }
+            if (s.startsWith("false", pos)) { pos += 5; return Boolean.FALSE; }
+            if (s.startsWith("null", pos)) { pos += 4; return null; }
+            if (ch == '-' || (ch >= '0' && ch <= '9')) {
+                int start = pos;
+                while (pos < s.length() && "+-.eE0123456789".indexOf(s.charAt(pos)) >= 0) pos++;
+                try {
+                    return Double.parseDouble(s.substring(start, pos));
+                } catch (NumberFormatException e) {
+                    throw error("bad number");
+                }
+            }
+            throw error("only flat objects of strings, numbers and booleans are accepted");
+        }
+
+        String string() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                char ch = next();
+                if (ch == '"') return sb.toString();
+                if (ch != '\\') {
+                    sb.append(ch);
+                    continue;
+                }
+                char esc = next();
+                switch (esc) {
+                    case 'n': sb.append('\n'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'u':
+                        if (pos + 4 > s.length()) throw error("bad \\u escape");
+                        try {
+                            sb.append((char) Integer.parseInt(s.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("bad \\u escape");
+                        }
+                        pos += 4;
+                        break;
+                    default: sb.append(esc);
+                }
+            }
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("invalid JSON at " + pos + ": " + message);
+        }
+    }
+}
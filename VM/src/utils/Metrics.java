@@ -0,0 +1,296 @@
+package utils;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+
+/**
+ * Process-wide counters and histograms for the hot paths: how long each
+ * service operation and file access takes, how many bytes each file reads
+ * and writes, and how many records a parse produces.
+ *
+ * Recording is a few atomic adds, so it stays on in production; start with
+ * -Dmetrics=false to turn it off. {@link #report()} prints everything and
+ * {@link #registerMBean()} publishes it over JMX as vm:type=Metrics.
+ *
+ *   private static final Metrics.Timer LOAD = Metrics.timer("vehicles.loadAll");
+ *   long t0 = LOAD.start();
+ *   try { ... } finally { LOAD.stop(t0); }
+ */
+public final class Metrics {
+    private static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty("metrics"));
+    private static final Map<String, Timer> TIMERS = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram> SIZES = new ConcurrentHashMap<>();
+    private static final Map<String, FileStats> FILES = new ConcurrentHashMap<>();
+    private static volatile boolean registered = false;
+
+    private Metrics() { }
+
+    public static boolean enabled() {
+        return ENABLED;
+    }
+
+    /** The latency timer for an operation, created on first use. */
+    public static Timer timer(String name) {
+        return TIMERS.computeIfAbsent(name, Timer::new);
+    }
+
+    /** A histogram of plain counts (e.g. records per parse), created on first use. */
+    public static Histogram sizes(String name) {
+        return SIZES.computeIfAbsent(name, k -> new Histogram());
+    }
+
+    /** Read and write counters of a file. */
+    public static FileStats file(String path) {
+        return FILES.computeIfAbsent(path, FileStats::new);
+    }
+
+    /** Wall time of one operation, recorded into a latency histogram. */
+    public static final class Timer {
+        final String name;
+        final Histogram nanos = new Histogram();
+
+        private Timer(String name) {
+            this.name = name;
+        }
+
+        /** A start time for {@link #stop(long)}; 0 when metrics are off. */
+        public long start() {
+            return ENABLED ? System.nanoTime() : 0;
+        }
+
+        public void stop(long start) {
+            if (start != 0) nanos.record(System.nanoTime() - start);
+        }
+
+        public Histogram histogram() {
+            return nanos;
+        }
+    }
+
+    public static final class FileStats {
+        final String path;
+        final LongAdder reads = new LongAdder();
+        final LongAdder bytesRead = new LongAdder();
+        final LongAdder writes = new LongAdder();
+        final LongAdder bytesWritten = new LongAdder();
+
+        private FileStats(String path) {
+            this.path = path;
+        }
+
+        public void read(long bytes) {
+            if (!ENABLED) return;
+            reads.increment();
+            bytesRead.add(bytes);
+        }
+
+        public void written(long bytes) {
+            if (!ENABLED) return;
+            writes.increment();
+            bytesWritten.add(bytes);
+        }
+
+        public long writes() { return writes.sum(); }
+    }
+
+    /**
+     * Lock-free log-linear histogram in the spirit of HdrHistogram: values
+     * below 32 get a bucket each, and every power of two above is split into
+     * 16 buckets, so any value is known to within 1/16 (about 6%) over the
+     * whole long range in 960 counters.
+     */
+    public static final class Histogram {
+        private static final int SUB_BITS = 4;
+        private static final int SUB = 1 << SUB_BITS;
+        private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BITS) * SUB);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long value) {
+            if (!ENABLED) return;
+            long v = Math.max(0, value);
+            counts.incrementAndGet(index(v));
+            count.increment();
+            sum.add(v);
+            long m = max.get();
+            while (v > m && !max.compareAndSet(m, v)) m = max.get();
+        }
+
+        static int index(long v) {
+            if (v < 2 * SUB) return (int) v;
+            int e = 63 - Long.numberOfLeadingZeros(v);
+            return (e - SUB_BITS + 1) * SUB + (int) ((v >>> (e - SUB_BITS)) & (SUB - 1));
+        }
+
+        // largest value that lands in bucket i
+        static long highest(int i) {
+            if (i < 2 * SUB) return i;
+            int e = i / SUB + SUB_BITS - 1;
+            long low = (long) (SUB + i % SUB) << (e - SUB_BITS);
+            return low + (1L << (e - SUB_BITS)) - 1;
+        }
+
+        public long count() { return count.sum(); }
+
+        public long max() { return max.get(); }
+
+        public double mean() {
+            long n = count.sum();
+            return n == 0 ? 0 : sum.sum() / (double) n;
+        }
+
+        /** Value at quantile q (0..1), reported as the top of its bucket and never above the max. */
+        public long percentile(double q) {
+            long n = 0;
+            long[] snapshot = new long[counts.length()];
+            for (int i = 0; i < snapshot.length; i++) {
+                snapshot[i] = counts.get(i);
+                n += snapshot[i];
+            }
+            if (n == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(q * n));
+            long seen = 0;
+            for (int i = 0; i < snapshot.length; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) return Math.min(highest(i), max.get());
+            }
+            return max.get();
+        }
+
+        void reset() {
+            for (int i = 0; i < counts.length(); i++) counts.set(i, 0);
+            count.reset();
+            sum.reset();
+            max.set(0);
+        }
+    }
+
+    /** Clears every counter and histogram. */
+    public static void reset() {
+        for (Timer t : TIMERS.values()) t.nanos.reset();
+        for (Histogram h : SIZES.values()) h.reset();
+        for (FileStats f : FILES.values()) {
+            f.reads.reset();
+            f.bytesRead.reset();
+            f.writes.reset();
+            f.bytesWritten.reset();
+        }
+    }
+
+    /** Operations, sizes and files as text tables, sorted by name. */
+    public static String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "%-32s %9s %10s %10s %10s %10s %10s%n", "operation", "count", "mean ms", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+        for (Timer t : new TreeMap<>(TIMERS).values()) {
+            Histogram h = t.nanos;
+            if (h.count() == 0) continue;
+            sb.append(String.format(Locale.ROOT, "%-32s %9d %10.3f %10.3f %10.3f %10.3f %10.3f%n", t.name, h.count(),
+                    h.mean() / 1e6, h.percentile(0.50) / 1e6, h.percentile(0.90) / 1e6, h.percentile(0.99) / 1e6, h.max() / 1e6));
+        }
+        if (!SIZES.isEmpty()) {
+            sb.append(String.format(Locale.ROOT, "%n%-32s %9s %10s %10s %10s %10s%n", "per call", "calls", "mean", "p50", "p99", "max"));
+            for (Map.Entry<String, Histogram> e : new TreeMap<>(SIZES).entrySet()) {
+                Histogram h = e.getValue();
+                if (h.count() == 0) continue;
+                sb.append(String.format(Locale.ROOT, "%-32s %9d %10.1f %10d %10d %10d%n", e.getKey(), h.count(), h.mean(), h.percentile(0.50), h.percentile(0.99), h.max()));
+            }
+        }
+        if (!FILES.isEmpty()) {
+            sb.append(String.format(Locale.ROOT, "%n%-32s %9s %14s %9s %14s%n", "file", "reads", "bytes read", "writes", "bytes written"));
+            for (FileStats f : new TreeMap<>(FILES).values()) {
+                sb.append(String.format(Locale.ROOT, "%-32s %9d %14d %9d %14d%n", f.path, f.reads.sum(), f.bytesRead.sum(), f.writes.sum(), f.bytesWritten.sum()));
+            }
+        }
+        return sb.toString();
+    }
+
+    /** Publishes the metrics as the MBean vm:type=Metrics; later calls do nothing. */
+    public static synchronized void registerMBean() {
+        if (registered) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), new ObjectName("vm:type=Metrics"));
+            registered = true;
+        } catch (Exception | LinkageError e) {
+            // no JMX (e.g. a trimmed runtime): the admin screen still works
+        }
+    }
+
+    /** JMX view of the metrics; times are in microseconds. */
+    public interface MetricsMXBean {
+        List<OperationStats> getOperations();
+
+        List<FileCounters> getFiles();
+
+        String getReport();
+
+        void reset();
+    }
+
+    public static final class OperationStats {
+        private final String name;
+        private final Histogram h;
+
+        OperationStats(String name, Histogram h) {
+            this.name = name;
+            this.h = h;
+        }
+
+        public String getName() { return name; }
+        public long getCount() { return h.count(); }
+        public double getMeanMicros() { return h.mean() / 1e3; }
+        public double getP50Micros() { return h.percentile(0.50) / 1e3; }
+        public double getP90Micros() { return h.percentile(0.90) / 1e3; }
+        public double getP99Micros() { return h.percentile(0.99) / 1e3; }
+        public double getMaxMicros() { return h.max() / 1e3; }
+    }
+
+    public static final class FileCounters {
+        private final FileStats f;
+
+        FileCounters(FileStats f) {
+            this.f = f;
+        }
+
+        public String getPath() { return f.path; }
+        public long getReads() { return f.reads.sum(); }
+        public long getBytesRead() { return f.bytesRead.sum(); }
+        public long getWrites() { return f.writes.sum(); }
+        public long getBytesWritten() { return f.bytesWritten.sum(); }
+    }
+
+    private static final class Bean implements MetricsMXBean {
+        @Override
+        public List<OperationStats> getOperations() {
+            List<OperationStats> out = new ArrayList<>();
+            for (Timer t : new TreeMap<>(TIMERS).values()) out.add(new OperationStats(t.name, t.nanos));
+            return out;
+        }
+
+        @Override
+        public List<FileCounters> getFiles() {
+            List<FileCounters> out = new ArrayList<>();
+            for (FileStats f : new TreeMap<>(FILES).values()) out.add(new FileCounters(f));
+            return out;
+        }
+
+        @Override
+        public String getReport() {
+            return report();
+        }
+
+        @Override
+        public void reset() {
+            Metrics.reset();
+        }
+    }
+}
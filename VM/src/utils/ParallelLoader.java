@@ -0,0 +1,160 @@
+package utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+
+/**
+ * Parses a large line file on a fork/join pool. The file is memory-mapped
+ * in newline-aligned chunks, every chunk is parsed on its own, and the
+ * results are joined in chunk order, so the records come back in file
+ * order as a single-threaded parse would give them. Files under a few MB
+ * are not worth the threads and are parsed on the calling thread.
+ *
+ * The parser runs on several threads at once and must not share mutable
+ * state (Rental.fromCSV keeps its CsvCodec per thread).
+ */
+public final class ParallelLoader {
+    private static final long MIN_PARALLEL = 4L << 20;
+    private static final long MIN_CHUNK = 1L << 20;
+    private static final long MAX_CHUNK = 8L << 20;
+    // Windows cannot replace a file while it is mapped, and a mapping only goes away on GC
+    private static final boolean MAP = File.separatorChar == '/';
+
+    private ParallelLoader() { }
+
+    /** Parses every non-blank line with parser on the common pool; null results are dropped. */
+    public static <T> List<T> parse(Path path, Function<String, T> parser) throws IOException {
+        return parse(path, parser, ForkJoinPool.commonPool());
+    }
+
+    public static <T> List<T> parse(Path path, Function<String, T> parser, ForkJoinPool pool) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = ch.size();
+            long[] bounds = bounds(ch, size, pool.getParallelism());
+            int chunks = bounds.length - 1;
+            List<List<T>> parts = new ArrayList<>(chunks);
+            for (int i = 0; i < chunks; i++) parts.add(null);
+            if (chunks == 1) {
+                parts.set(0, parseChunk(ch, 0, size, parser));
+            } else {
+                Chunks<T> task = new Chunks<>(ch, bounds, 0, chunks, parser, parts);
+                pool.invoke(task);
+                if (task.failure != null) throw task.failure;
+            }
+            int total = 0;
+            for (List<T> p : parts) total += p.size();
+            List<T> out = new ArrayList<>(total);
+            for (List<T> p : parts) out.addAll(p);
+            return out;
+        }
+    }
+
+    // chunk starts, each just past a newline, followed by the file size
+    private static long[] bounds(FileChannel ch, long size, int parallelism) throws IOException {
+        if (size < MIN_PARALLEL) return new long[] {0, size};
+        // a few chunks per thread so a slow one does not hold up the rest
+        long chunk = Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, size / (parallelism * 4L)));
+        List<Long> starts = new ArrayList<>();
+        starts.add(0L);
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        long at = chunk;
+        while (at < size) {
+            long next = lineStart(ch, at, probe);
+            if (next >= size) break;
+            starts.add(next);
+            at = next + chunk;
+        }
+        long[] out = new long[starts.size() + 1];
+        for (int i = 0; i < starts.size(); i++) out[i] = starts.get(i);
+        out[starts.size()] = size;
+        return out;
+    }
+
+    // offset just past the first newline at or after from, or the end of the file
+    private static long lineStart(FileChannel ch, long from, ByteBuffer probe) throws IOException {
+        long at = from;
+        while (true) {
+            probe.clear();
+            int n = ch.read(probe, at);
+            if (n <= 0) return ch.size();
+            for (int i = 0; i < n; i++) {
+                if (probe.get(i) == '\n') return at + i + 1;
+            }
+            at += n;
+        }
+    }
+
+    private static <T> List<T> parseChunk(FileChannel ch, long start, long end, Function<String, T> parser) throws IOException {
+        List<T> out = new ArrayList<>();
+        if (end <= start) return out;
+        byte[] bytes = new byte[(int) (end - start)];
+        if (MAP) {
+            MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            map.get(bytes);
+        } else {
+            ByteBuffer buf = ByteBuffer.wrap(bytes);
+            while (buf.hasRemaining() && ch.read(buf, start + buf.position()) > 0) { }
+        }
+        int from = 0;
+        for (int i = 0; i <= bytes.length; i++) {
+            if (i < bytes.length && bytes[i] != '\n') continue;
+            int len = i > from && bytes[i - 1] == '\r' ? i - 1 - from : i - from;
+            if (len > 0) {
+                String line = new String(bytes, from, len, StandardCharsets.UTF_8);
+                T t = line.trim().isEmpty() ? null : parser.apply(line);
+                if (t != null) out.add(t);
+            }
+            from = i + 1;
+        }
+        return out;
+    }
+
+    private static final class Chunks<T> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final FileChannel ch;
+        private final long[] bounds;
+        private final int lo;
+        private final int hi;
+        private final Function<String, T> parser;
+        private final List<List<T>> parts;
+        volatile IOException failure;
+
+        Chunks(FileChannel ch, long[] bounds, int lo, int hi, Function<String, T> parser, List<List<T>> parts) {
+            this.ch = ch;
+            this.bounds = bounds;
+            this.lo = lo;
+            this.hi = hi;
+            this.parser = parser;
+            this.parts = parts;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo == 1) {
+                try {
+                    parts.set(lo, parseChunk(ch, bounds[lo], bounds[lo + 1], parser));
+                } catch (IOException e) {
+                    failure = e;
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            Chunks<T> left = new Chunks<>(ch, bounds, lo, mid, parser, parts);
+            Chunks<T> right = new Chunks<>(ch, bounds, mid, hi, parser, parts);
+            invokeAll(left, right);
+            if (left.failure != null) failure = left.failure;
+            else if (right.failure != null) failure = right.failure;
+        }
+    }
+}
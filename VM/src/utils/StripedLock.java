@@ -0,0 +1,111 @@
+package utils;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Record-level locks shared by every process working on the same files.
+ * A key (say "vehicle:V001") hashes to one of STRIPES stripes; holding it
+ * means holding an OS lock on that stripe's byte of the lock file, so other
+ * processes wait for it, plus a ReentrantLock for the other threads of this
+ * process, since OS file locks are held per process. Unrelated keys almost
+ * always land on different stripes and do not wait for each other.
+ *
+ * Several keys are taken in stripe order, so two callers locking the same
+ * keys in a different order cannot deadlock. Locks are reentrant for the
+ * holding thread.
+ */
+public final class StripedLock {
+    private static final int STRIPES = 256; // must be the same in every process
+    private static final Map<String, StripedLock> OPEN = new ConcurrentHashMap<>();
+
+    private final Path path;
+    private final ReentrantLock[] local = new ReentrantLock[STRIPES];
+    private final FileLock[] held = new FileLock[STRIPES];
+    private FileChannel channel;
+
+    /** Released by close(), in a finally block. */
+    public interface Held extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private StripedLock(String path) {
+        this.path = Paths.get(path);
+        for (int i = 0; i < STRIPES; i++) local[i] = new ReentrantLock();
+    }
+
+    /** The shared lock set backed by the given lock file. */
+    public static StripedLock open(String path) {
+        return OPEN.computeIfAbsent(Paths.get(path).toAbsolutePath().normalize().toString(), StripedLock::new);
+    }
+
+    /** Blocks until every key is held by this thread. */
+    public Held lock(String... keys) throws IOException {
+        int[] stripes = new int[keys.length];
+        int n = 0;
+        for (String k : keys) stripes[n++] = stripe(k);
+        Arrays.sort(stripes);
+        int distinct = 0;
+        for (int i = 0; i < n; i++) if (distinct == 0 || stripes[distinct - 1] != stripes[i]) stripes[distinct++] = stripes[i];
+        int[] taken = Arrays.copyOf(stripes, distinct);
+        int acquired = 0;
+        try {
+            for (; acquired < taken.length; acquired++) acquire(taken[acquired]);
+        } catch (IOException | RuntimeException e) {
+            for (int i = acquired - 1; i >= 0; i--) release(taken[i]);
+            throw e;
+        }
+        return () -> {
+            for (int i = taken.length - 1; i >= 0; i--) release(taken[i]);
+        };
+    }
+
+    private static int stripe(String key) {
+        // String.hashCode is fixed by the language spec, so all processes agree
+        return Math.floorMod(key == null ? 0 : key.hashCode(), STRIPES);
+    }
+
+    private void acquire(int s) throws IOException {
+        ReentrantLock l = local[s];
+        l.lock();
+        if (l.getHoldCount() > 1) return;
+        try {
+            held[s] = FileManager.osLock(channel(), s, 1);
+        } catch (IOException | RuntimeException e) {
+            l.unlock();
+            throw e;
+        }
+    }
+
+    private void release(int s) {
+        ReentrantLock l = local[s];
+        if (l.getHoldCount() == 1) {
+            try {
+                held[s].release();
+            } catch (IOException ignored) {
+                // the channel is gone, and with it the OS lock
+            }
+            held[s] = null;
+        }
+        l.unlock();
+    }
+
+    private synchronized FileChannel channel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            Path parent = path.getParent();
+            if (parent != null) Files.createDirectories(parent);
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        return channel;
+    }
+}
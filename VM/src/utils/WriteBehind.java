@@ -0,0 +1,212 @@
+package utils;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The queue behind the group and async durability modes of
+ * {@link FileManager}. Single-file transactions wait here and a flusher
+ * thread writes them one file at a time: everything queued for the file in
+ * one locked write, journaled when there is more than one op, with queued
+ * overwrites collapsing into the last one.
+ *
+ * Group mode flushes as soon as anything is queued, so commits arriving
+ * during a write share the next one. Async flushes once -Dfiles.batch
+ * transactions are queued or the oldest has waited -Dfiles.flushMs.
+ *
+ * A file counts as pending from submit until its transaction's onWritten
+ * actions have run, so a cache never reloads a file that is behind its own
+ * in-memory state.
+ */
+final class WriteBehind {
+    private final boolean async;
+    private final int batch;
+    private final long flushNanos;
+    private final ArrayDeque<FileManager.Transaction> queue = new ArrayDeque<>();
+    private final Map<String, AtomicInteger> pending = new ConcurrentHashMap<>();
+    private long oldest;
+    private int taken = 0;
+    private int draining = 0;
+    private IOException failure;
+    private Thread flusher;
+    private final Metrics.Histogram batches = Metrics.sizes("file.batch");
+
+    WriteBehind(boolean async, int batch, long flushMs) {
+        this.async = async;
+        this.batch = Math.max(1, batch);
+        this.flushNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, flushMs));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                drain();
+            } catch (IOException e) {
+                System.err.println("Queued writes were not saved: " + e.getMessage());
+            }
+        }, "write-behind-drain"));
+    }
+
+    boolean hasPending(String key) {
+        AtomicInteger n = pending.get(key);
+        return n != null && n.get() > 0;
+    }
+
+    /** Queues tx; in group mode returns once it is written and its actions have run. */
+    void submit(FileManager.Transaction tx) throws IOException {
+        AtomicInteger count = pending.computeIfAbsent(FileManager.key(tx.path()), k -> new AtomicInteger());
+        count.incrementAndGet();
+        if (async) {
+            try {
+                tx.committed();
+            } catch (RuntimeException e) {
+                count.decrementAndGet();
+                throw e;
+            }
+        } else {
+            tx.done = new CountDownLatch(1);
+        }
+        synchronized (this) {
+            if (queue.isEmpty()) oldest = System.nanoTime();
+            queue.addLast(tx);
+            if (flusher == null) {
+                flusher = new Thread(this::run, "write-behind");
+                flusher.setDaemon(true);
+                flusher.start();
+            }
+            notifyAll();
+        }
+        if (async) return;
+        boolean interrupted = false;
+        while (true) {
+            try {
+                tx.done.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        try {
+            if (tx.failure != null) throw new IOException(tx.failure.getMessage(), tx.failure);
+            tx.landed();
+            tx.committed();
+            tx.written();
+        } finally {
+            count.decrementAndGet();
+        }
+    }
+
+    /** Removes the transactions queued for any of the files. The caller holds their locks. */
+    synchronized List<FileManager.Transaction> take(Collection<String> paths) {
+        Set<String> keys = new HashSet<>();
+        for (String p : paths) keys.add(FileManager.key(p));
+        List<FileManager.Transaction> out = new ArrayList<>();
+        for (Iterator<FileManager.Transaction> it = queue.iterator(); it.hasNext(); ) {
+            FileManager.Transaction tx = it.next();
+            if (keys.contains(FileManager.key(tx.path()))) {
+                out.add(tx);
+                it.remove();
+            }
+        }
+        taken += out.size();
+        return out;
+    }
+
+    /**
+     * Finishes transactions that were taken: wakes group-mode waiters, or
+     * runs the onWritten actions of async ones. Failed async transactions go
+     * back to the front of the queue to be retried.
+     */
+    void done(List<FileManager.Transaction> txs, IOException error) {
+        if (txs.isEmpty()) return;
+        if (error != null) {
+            synchronized (this) {
+                for (int i = txs.size() - 1; i >= 0; i--) {
+                    if (txs.get(i).done == null) queue.addFirst(txs.get(i));
+                }
+            }
+        }
+        for (FileManager.Transaction tx : txs) {
+            if (tx.done != null) {
+                tx.failure = error;
+                tx.done.countDown();
+            } else if (error == null) {
+                try {
+                    tx.landed();
+                    tx.written();
+                } catch (RuntimeException e) {
+                    // a cache action failing must not stop the queue; the cache reloads later
+                } finally {
+                    pending.get(FileManager.key(tx.path())).decrementAndGet();
+                }
+            }
+        }
+        synchronized (this) {
+            taken -= txs.size();
+            if (error != null) failure = error;
+            notifyAll();
+        }
+    }
+
+    /** Waits until the queue is empty; gives up if a write fails meanwhile. */
+    void drain() throws IOException {
+        synchronized (this) {
+            draining++;
+            failure = null;
+            notifyAll();
+            try {
+                while (!queue.isEmpty() || taken > 0) {
+                    if (failure != null) throw new IOException(queue.size() + " queued write(s) failed", failure);
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                draining--;
+            }
+        }
+    }
+
+    private void run() {
+        while (true) {
+            String path;
+            try {
+                synchronized (this) {
+                    while (queue.isEmpty()) wait();
+                    if (async) {
+                        while (draining == 0 && queue.size() < batch) {
+                            long left = flushNanos - (System.nanoTime() - oldest);
+                            if (left <= 0) break;
+                            TimeUnit.NANOSECONDS.timedWait(this, left);
+                        }
+                        if (queue.isEmpty()) continue;
+                    }
+                    path = queue.peekFirst().path();
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                List<FileManager.Transaction> written = FileManager.write(null, path);
+                batches.record(written.size());
+                done(written, null);
+            } catch (IOException | RuntimeException e) {
+                // write() already handed the batch back; wait a little before retrying
+                try {
+                    TimeUnit.NANOSECONDS.sleep(Math.max(flushNanos, TimeUnit.MILLISECONDS.toNanos(100)));
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+}